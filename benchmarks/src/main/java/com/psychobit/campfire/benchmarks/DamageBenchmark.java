@@ -0,0 +1,175 @@
+package com.psychobit.campfire.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.entity.EntityDamageEvent.DamageCause;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * onEntityDamage against the 3.0 handler
+ *
+ * Most damage on a server is not PvP: mobs hitting players, players
+ * hitting mobs, falls and fire. The pvp cases cover a hit that is blocked
+ * because the victim is protected and one that is allowed, and blocked
+ * hits from a player's snowball and tamed wolf.
+ *
+ * @author psychobit
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DamageBenchmark {
+    @Param({ "10", "1000", "10000" })
+    public int online;
+    @Param({ "0", "10" })
+    public int protectedPercent;
+
+    private Fixture fixture;
+    private EntityDamageEvent fall;
+    private EntityDamageEvent mobHitsPlayer;
+    private EntityDamageEvent playerHitsMob;
+    private EntityDamageEvent pvpBlocked;
+    private EntityDamageEvent pvpAllowed;
+    private EntityDamageEvent snowballBlocked;
+    private EntityDamageEvent wolfBlocked;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new Fixture(online, protectedPercent);
+
+        int expired = fixture.find(false, 0);
+        int otherExpired = fixture.find(false, 1);
+        int protectedIndex = fixture.find(true, 0);
+
+        // Without protected players the "blocked" hit targets someone expired
+        if (protectedIndex == -1) {
+            protectedIndex = otherExpired;
+        }
+
+        Player attacker = fixture.players[expired].getPlayer();
+        Player victim = fixture.players[protectedIndex].getPlayer();
+        Location location = attacker.getLocation();
+        Entity zombie = fixture.server.createEntity(EntityType.ZOMBIE, location);
+
+        fall = new EntityDamageEvent(attacker, DamageCause.FALL, 2);
+        mobHitsPlayer = new EntityDamageByEntityEvent(zombie, attacker, DamageCause.ENTITY_ATTACK, 2);
+        playerHitsMob = new EntityDamageByEntityEvent(attacker, zombie, DamageCause.ENTITY_ATTACK, 2);
+        pvpBlocked = new EntityDamageByEntityEvent(attacker, victim, DamageCause.ENTITY_ATTACK, 2);
+        pvpAllowed = new EntityDamageByEntityEvent(attacker, fixture.players[otherExpired].getPlayer(), DamageCause.ENTITY_ATTACK, 2);
+        snowballBlocked = new EntityDamageByEntityEvent(fixture.server.createEntity(EntityType.SNOWBALL, location, attacker),
+                victim, DamageCause.PROJECTILE, 0);
+        wolfBlocked = new EntityDamageByEntityEvent(fixture.server.createEntity(EntityType.WOLF, location, attacker),
+                victim, DamageCause.ENTITY_ATTACK, 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    public boolean fall() {
+        fixture.plugin.onEntityDamage(fall);
+
+        return fall.isCancelled();
+    }
+
+    @Benchmark
+    public boolean mobHitsPlayer() {
+        fixture.plugin.onEntityDamage(mobHitsPlayer);
+
+        return mobHitsPlayer.isCancelled();
+    }
+
+    @Benchmark
+    public boolean playerHitsMob() {
+        fixture.plugin.onEntityDamage(playerHitsMob);
+
+        return playerHitsMob.isCancelled();
+    }
+
+    @Benchmark
+    public boolean pvpBlocked() {
+        fixture.plugin.onEntityDamage(pvpBlocked);
+
+        return pvpBlocked.isCancelled();
+    }
+
+    @Benchmark
+    public boolean pvpAllowed() {
+        fixture.plugin.onEntityDamage(pvpAllowed);
+
+        return pvpAllowed.isCancelled();
+    }
+
+    @Benchmark
+    public boolean snowballBlocked() {
+        fixture.plugin.onEntityDamage(snowballBlocked);
+
+        return snowballBlocked.isCancelled();
+    }
+
+    @Benchmark
+    public boolean wolfBlocked() {
+        fixture.plugin.onEntityDamage(wolfBlocked);
+
+        return wolfBlocked.isCancelled();
+    }
+
+    @Benchmark
+    public boolean legacyFall() {
+        fixture.legacy.onEntityDamage(fall);
+
+        return fall.isCancelled();
+    }
+
+    @Benchmark
+    public boolean legacyMobHitsPlayer() {
+        fixture.legacy.onEntityDamage(mobHitsPlayer);
+
+        return mobHitsPlayer.isCancelled();
+    }
+
+    @Benchmark
+    public boolean legacyPlayerHitsMob() {
+        fixture.legacy.onEntityDamage(playerHitsMob);
+
+        return playerHitsMob.isCancelled();
+    }
+
+    @Benchmark
+    public boolean legacyPvpBlocked() {
+        fixture.legacy.onEntityDamage(pvpBlocked);
+
+        return pvpBlocked.isCancelled();
+    }
+
+    @Benchmark
+    public boolean legacyPvpAllowed() {
+        fixture.legacy.onEntityDamage(pvpAllowed);
+
+        return pvpAllowed.isCancelled();
+    }
+}
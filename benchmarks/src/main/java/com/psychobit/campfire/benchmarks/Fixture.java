@@ -0,0 +1,139 @@
+package com.psychobit.campfire.benchmarks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.event.player.PlayerJoinEvent;
+
+import com.psychobit.campfire.Campfire;
+import com.psychobit.campfire.PlayerData;
+
+/**
+ * An enabled Campfire on a stand-in server with players online
+ *
+ * Players stand 16 blocks apart on a square in one world. Every player
+ * joins as new; all but the given share then terminate their protection,
+ * the same way a live server ends up with a few protected players among
+ * many expired ones.
+ *
+ * @author psychobit
+ *
+ */
+public class Fixture {
+    /**
+     * Blocks between neighbouring players
+     */
+    public static final int SPACING = 16;
+    public final StandInServer server = new StandInServer();
+    public final World world = server.getWorld("world");
+    public final StandInServer.StandInPlayer[] players;
+    public final boolean[] protectedPlayer;
+    public final Campfire plugin;
+    public final File dataFolder;
+    /**
+     * The same players in the shape the 3.0 handlers expect
+     */
+    public final HashMap<String, PlayerData> legacyData = new HashMap<String, PlayerData>();
+    public final LegacyHandlers legacy;
+
+    /**
+     * Enable Campfire with players online
+     *
+     * @param online Players online
+     * @param protectedPercent Share of them that stay protected
+     */
+    public Fixture(int online, int protectedPercent) throws Exception {
+        dataFolder = Files.createTempDirectory("campfire-bench").toFile();
+
+        FileWriter config = new FileWriter(new File(dataFolder, "config.yml"));
+
+        try {
+            config.write("Duration: 1200\nBuffer: 5\nResetOnDeath: true\nWorldGuardAreas: false\n");
+        } finally {
+            config.close();
+        }
+
+        plugin = server.enable(Campfire.class, dataFolder);
+        players = new StandInServer.StandInPlayer[online];
+        protectedPlayer = new boolean[online];
+
+        int side = (int) Math.ceil(Math.sqrt(online));
+
+        for (int i = 0; i < online; i++) {
+            Location location = new Location(world, (i % side) * SPACING + 0.5, 64, (i / side) * SPACING + 0.5);
+
+            players[i] = server.addPlayer("player" + i, location);
+            protectedPlayer[i] = (i * 100L / online) < protectedPercent;
+            plugin.onPlayerJoin(new PlayerJoinEvent(players[i].getPlayer(), null));
+
+            if (!protectedPlayer[i]) {
+                command(players[i], "terminate");
+                command(players[i], "confirm");
+            }
+
+            PlayerData data = new PlayerData();
+            data.setEnabled(protectedPlayer[i]);
+            legacyData.put("player" + i, data);
+        }
+
+        server.runTasks();
+        legacy = new LegacyHandlers(legacyData, server.getServer(), 5);
+    }
+
+    /**
+     * Index of the first player that is or is not protected
+     *
+     * @param isProtected Protected or not
+     * @param skip Matching players to skip
+     * @return Index, or -1 if there are not enough
+     */
+    public int find(boolean isProtected, int skip) {
+        for (int i = 0; i < players.length; i++) {
+            if (protectedPlayer[i] == isProtected && skip-- == 0) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Run a /campfire subcommand as a player
+     *
+     * @param player Player
+     * @param args Arguments
+     */
+    public void command(StandInServer.StandInPlayer player, String... args) {
+        plugin.onCommand(player.getPlayer(), null, "campfire", args);
+    }
+
+    /**
+     * Disable Campfire and delete its data
+     */
+    public void close() throws IOException {
+        plugin.onDisable();
+        delete(dataFolder);
+    }
+
+    /**
+     * Delete a file or directory tree
+     *
+     * @param file File
+     */
+    static void delete(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
@@ -0,0 +1,118 @@
+package com.psychobit.campfire.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * onPlayerInteract against the 3.0 handler
+ *
+ * An expired player clicks with flint and steel next to a protected player
+ * (blocked), or somewhere nobody is (allowed, the full buffer check).
+ * Plain clicks with an empty hand are the common case.
+ *
+ * @author psychobit
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InteractBenchmark {
+    @Param({ "10", "1000", "10000" })
+    public int online;
+    @Param({ "10" })
+    public int protectedPercent;
+
+    private Fixture fixture;
+    private PlayerInteractEvent emptyHand;
+    private PlayerInteractEvent flintNearProtected;
+    private PlayerInteractEvent flintAlone;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new Fixture(online, protectedPercent);
+
+        StandInServer.StandInPlayer griefer = fixture.players[fixture.find(false, 0)];
+        StandInServer.StandInPlayer victim = fixture.players[fixture.find(true, 0)];
+        Location near = victim.getPlayer().getLocation();
+        Location alone = new Location(fixture.world, -10000, 64, -10000);
+        ItemStack flint = new ItemStack(Material.FLINT_AND_STEEL);
+
+        griefer.setItemInHand(Material.FLINT_AND_STEEL);
+
+        emptyHand = new PlayerInteractEvent(fixture.players[fixture.find(false, 1)].getPlayer(), Action.RIGHT_CLICK_BLOCK, null,
+                fixture.server.createBlock(alone, Material.STONE), BlockFace.UP);
+        flintNearProtected = new PlayerInteractEvent(griefer.getPlayer(), Action.RIGHT_CLICK_BLOCK, flint,
+                fixture.server.createBlock(new Location(fixture.world, near.getBlockX() + 2, near.getBlockY(), near.getBlockZ()), Material.GRASS), BlockFace.UP);
+        flintAlone = new PlayerInteractEvent(griefer.getPlayer(), Action.RIGHT_CLICK_BLOCK, flint,
+                fixture.server.createBlock(alone, Material.GRASS), BlockFace.UP);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    public boolean emptyHand() {
+        fixture.plugin.onPlayerInteract(emptyHand);
+
+        return emptyHand.isCancelled();
+    }
+
+    @Benchmark
+    public boolean flintNearProtected() {
+        fixture.plugin.onPlayerInteract(flintNearProtected);
+
+        return flintNearProtected.isCancelled();
+    }
+
+    @Benchmark
+    public boolean flintAlone() {
+        fixture.plugin.onPlayerInteract(flintAlone);
+
+        return flintAlone.isCancelled();
+    }
+
+    @Benchmark
+    public boolean legacyEmptyHand() {
+        fixture.legacy.onPlayerInteract(emptyHand);
+
+        return emptyHand.isCancelled();
+    }
+
+    @Benchmark
+    public boolean legacyFlintNearProtected() {
+        fixture.legacy.onPlayerInteract(flintNearProtected);
+
+        return flintNearProtected.isCancelled();
+    }
+
+    @Benchmark
+    public boolean legacyFlintAlone() {
+        fixture.legacy.onPlayerInteract(flintAlone);
+
+        return flintAlone.isCancelled();
+    }
+}
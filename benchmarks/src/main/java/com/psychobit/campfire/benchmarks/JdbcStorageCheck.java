@@ -0,0 +1,259 @@
+package com.psychobit.campfire.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.psychobit.campfire.Clock;
+import com.psychobit.campfire.DataWriter;
+import com.psychobit.campfire.JdbcStorage;
+import com.psychobit.campfire.Metrics;
+import com.psychobit.campfire.PlayerData;
+import com.psychobit.campfire.PlayerStorage;
+
+/**
+ * Checks the shared database storage against a real SQLite file
+ *
+ * Two JdbcStorage instances on one file stand in for two servers of a
+ * network. The checks are that time played on both is added together, that
+ * a reset on one bumps the generation and drops the time the other played
+ * before it, and that a batch the database refuses is written with the next
+ * one.
+ *
+ * Run with java -cp target/benchmarks.jar com.psychobit.campfire.benchmarks.JdbcStorageCheck
+ * Exits with 1 if a check failed.
+ *
+ * @author psychobit
+ *
+ */
+public class JdbcStorageCheck {
+    /**
+     * Where the clock starts
+     */
+    private static final long START = 1000000000L;
+    /**
+     * Checks that failed
+     */
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        File file = File.createTempFile("campfire", ".db");
+        String url = "jdbc:sqlite:" + file.getPath();
+
+        file.deleteOnExit();
+
+        JdbcStorage a = JdbcStorage.open("org.sqlite.JDBC", url, "", "", 0, "a", Clock.SYSTEM);
+        JdbcStorage b = JdbcStorage.open("org.sqlite.JDBC", url, "", "", 0, "b", Clock.SYSTEM);
+        Connection sql = DriverManager.getConnection(url);
+
+        try {
+            checkAdded(a, b, sql);
+            checkReset(a, b, sql);
+            checkRequeued(a, sql);
+        } finally {
+            a.close();
+            b.close();
+            sql.close();
+        }
+
+        System.out.println(failures == 0 ? "All checks passed" : "CHECKS FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Time played on two servers is added together
+     */
+    private static void checkAdded(JdbcStorage a, JdbcStorage b, Connection sql) throws Exception {
+        // New on server a
+        a.prefetch("alice");
+        check("alice is unknown at first", a.load("alice") == null);
+        a.save(batch("alice", played(new PlayerData(), 100)));
+
+        // Both servers read her, then play on at the same time
+        PlayerData onA = a.load("alice");
+        PlayerData onB = b.load("alice");
+
+        check("server b reads what server a saved", onB != null && onB.getTimeElapsed() == 100);
+
+        a.save(batch("alice", played(onA, 30)));
+        b.save(batch("alice", played(onB, 50)));
+
+        check("time from both servers is added", elapsed(sql, "alice") == 180);
+        check("server a reads the sum", a.load("alice").getTimeElapsed() == 180);
+    }
+
+    /**
+     * A reset on one server drops what the other played before it
+     */
+    private static void checkReset(JdbcStorage a, JdbcStorage b, Connection sql) throws Exception {
+        PlayerData onA = a.load("alice");
+        PlayerData onB = b.load("alice");
+        int generation = generation(sql, "alice");
+
+        // Dies on server a and plays on there
+        onA.reset(START);
+        onA.update(START + 20);
+        a.save(batch("alice", onA));
+
+        check("a reset bumps the generation", generation(sql, "alice") == generation + 1);
+        check("a reset replaces the time", elapsed(sql, "alice") == 20);
+
+        // Server b still has her from before the reset
+        b.save(batch("alice", played(onB, 40)));
+
+        check("old generation time is dropped", elapsed(sql, "alice") == 20);
+        check("the generation stays", generation(sql, "alice") == generation + 1);
+
+        // Once server b reads her again its time counts
+        onB = b.load("alice");
+        b.save(batch("alice", played(onB, 5)));
+
+        check("new generation time is added", elapsed(sql, "alice") == 25);
+    }
+
+    /**
+     * A batch the database refuses is written with the next one
+     */
+    private static void checkRequeued(JdbcStorage a, Connection sql) throws Exception {
+        Attempts storage = new Attempts(a);
+        DataWriter writer = new DataWriter(storage, new Metrics());
+
+        // Take the table away so the save fails
+        execute(sql, "ALTER TABLE campfire_players RENAME TO campfire_players_away");
+        writer.submit(batch("bob", played(new PlayerData(), 60)));
+
+        check("the first save is tried", storage.attempts.tryAcquire(10, TimeUnit.SECONDS));
+        check("the first save fails", storage.failed);
+
+        execute(sql, "ALTER TABLE campfire_players_away RENAME TO campfire_players");
+        writer.submit(batch("carol", played(new PlayerData(), 10)));
+
+        check("the second save is tried", storage.attempts.tryAcquire(10, TimeUnit.SECONDS));
+        check("the second save works", !storage.failed);
+        check("the failed batch is requeued", elapsed(sql, "bob") == 60);
+        check("the next batch is written", elapsed(sql, "carol") == 10);
+        check("the writer finishes", writer.close(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Storage that tells when a save was tried
+     */
+    private static class Attempts implements PlayerStorage {
+        private final PlayerStorage storage;
+        private final Semaphore attempts = new Semaphore(0);
+        private volatile boolean failed;
+
+        private Attempts(PlayerStorage storage) {
+            this.storage = storage;
+        }
+
+        public PlayerData load(String playerName) throws IOException {
+            return storage.load(playerName);
+        }
+
+        public void prefetch(String playerName) throws IOException {
+            storage.prefetch(playerName);
+        }
+
+        public long save(Map<String, PlayerData> batch) throws IOException {
+            failed = true;
+
+            try {
+                long bytes = storage.save(batch);
+
+                failed = false;
+
+                return bytes;
+            } finally {
+                attempts.release();
+            }
+        }
+
+        public byte[] loadStats() throws IOException {
+            return storage.loadStats();
+        }
+
+        public void saveStats(byte[] stats) throws IOException {
+            storage.saveStats(stats);
+        }
+
+        public void close() throws IOException {
+            storage.close();
+        }
+    }
+
+    /**
+     * Add time to a player's data
+     *
+     * @param data Data
+     * @param seconds Seconds played
+     * @return The same data
+     */
+    private static PlayerData played(PlayerData data, int seconds) {
+        long from = Math.max(START, data.getLastUpdated());
+
+        data.setUpdateTime(from);
+        data.update(from + seconds);
+
+        return data;
+    }
+
+    private static Map<String, PlayerData> batch(String playerName, PlayerData data) {
+        HashMap<String, PlayerData> batch = new HashMap<String, PlayerData>();
+        batch.put(playerName, data.copy());
+
+        return batch;
+    }
+
+    private static int elapsed(Connection sql, String playerName) throws Exception {
+        return column(sql, "elapsed", playerName);
+    }
+
+    private static int generation(Connection sql, String playerName) throws Exception {
+        return column(sql, "generation", playerName);
+    }
+
+    private static int column(Connection sql, String column, String playerName) throws Exception {
+        PreparedStatement select = sql.prepareStatement("SELECT " + column + " FROM campfire_players WHERE name = ?");
+
+        try {
+            select.setString(1, playerName);
+
+            ResultSet row = select.executeQuery();
+
+            try {
+                return row.next() ? row.getInt(1) : -1;
+            } finally {
+                row.close();
+            }
+        } finally {
+            select.close();
+        }
+    }
+
+    private static void execute(Connection sql, String statement) throws Exception {
+        Statement s = sql.createStatement();
+
+        try {
+            s.executeUpdate(statement);
+        } finally {
+            s.close();
+        }
+    }
+
+    private static void check(String what, boolean ok) {
+        System.out.println((ok ? "ok     " : "FAILED ") + what);
+
+        if (!ok) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.psychobit.campfire.benchmarks;
+
+import java.util.HashMap;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.entity.Arrow;
+import org.bukkit.entity.Player;
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+
+import com.psychobit.campfire.PlayerData;
+
+/**
+ * The damage and interact handlers as they were in Campfire 3.0
+ * Kept as a baseline to compare the current handlers against
+ *
+ * @author psychobit
+ *
+ */
+public class LegacyHandlers {
+    /**
+     * Every known player's data by name
+     */
+    private final HashMap<String, PlayerData> playerData;
+    /**
+     * Server, for the online players
+     */
+    private final Server server;
+    /**
+     * Distance around a player that can't be lava'd or set on fire
+     */
+    private final int bufferDist;
+
+    public LegacyHandlers(HashMap<String, PlayerData> playerData, Server server, int bufferDist) {
+        this.playerData = playerData;
+        this.server = server;
+        this.bufferDist = bufferDist;
+    }
+
+    public void onEntityDamage(EntityDamageEvent e) {
+        Player target;
+
+        if (e.getEntity() instanceof Player) {
+            target = (Player) e.getEntity();
+        } else {
+            return;
+        }
+
+        if (target.isOp()) {
+            return;
+        }
+
+        EntityDamageByEntityEvent e2;
+
+        if (e instanceof EntityDamageByEntityEvent) {
+            e2 = (EntityDamageByEntityEvent) e;
+        } else {
+            return;
+        }
+
+        Player attacker;
+
+        if (e2.getDamager() instanceof Arrow) {
+            Arrow arrow = (Arrow) e2.getDamager();
+
+            if (!(arrow.getShooter() instanceof Player)) {
+                return;
+            }
+
+            attacker = (Player) arrow.getShooter();
+        } else if (!(e2.getDamager() instanceof Player)) {
+            return;
+        } else {
+            attacker = (Player) e2.getDamager();
+        }
+
+        if (attacker.isOp()) {
+            return;
+        }
+
+        boolean attackerEnabled = false;
+        PlayerData attackerData = playerData.get(attacker.getName());
+
+        if (attackerData != null && attackerData.isEnabled()) {
+            attackerEnabled = true;
+        }
+
+        boolean targetEnabled = false;
+        PlayerData targetData = playerData.get(target.getName());
+
+        if (targetData != null && targetData.isEnabled()) {
+            targetEnabled = true;
+        }
+
+        if (attackerEnabled || targetEnabled) {
+            String message;
+
+            if (attackerEnabled) {
+                message = "You are under protection! No PvP!";
+            } else {
+                message = "This player is under protection! No PvP!";
+            }
+
+            attacker.sendMessage(ChatColor.GRAY + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.GRAY + "] " + ChatColor.RED + message);
+
+            e.setCancelled(true);
+        }
+    }
+
+    public void onPlayerInteract(PlayerInteractEvent e) {
+        Player player = e.getPlayer();
+        Material itemInHand = player.getItemInHand().getType();
+
+        if (player.isOp()) {
+            return;
+        }
+
+        if (playerData.get(player.getName()).isEnabled()) {
+            if (itemInHand == Material.FLINT_AND_STEEL) {
+                player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "You cannot use flint and steel!");
+                player.sendMessage("Use '/campfire terminate' to end your protection early!");
+
+                e.setCancelled(true);
+
+                return;
+            }
+
+            if (itemInHand == Material.LAVA_BUCKET) {
+                player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "You cannot use lava buckets!");
+                player.sendMessage("Use '/campfire terminate' to end your protection early!");
+
+                e.setCancelled(true);
+
+                return;
+            }
+
+            if (e.getClickedBlock() != null && e.getClickedBlock().getType() == Material.CHEST) {
+                player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "You cannot open or break chests!");
+                player.sendMessage("Use '/campfire terminate' to end your protection early!");
+
+                e.setCancelled(true);
+
+                return;
+            }
+
+            return;
+        }
+
+        if (e.getClickedBlock() != null &&
+                (itemInHand == Material.FLINT_AND_STEEL ||
+                itemInHand == Material.LAVA_BUCKET)) {
+            Player[] players = server.getOnlinePlayers();
+
+            for (Player target: players) {
+                if (target.equals(player) ||
+                        target.isOp() ||
+                        target.getWorld() != player.getWorld() ||
+                        playerData.get(target.getName()) == null ||
+                        !playerData.get(target.getName()).isEnabled()) {
+                    continue;
+                }
+
+                double dist = e.getClickedBlock().getLocation().distance(target.getLocation());
+
+                if (dist <= bufferDist) {
+                    player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "Player is protected! No burning!");
+
+                    e.setCancelled(true);
+
+                    return;
+                }
+            }
+        }
+    }
+}
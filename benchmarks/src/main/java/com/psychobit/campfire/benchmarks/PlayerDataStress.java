@@ -0,0 +1,176 @@
+package com.psychobit.campfire.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.psychobit.campfire.PlayerData;
+
+/**
+ * Checks that PlayerData stays consistent when changed from many threads
+ *
+ * Updaters count time up to a shared clock that they advance, in whatever
+ * order they get to it. Time never counts twice and is never lost, so at
+ * any moment the time elapsed is exactly the last updated time minus where
+ * it started. Readers check that on every copy they take while flag
+ * writers toggle the other fields, and the end state is checked once all
+ * threads are done. Lost or torn updates show up as a difference.
+ *
+ * Run with java -cp target/benchmarks.jar com.psychobit.campfire.benchmarks.PlayerDataStress [seconds] [threads]
+ * Exits with 1 if a check failed.
+ *
+ * @author psychobit
+ *
+ */
+public class PlayerDataStress {
+    /**
+     * Where the clock starts
+     */
+    private static final long START = 1000000000L;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+        boolean ok = true;
+
+        for (int round = 1; round <= seconds; round++) {
+            ok &= run(round, threads, 1000);
+        }
+
+        System.out.println(ok ? "All checks passed" : "CHECKS FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Hammer one PlayerData for a while
+     *
+     * @param round Round number, for the report
+     * @param threads Threads in total, at least 4
+     * @param millis How long to run
+     * @return True if every check passed
+     */
+    private static boolean run(int round, int threads, final long millis) throws InterruptedException {
+        final PlayerData data = new PlayerData();
+        final AtomicLong clock = new AtomicLong(START);
+        final AtomicLong operations = new AtomicLong();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long end = System.currentTimeMillis() + millis;
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+
+        data.setUpdateTime(START);
+
+        // Flag writers, each ends with its flag on
+        workers.add(new Thread(new Runnable() {
+            public void run() {
+                await(start);
+
+                long n = 0;
+
+                while (System.currentTimeMillis() < end) {
+                    data.setProtectedZone((n++ & 1) == 0);
+                }
+
+                data.setProtectedZone(true);
+                operations.addAndGet(n);
+            }
+        }, "zone"));
+
+        workers.add(new Thread(new Runnable() {
+            public void run() {
+                await(start);
+
+                long n = 0;
+
+                while (System.currentTimeMillis() < end) {
+                    data.setConfirmed();
+                    n++;
+                }
+
+                operations.addAndGet(n);
+            }
+        }, "confirm"));
+
+        // A reader checking every state it sees
+        workers.add(new Thread(new Runnable() {
+            public void run() {
+                await(start);
+
+                long n = 0;
+
+                while (System.currentTimeMillis() < end) {
+                    PlayerData copy = data.copy();
+
+                    if (copy.getTimeElapsed() != copy.getLastUpdated() - START) {
+                        failure.compareAndSet(null, "copy has " + copy.getTimeElapsed() + "s elapsed at "
+                                + (copy.getLastUpdated() - START) + "s since the start");
+                    }
+
+                    if (!copy.isEnabled()) {
+                        failure.compareAndSet(null, "copy is disabled");
+                    }
+
+                    n++;
+                }
+
+                operations.addAndGet(n);
+            }
+        }, "reader"));
+
+        // Updaters share the clock
+        for (int i = 3; i < threads; i++) {
+            workers.add(new Thread(new Runnable() {
+                public void run() {
+                    await(start);
+
+                    long n = 0;
+
+                    while (System.currentTimeMillis() < end) {
+                        data.update(clock.incrementAndGet());
+                        n++;
+                    }
+
+                    operations.addAndGet(n);
+                }
+            }, "updater-" + i));
+        }
+
+        for (Thread worker: workers) {
+            worker.start();
+        }
+
+        start.countDown();
+
+        for (Thread worker: workers) {
+            worker.join();
+        }
+
+        long last = data.getLastUpdated();
+
+        if (failure.get() == null && last != clock.get()) {
+            failure.set("last updated " + (last - START) + "s after the start, the clock is at " + (clock.get() - START) + "s");
+        }
+
+        if (failure.get() == null && data.getTimeElapsed() != last - START) {
+            failure.set(data.getTimeElapsed() + "s elapsed, expected " + (last - START) + "s");
+        }
+
+        if (failure.get() == null && !(data.inProtectedZone() && data.confirmed() && data.isEnabled())) {
+            failure.set("flags are " + data.getFlags() + ", expected in zone, confirmed and enabled");
+        }
+
+        System.out.println("Round " + round + ": " + threads + " threads, " + operations.get() + " operations, "
+                + (failure.get() == null ? "ok" : "FAILED: " + failure.get()));
+
+        return failure.get() == null;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
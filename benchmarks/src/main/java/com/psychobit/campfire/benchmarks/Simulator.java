@@ -0,0 +1,804 @@
+package com.psychobit.campfire.benchmarks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.entity.EntityDamageEvent.DamageCause;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.inventory.ItemStack;
+
+import com.psychobit.campfire.Campfire;
+import com.psychobit.campfire.Clock;
+import com.psychobit.campfire.FileStorage;
+import com.psychobit.campfire.Metrics;
+import com.psychobit.campfire.PlayerData;
+
+/**
+ * Replays synthetic player sessions against Campfire on a simulated clock
+ *
+ * Players join, walk in and out of no-PvP zones, fight, use lava and
+ * flint and steel, die, respawn and quit, each acting once a simulated
+ * second. The clock only moves when the simulation says so, so hours of
+ * play run as fast as the handlers allow. Handler costs are real time.
+ *
+ * Reports the cost of each handler per tick, memory and player data on disk
+ * every simulated hour, and checks as it goes that:
+ * - no player's time elapsed goes over Duration
+ * - time elapsed never goes down, except when a death resets it
+ * - time elapsed never grows by more than the player was online
+ * - hits are cancelled exactly when the attacker or the victim is protected
+ * - protected players can't use lava or flint and steel
+ * - every player who played has a saved record at the end
+ *
+ * Run with java -cp target/benchmarks.jar com.psychobit.campfire.benchmarks.Simulator [players] [hours] [seed]
+ * Exits with 1 if a check failed.
+ *
+ * @author psychobit
+ *
+ */
+public class Simulator {
+    /**
+     * Clock moved forward by the simulation
+     */
+    public static class SimulatedClock extends Clock {
+        private long millis;
+
+        /**
+         * Create a clock
+         *
+         * @param millis Time to start at, in milliseconds since the epoch
+         */
+        public SimulatedClock(long millis) {
+            this.millis = millis;
+        }
+
+        /**
+         * Move the clock forward
+         *
+         * @param delta Milliseconds
+         */
+        public void advance(long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return millis;
+        }
+
+        @Override
+        public long nanoTime() {
+            return millis * 1000000L;
+        }
+    }
+
+    /**
+     * What the simulation times
+     */
+    private enum Handler {
+        PRE_LOGIN("preLogin"),
+        JOIN("join"),
+        QUIT("quit"),
+        MOVE("move"),
+        TELEPORT("teleport"),
+        DAMAGE("damage"),
+        INTERACT("interact"),
+        DEATH("death"),
+        RESPAWN("respawn"),
+        COMMAND("command"),
+        UPDATE_TICK("updateTick"),
+        TIMERS("processTimers"),
+        SAVE("saveData"),
+        TASKS("tasks"),
+        TICK("tick");
+
+        private final String label;
+
+        private Handler(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Nanoseconds in log buckets with 8 steps per doubling
+     */
+    private static class Histogram {
+        private final long[] counts = new long[496];
+        private long count;
+        private long total;
+        private long max;
+
+        void record(long nanos) {
+            counts[bucket(nanos)]++;
+            count++;
+            total += nanos;
+            max = Math.max(max, nanos);
+        }
+
+        long percentile(double percentile) {
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+
+                if (seen >= rank && seen > 0) {
+                    return Math.min(max, upper(b));
+                }
+            }
+
+            return max;
+        }
+
+        private static int bucket(long nanos) {
+            if (nanos < 8) {
+                return (int) Math.max(0, nanos);
+            }
+
+            int exp = 63 - Long.numberOfLeadingZeros(nanos);
+
+            return ((exp - 2) << 3) | (int) ((nanos >>> (exp - 3)) & 7);
+        }
+
+        private static long upper(int bucket) {
+            if (bucket < 8) {
+                return bucket;
+            }
+
+            int exp = (bucket >>> 3) + 2;
+
+            return ((8L + (bucket & 7) + 1) << (exp - 3)) - 1;
+        }
+    }
+
+    /**
+     * A synthetic player
+     */
+    private static class Session {
+        private final String name;
+        /**
+         * Online player, null while offline
+         */
+        private StandInServer.StandInPlayer player;
+        /**
+         * Index in the online list
+         */
+        private int index;
+        private Location location;
+        private double targetX;
+        private double targetZ;
+        private int health;
+        /**
+         * Tick to respawn at while dead, -1 while alive
+         */
+        private long respawnAt = -1;
+        /**
+         * Tick of the last respawn
+         */
+        private long respawned = -1;
+        private boolean played;
+        /**
+         * Seconds online in earlier sessions
+         */
+        private long onlineBanked;
+        /**
+         * When the current session started, in seconds
+         */
+        private long joinedAt;
+        /**
+         * Time elapsed at the last check, -1 before the first
+         */
+        private int checkedElapsed = -1;
+        /**
+         * Seconds since its last update the last checked data could still count
+         */
+        private long checkedLag;
+        /**
+         * Seconds online at the last check
+         */
+        private long checkedOnline;
+
+        private Session(String name) {
+            this.name = name;
+        }
+
+        private long online(long now) {
+            return onlineBanked + (player != null ? now - joinedAt : 0);
+        }
+    }
+
+    private static final int TICKS_PER_SECOND = 20;
+    private static final int DURATION = 1200;
+    private static final int SAVE_INTERVAL = 30;
+    /**
+     * Players roam this far from spawn on both axes
+     */
+    private static final int RANGE = 1000;
+    private static final int SPAWN_SIZE = 40;
+    private static final int TOWNS = 8;
+    private static final int TOWN_SIZE = 30;
+    /**
+     * Blocks walked each second
+     */
+    private static final double SPEED = 4;
+    /**
+     * Chances per second
+     */
+    private static final double JOIN = 1.0 / 2700;
+    private static final double QUIT = 1.0 / 1800;
+    private static final double FIGHT = 1.0 / 60;
+    private static final double GRIEF = 1.0 / 120;
+    private static final double TELEPORT = 1.0 / 900;
+    private static final double TERMINATE = 1.0 / 3600;
+    private static final double ACCIDENT = 1.0 / 1800;
+    /**
+     * Violations printed before the rest are only counted
+     */
+    private static final int MAX_REPORTED = 20;
+
+    private final Random random;
+    private final SimulatedClock clock = new SimulatedClock(1356998400000L);
+    private final StandInServer server = new StandInServer();
+    private final StandInWorldGuard worldGuard = new StandInWorldGuard();
+    private final World world = server.getWorld("world");
+    private final Location spawn = new Location(world, 0.5, 64, 0.5);
+    private final double[][] towns = new double[TOWNS][];
+    private final Session[] sessions;
+    private final ArrayList<Session> online = new ArrayList<Session>();
+    private final File dataFolder;
+    private final Campfire plugin;
+    private final Histogram[] costs = new Histogram[Handler.values().length];
+    private final long[] calls = new long[Handler.values().length];
+    private final long[] tickNanos = new long[Handler.values().length];
+    private Histogram hourTicks = new Histogram();
+    private long tick;
+    private long violations;
+    private long deaths;
+    private long hits;
+    private long hitsCancelled;
+
+    public static void main(String[] args) throws Exception {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int hours = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        Simulator simulator = new Simulator(players, seed);
+
+        simulator.run(hours);
+        System.exit(simulator.violations == 0 ? 0 : 1);
+    }
+
+    /**
+     * Enable Campfire with WorldGuard zones and nobody online
+     *
+     * @param players Synthetic players, online or not
+     * @param seed Random seed
+     */
+    public Simulator(int players, long seed) throws Exception {
+        random = new Random(seed);
+        sessions = new Session[players];
+
+        for (int i = 0; i < players; i++) {
+            sessions[i] = new Session("sim" + i);
+        }
+
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = new Histogram();
+        }
+
+        worldGuard.addNoPvpZone(world, "spawn", -SPAWN_SIZE, -SPAWN_SIZE, SPAWN_SIZE, SPAWN_SIZE);
+
+        for (int i = 0; i < TOWNS; i++) {
+            int x = random.nextInt(2 * RANGE) - RANGE;
+            int z = random.nextInt(2 * RANGE) - RANGE;
+
+            towns[i] = new double[] { x + 0.5, z + 0.5 };
+            worldGuard.addNoPvpZone(world, "town" + i, x - TOWN_SIZE, z - TOWN_SIZE, x + TOWN_SIZE, z + TOWN_SIZE);
+        }
+
+        server.addPlugin("WorldGuard", worldGuard);
+
+        dataFolder = Files.createTempDirectory("campfire-sim").toFile();
+
+        FileWriter config = new FileWriter(new File(dataFolder, "config.yml"));
+
+        try {
+            config.write("Duration: " + DURATION + "\nBuffer: 5\nResetOnDeath: true\nWorldGuardAreas: true\n"
+                    + "SaveInterval: " + SAVE_INTERVAL + "\nMetricsDumpInterval: 0\nQuitGracePeriod: 60\n");
+        } finally {
+            config.close();
+        }
+
+        plugin = server.create(Campfire.class, dataFolder);
+        plugin.setClock(clock);
+        plugin.onEnable();
+    }
+
+    /**
+     * Play for a number of simulated hours, then disable Campfire and check
+     * what it saved
+     *
+     * @param hours Simulated hours
+     */
+    public void run(int hours) throws Exception {
+        long ticksPerHour = 3600L * TICKS_PER_SECOND;
+        long start = System.nanoTime();
+
+        System.out.println("Simulating " + sessions.length + " players for " + hours + " hours");
+
+        for (int hour = 1; hour <= hours; hour++) {
+            for (long t = 0; t < ticksPerHour; t++) {
+                tick();
+            }
+
+            report(hour);
+        }
+
+        long ticks = tick;
+
+        plugin.onDisable();
+        checkSaved();
+
+        System.out.println();
+        System.out.printf("%-14s %10s %12s %10s %10s %10s %10s%n", "handler", "ticks", "calls", "p50", "p99", "p99.9", "max");
+
+        for (Handler handler: Handler.values()) {
+            Histogram h = costs[handler.ordinal()];
+
+            System.out.printf("%-14s %10d %12d %10s %10s %10s %10s%n", handler.label, h.count, calls[handler.ordinal()],
+                    micros(h.percentile(50)), micros(h.percentile(99)), micros(h.percentile(99.9)), micros(h.max));
+        }
+
+        System.out.println();
+        System.out.println(ticks + " ticks in " + (System.nanoTime() - start) / 1000000000L + "s, " + deaths + " deaths, "
+                + hits + " player hits, " + hitsCancelled + " cancelled");
+        System.out.println(violations == 0 ? "All checks passed" : violations + " CHECKS FAILED");
+
+        Fixture.delete(dataFolder);
+    }
+
+    /**
+     * One server tick: a twentieth of the players act, then the plugin's
+     * repeating tasks run
+     */
+    private void tick() {
+        clock.advance(1000 / TICKS_PER_SECOND);
+
+        for (int i = (int) (tick % TICKS_PER_SECOND); i < sessions.length; i += TICKS_PER_SECOND) {
+            act(sessions[i]);
+        }
+
+        long start = System.nanoTime();
+
+        plugin.updateTick();
+        cost(Handler.UPDATE_TICK, start);
+
+        start = System.nanoTime();
+        plugin.processTimers();
+        cost(Handler.TIMERS, start);
+
+        if (tick % (SAVE_INTERVAL * TICKS_PER_SECOND) == 0) {
+            start = System.nanoTime();
+            plugin.saveData();
+            cost(Handler.SAVE, start);
+        }
+
+        start = System.nanoTime();
+        server.runTasks();
+        cost(Handler.TASKS, start);
+
+        long total = 0;
+
+        for (Handler handler: Handler.values()) {
+            int h = handler.ordinal();
+
+            if (tickNanos[h] > 0) {
+                costs[h].record(tickNanos[h]);
+                total += tickNanos[h];
+                tickNanos[h] = 0;
+            }
+        }
+
+        costs[Handler.TICK.ordinal()].record(total);
+        calls[Handler.TICK.ordinal()]++;
+        hourTicks.record(total);
+
+        if (++tick % (60 * TICKS_PER_SECOND) == 0) {
+            for (Session session: online) {
+                check(session);
+            }
+        }
+    }
+
+    /**
+     * What a player does in a second
+     *
+     * @param s Player
+     */
+    private void act(Session s) {
+        if (s.player == null) {
+            if (random.nextDouble() < JOIN) {
+                join(s);
+            }
+
+            return;
+        }
+
+        if (s.respawnAt >= 0) {
+            if (tick >= s.respawnAt) {
+                respawn(s);
+            }
+
+            return;
+        }
+
+        if (random.nextDouble() < QUIT) {
+            quit(s);
+
+            return;
+        }
+
+        walk(s);
+
+        double r = random.nextDouble();
+
+        if ((r -= FIGHT) < 0) {
+            fight(s);
+        } else if ((r -= GRIEF) < 0) {
+            grief(s);
+        } else if ((r -= TELEPORT) < 0) {
+            teleport(s, spawn);
+        } else if ((r -= TERMINATE) < 0) {
+            command(s, "terminate");
+            command(s, "confirm");
+        } else if ((r -= ACCIDENT) < 0) {
+            die(s);
+        }
+    }
+
+    private void join(Session s) {
+        long start = System.nanoTime();
+
+        plugin.onAsyncPlayerPreLogin(new AsyncPlayerPreLoginEvent(s.name, null));
+        cost(Handler.PRE_LOGIN, start);
+
+        if (s.location == null) {
+            s.location = spawn.clone();
+            pickTarget(s);
+        }
+
+        s.player = server.addPlayer(s.name, s.location);
+        s.health = 20;
+        s.joinedAt = clock.currentTimeSeconds();
+        s.played = true;
+        s.index = online.size();
+        online.add(s);
+
+        start = System.nanoTime();
+        plugin.onPlayerJoin(new PlayerJoinEvent(s.player.getPlayer(), null));
+        cost(Handler.JOIN, start);
+
+        check(s);
+    }
+
+    private void quit(Session s) {
+        check(s);
+
+        long start = System.nanoTime();
+
+        plugin.onPlayerQuit(new PlayerQuitEvent(s.player.getPlayer(), null));
+        cost(Handler.QUIT, start);
+
+        server.removePlayer(s.player);
+        s.onlineBanked += clock.currentTimeSeconds() - s.joinedAt;
+        s.player = null;
+
+        Session last = online.remove(online.size() - 1);
+
+        if (last != s) {
+            online.set(s.index, last);
+            last.index = s.index;
+        }
+    }
+
+    /**
+     * Walk towards the current target, picking a new one on arrival
+     *
+     * @param s Player
+     */
+    private void walk(Session s) {
+        double dx = s.targetX - s.location.getX();
+        double dz = s.targetZ - s.location.getZ();
+        double distance = Math.sqrt(dx * dx + dz * dz);
+        Location to;
+
+        if (distance <= SPEED) {
+            to = new Location(world, s.targetX, 64, s.targetZ);
+            pickTarget(s);
+        } else {
+            to = new Location(world, s.location.getX() + dx / distance * SPEED, 64, s.location.getZ() + dz / distance * SPEED);
+        }
+
+        long start = System.nanoTime();
+
+        plugin.onPlayerMove(new PlayerMoveEvent(s.player.getPlayer(), s.location, to));
+        cost(Handler.MOVE, start);
+
+        s.location = to;
+        s.player.setLocation(to);
+    }
+
+    /**
+     * Head for a town or spawn a quarter of the time, anywhere otherwise
+     *
+     * @param s Player
+     */
+    private void pickTarget(Session s) {
+        if (random.nextInt(4) == 0) {
+            int zone = random.nextInt(TOWNS + 1);
+
+            s.targetX = zone == TOWNS ? spawn.getX() : towns[zone][0];
+            s.targetZ = zone == TOWNS ? spawn.getZ() : towns[zone][1];
+        } else {
+            s.targetX = random.nextInt(2 * RANGE) - RANGE + 0.5;
+            s.targetZ = random.nextInt(2 * RANGE) - RANGE + 0.5;
+        }
+    }
+
+    private void teleport(Session s, Location to) {
+        long start = System.nanoTime();
+
+        plugin.onPlayerTeleport(new PlayerTeleportEvent(s.player.getPlayer(), s.location, to));
+        cost(Handler.TELEPORT, start);
+
+        s.location = to.clone();
+        s.player.setLocation(s.location);
+    }
+
+    /**
+     * Hit a random player who is alive
+     *
+     * @param s Attacker
+     */
+    private void fight(Session s) {
+        Session victim = online.get(random.nextInt(online.size()));
+
+        // A respawned player's new entity is only picked up at the end of the tick
+        if (victim == s || victim.respawnAt >= 0 || victim.respawned == tick || s.respawned == tick) {
+            return;
+        }
+
+        PlayerData attackerData = plugin.getPlayerData(s.name);
+        PlayerData victimData = plugin.getPlayerData(victim.name);
+        boolean expected = attackerData.isEnabled() || victimData.isEnabled();
+        EntityDamageByEntityEvent e = new EntityDamageByEntityEvent(s.player.getPlayer(), victim.player.getPlayer(),
+                DamageCause.ENTITY_ATTACK, 4);
+        long start = System.nanoTime();
+
+        plugin.onEntityDamage(e);
+        cost(Handler.DAMAGE, start);
+
+        hits++;
+
+        if (e.isCancelled()) {
+            hitsCancelled++;
+        }
+
+        verify(e.isCancelled() == expected, s.name + " hitting " + victim.name + (expected ? " was not" : " was")
+                + " cancelled, attacker " + (attackerData.isEnabled() ? "protected" : "expired")
+                + ", victim " + (victimData.isEnabled() ? "protected" : "expired"));
+
+        if (!e.isCancelled() && (victim.health -= 4) <= 0) {
+            die(victim);
+        }
+    }
+
+    /**
+     * Use lava or flint and steel on a block next to a random player
+     *
+     * @param s Player
+     */
+    private void grief(Session s) {
+        Session target = online.get(random.nextInt(online.size()));
+        Material item = random.nextBoolean() ? Material.LAVA_BUCKET : Material.FLINT_AND_STEEL;
+        Location near = target.location;
+        Location at = new Location(world, near.getBlockX() + random.nextInt(9) - 4, 64, near.getBlockZ() + random.nextInt(9) - 4);
+        boolean protectedPlayer = plugin.getPlayerData(s.name).isEnabled();
+
+        s.player.setItemInHand(item);
+
+        PlayerInteractEvent e = new PlayerInteractEvent(s.player.getPlayer(), Action.RIGHT_CLICK_BLOCK, new ItemStack(item),
+                server.createBlock(at, Material.GRASS), BlockFace.UP);
+        long start = System.nanoTime();
+
+        plugin.onPlayerInteract(e);
+        cost(Handler.INTERACT, start);
+
+        s.player.setItemInHand(Material.AIR);
+
+        verify(!protectedPlayer || e.isCancelled(), s.name + " is protected and used " + item);
+    }
+
+    private void die(Session s) {
+        s.player.setDead(true);
+        s.respawnAt = tick + 3 * TICKS_PER_SECOND;
+        deaths++;
+
+        long start = System.nanoTime();
+
+        plugin.onPlayerDeath(new PlayerDeathEvent(s.player.getPlayer(), new ArrayList<ItemStack>(), 0, s.name + " died"));
+        cost(Handler.DEATH, start);
+
+        // Protection starts over
+        s.checkedElapsed = -1;
+        check(s);
+    }
+
+    private void respawn(Session s) {
+        s.player.respawn();
+        s.location = spawn.clone();
+        s.player.setLocation(s.location);
+        s.health = 20;
+        s.respawnAt = -1;
+        s.respawned = tick;
+
+        long start = System.nanoTime();
+
+        plugin.onPlayerRespawn(new PlayerRespawnEvent(s.player.getPlayer(), spawn.clone(), false));
+        cost(Handler.RESPAWN, start);
+    }
+
+    private void command(Session s, String... args) {
+        long start = System.nanoTime();
+
+        plugin.onCommand(s.player.getPlayer(), null, "campfire", args);
+        cost(Handler.COMMAND, start);
+    }
+
+    /**
+     * Check an online player's data against what they did since the last check
+     *
+     * @param s Player
+     */
+    private void check(Session s) {
+        PlayerData data = plugin.getPlayerData(s.name);
+
+        if (!verify(data != null, s.name + " is online without data")) {
+            return;
+        }
+
+        long now = clock.currentTimeSeconds();
+        long onlineTime = s.online(now);
+        int elapsed = data.getTimeElapsed();
+
+        verify(elapsed <= DURATION, s.name + " has " + elapsed + "s elapsed, more than " + DURATION);
+
+        if (s.checkedElapsed >= 0) {
+            long allowed = s.checkedLag + onlineTime - s.checkedOnline;
+
+            verify(elapsed >= s.checkedElapsed, s.name + " went from " + s.checkedElapsed + "s to " + elapsed + "s without dying");
+            verify(elapsed - s.checkedElapsed <= allowed, s.name + " gained " + (elapsed - s.checkedElapsed)
+                    + "s with only " + allowed + "s online");
+        }
+
+        s.checkedElapsed = elapsed;
+        s.checkedLag = data.isEnabled() ? Math.max(0, now - data.getLastUpdated()) : 0;
+        s.checkedOnline = onlineTime;
+    }
+
+    /**
+     * Check the saved record of everyone who played, after Campfire is disabled
+     */
+    private void checkSaved() throws Exception {
+        FileStorage storage = FileStorage.open(dataFolder);
+
+        try {
+            for (Session s: sessions) {
+                if (!s.played) {
+                    continue;
+                }
+
+                PlayerData data = storage.load(s.name);
+
+                if (verify(data != null, s.name + " played but has no saved data")) {
+                    verify(data.getTimeElapsed() <= DURATION, s.name + " was saved with " + data.getTimeElapsed() + "s elapsed");
+                }
+            }
+        } finally {
+            storage.close();
+        }
+    }
+
+    /**
+     * Print what a simulated hour looked like
+     *
+     * @param hour Hours simulated so far
+     */
+    private void report(int hour) {
+        int protectedPlayers = 0;
+
+        for (Session s: online) {
+            PlayerData data = plugin.getPlayerData(s.name);
+
+            if (data != null && data.isEnabled()) {
+                protectedPlayers++;
+            }
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+
+        System.gc();
+
+        Metrics metrics = plugin.getMetrics();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+
+        System.out.printf("Hour %d: %d online, %d protected, heap %.1f MB, data %.1f MB on disk, %.1f MB written in %d saves, "
+                + "tick p50 %s p99 %s max %s%n", hour, online.size(), protectedPlayers, heap / 1048576.0,
+                size(dataFolder) / 1048576.0, metrics.get(Metrics.Counter.BYTES_WRITTEN) / 1048576.0,
+                metrics.get(Metrics.Counter.SAVES), micros(hourTicks.percentile(50)), micros(hourTicks.percentile(99)),
+                micros(hourTicks.max));
+
+        hourTicks = new Histogram();
+    }
+
+    private void cost(Handler handler, long start) {
+        tickNanos[handler.ordinal()] += System.nanoTime() - start;
+        calls[handler.ordinal()]++;
+    }
+
+    /**
+     * Count and print a failed check
+     *
+     * @param ok Did the check pass?
+     * @param message What went wrong
+     * @return ok
+     */
+    private boolean verify(boolean ok, String message) {
+        if (!ok && violations++ < MAX_REPORTED) {
+            System.out.println("FAILED at " + (tick / TICKS_PER_SECOND) + "s: " + message);
+        }
+
+        return ok;
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1fus", nanos / 1000.0);
+    }
+
+    /**
+     * Bytes in a file or directory tree
+     *
+     * @param file File
+     * @return Size
+     */
+    private static long size(File file) {
+        File[] children = file.listFiles();
+
+        if (children == null) {
+            return file.length();
+        }
+
+        long size = 0;
+
+        for (File child: children) {
+            size += size(child);
+        }
+
+        return size;
+    }
+}
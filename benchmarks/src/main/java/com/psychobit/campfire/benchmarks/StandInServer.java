@@ -0,0 +1,546 @@
+package com.psychobit.campfire.benchmarks;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginLoader;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.ServicesManager;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitScheduler;
+
+/**
+ * Just enough of a server to enable Campfire and drive its handlers
+ *
+ * Server, players, worlds and blocks are dynamic proxies. Anything not
+ * modelled here answers null, false or zero. Scheduled tasks are queued
+ * and only run by runTasks(), repeating tasks never run; benchmarks call
+ * the plugin's periodic methods themselves.
+ *
+ * @author psychobit
+ *
+ */
+public class StandInServer {
+    /**
+     * State behind a player proxy
+     */
+    public class StandInPlayer implements InvocationHandler {
+        private final String name;
+        private final Player player;
+        private final UUID uid = UUID.randomUUID();
+        private int entityId;
+        private Location location;
+        private Material itemInHand = Material.AIR;
+        private boolean op;
+        private boolean dead;
+        private long messages;
+
+        private StandInPlayer(String name, Location location) {
+            this.name = name;
+            this.location = location;
+            this.entityId = nextEntityId++;
+            this.player = (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] { Player.class }, this);
+        }
+
+        public Player getPlayer() {
+            return player;
+        }
+
+        public void setLocation(Location location) {
+            this.location = location;
+        }
+
+        public void setItemInHand(Material itemInHand) {
+            this.itemInHand = itemInHand;
+        }
+
+        public void setOp(boolean op) {
+            this.op = op;
+        }
+
+        public void setDead(boolean dead) {
+            this.dead = dead;
+        }
+
+        /**
+         * Give the player a new entity, as a respawn does
+         */
+        public void respawn() {
+            entityId = nextEntityId++;
+            dead = false;
+        }
+
+        public long getMessages() {
+            return messages;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String m = method.getName();
+
+            if (m.equals("getName") || m.equals("getDisplayName") || m.equals("getPlayerListName")) {
+                return name;
+            } else if (m.equals("getEntityId")) {
+                return entityId;
+            } else if (m.equals("getUniqueId")) {
+                return uid;
+            } else if (m.equals("getLocation")) {
+                return location.clone();
+            } else if (m.equals("getWorld")) {
+                return location.getWorld();
+            } else if (m.equals("getItemInHand")) {
+                return new org.bukkit.inventory.ItemStack(itemInHand);
+            } else if (m.equals("isOp")) {
+                return op;
+            } else if (m.equals("isDead")) {
+                return dead;
+            } else if (m.equals("isOnline") || m.equals("isValid")) {
+                return byName.get(name) == this;
+            } else if (m.equals("getType")) {
+                return EntityType.PLAYER;
+            } else if (m.equals("getServer")) {
+                return server;
+            } else if (m.equals("sendMessage")) {
+                messages++;
+
+                return null;
+            }
+
+            return object(proxy, method, args);
+        }
+    }
+
+    /**
+     * Proxy for the server
+     */
+    private final Server server;
+    /**
+     * Proxy for the plugin manager
+     */
+    private final PluginManager pluginManager;
+    /**
+     * Proxy for the scheduler
+     */
+    private final BukkitScheduler scheduler;
+    /**
+     * Proxy for the services manager
+     */
+    private final ServicesManager servicesManager;
+    /**
+     * Online players in join order
+     */
+    private final ArrayList<StandInPlayer> online = new ArrayList<StandInPlayer>();
+    /**
+     * Online players by name
+     */
+    private final HashMap<String, StandInPlayer> byName = new HashMap<String, StandInPlayer>();
+    /**
+     * Worlds by name
+     */
+    private final HashMap<String, World> worlds = new HashMap<String, World>();
+    /**
+     * Services registered by plugins
+     */
+    private final HashMap<Class<?>, Object> services = new HashMap<Class<?>, Object>();
+    /**
+     * Other plugins by name
+     */
+    private final HashMap<String, Plugin> plugins = new HashMap<String, Plugin>();
+    /**
+     * Delayed tasks waiting for runTasks()
+     */
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+    /**
+     * Cached result of getOnlinePlayers()
+     */
+    private Player[] onlineArray;
+    private int nextTaskId = 1;
+    private int nextEntityId = 1;
+    private long broadcasts;
+
+    public StandInServer() {
+        server = proxy(Server.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String m = method.getName();
+
+                if (m.equals("getOnlinePlayers")) {
+                    return getOnlinePlayers();
+                } else if (m.equals("getPlayer") || m.equals("getPlayerExact")) {
+                    StandInPlayer player = byName.get(args[0]);
+
+                    return player == null ? null : player.getPlayer();
+                } else if (m.equals("broadcastMessage")) {
+                    broadcasts++;
+
+                    return online.size();
+                } else if (m.equals("getPluginManager")) {
+                    return pluginManager;
+                } else if (m.equals("getScheduler")) {
+                    return scheduler;
+                } else if (m.equals("getServicesManager")) {
+                    return servicesManager;
+                } else if (m.equals("getWorld")) {
+                    return worlds.get(args[0]);
+                } else if (m.equals("getWorlds")) {
+                    return new ArrayList<World>(worlds.values());
+                } else if (m.equals("getLogger")) {
+                    return java.util.logging.Logger.getLogger("Minecraft");
+                } else if (m.equals("getName")) {
+                    return "StandIn";
+                }
+
+                return object(proxy, method, args);
+            }
+        });
+
+        pluginManager = proxy(PluginManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                // Events are called directly by the benchmarks
+                if (method.getName().equals("getPlugin")) {
+                    return plugins.get(args[0]);
+                }
+
+                return object(proxy, method, args);
+            }
+        });
+
+        scheduler = proxy(BukkitScheduler.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String m = method.getName();
+
+                if (m.equals("scheduleSyncDelayedTask") || m.equals("scheduleAsyncDelayedTask")) {
+                    tasks.add((Runnable) args[1]);
+
+                    return nextTaskId++;
+                } else if (m.startsWith("schedule")) {
+                    return nextTaskId++;
+                }
+
+                return object(proxy, method, args);
+            }
+        });
+
+        servicesManager = proxy(ServicesManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String m = method.getName();
+
+                if (m.equals("register")) {
+                    services.put((Class<?>) args[0], args[1]);
+
+                    return null;
+                } else if (m.equals("load")) {
+                    return services.get(args[0]);
+                }
+
+                return object(proxy, method, args);
+            }
+        });
+    }
+
+    /**
+     * Get the server proxy
+     *
+     * @return Server
+     */
+    public Server getServer() {
+        return server;
+    }
+
+    /**
+     * Create a world, or get it if it exists
+     *
+     * @param name World name
+     * @return World
+     */
+    public World getWorld(final String name) {
+        World world = worlds.get(name);
+
+        if (world == null) {
+            final UUID uid = UUID.nameUUIDFromBytes(name.getBytes());
+
+            world = proxy(World.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String m = method.getName();
+
+                    if (m.equals("getName")) {
+                        return name;
+                    } else if (m.equals("getUID")) {
+                        return uid;
+                    } else if (m.equals("getPlayers")) {
+                        ArrayList<Player> players = new ArrayList<Player>();
+
+                        for (Player player: getOnlinePlayers()) {
+                            if (player.getWorld() == proxy) {
+                                players.add(player);
+                            }
+                        }
+
+                        return players;
+                    }
+
+                    return object(proxy, method, args);
+                }
+            });
+            worlds.put(name, world);
+        }
+
+        return world;
+    }
+
+    /**
+     * Put a player online, without telling any plugin
+     *
+     * @param name Player name
+     * @param location Where they are
+     * @return Player state
+     */
+    public StandInPlayer addPlayer(String name, Location location) {
+        StandInPlayer player = new StandInPlayer(name, location);
+
+        online.add(player);
+        byName.put(name, player);
+        onlineArray = null;
+
+        return player;
+    }
+
+    /**
+     * Take a player offline, without telling any plugin
+     *
+     * @param player Player state
+     */
+    public void removePlayer(StandInPlayer player) {
+        online.remove(player);
+        byName.remove(player.name);
+        onlineArray = null;
+    }
+
+    /**
+     * Get the online players
+     *
+     * @return Players in join order
+     */
+    public Player[] getOnlinePlayers() {
+        if (onlineArray == null) {
+            onlineArray = new Player[online.size()];
+
+            for (int i = 0; i < onlineArray.length; i++) {
+                onlineArray[i] = online.get(i).getPlayer();
+            }
+        }
+
+        return onlineArray;
+    }
+
+    /**
+     * Create a non-player entity
+     *
+     * @param type Entity type
+     * @param location Where it is
+     * @return Entity
+     */
+    public Entity createEntity(EntityType type, Location location) {
+        return createEntity(type, location, null);
+    }
+
+    /**
+     * Create a non-player entity acting for a player
+     *
+     * @param type Entity type
+     * @param location Where it is
+     * @param owner Shooter of a projectile or owner of a tamed animal, or null
+     * @return Entity
+     */
+    public Entity createEntity(final EntityType type, final Location location, final Player owner) {
+        final int id = nextEntityId++;
+        Class<? extends Entity> kind = type.getEntityClass() != null ? type.getEntityClass() : Entity.class;
+
+        return proxy(kind, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String m = method.getName();
+
+                if (m.equals("getEntityId")) {
+                    return id;
+                } else if (m.equals("getType")) {
+                    return type;
+                } else if (m.equals("getLocation")) {
+                    return location.clone();
+                } else if (m.equals("getWorld")) {
+                    return location.getWorld();
+                } else if (m.equals("getShooter") || m.equals("getOwner")) {
+                    return owner;
+                } else if (m.equals("isTamed")) {
+                    return owner != null;
+                }
+
+                return object(proxy, method, args);
+            }
+        });
+    }
+
+    /**
+     * Create a block
+     *
+     * @param location Where it is
+     * @param type Material
+     * @return Block
+     */
+    public Block createBlock(final Location location, final Material type) {
+        return proxy(Block.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String m = method.getName();
+
+                if (m.equals("getLocation")) {
+                    return location.clone();
+                } else if (m.equals("getType")) {
+                    return type;
+                } else if (m.equals("getWorld")) {
+                    return location.getWorld();
+                } else if (m.equals("getX")) {
+                    return location.getBlockX();
+                } else if (m.equals("getY")) {
+                    return location.getBlockY();
+                } else if (m.equals("getZ")) {
+                    return location.getBlockZ();
+                }
+
+                return object(proxy, method, args);
+            }
+        });
+    }
+
+    /**
+     * Create, initialize and enable a plugin
+     *
+     * @param type Plugin class
+     * @param dataFolder Data folder, config.yml may be placed in it beforehand
+     * @return Enabled plugin
+     */
+    public <T extends JavaPlugin> T enable(Class<T> type, File dataFolder) throws Exception {
+        T plugin = create(type, dataFolder);
+
+        plugin.onEnable();
+
+        return plugin;
+    }
+
+    /**
+     * Create and initialize a plugin without enabling it
+     *
+     * @param type Plugin class
+     * @param dataFolder Data folder, config.yml may be placed in it beforehand
+     * @return Plugin, ready for onEnable()
+     */
+    public <T extends JavaPlugin> T create(Class<T> type, File dataFolder) throws Exception {
+        T plugin = type.getConstructor().newInstance();
+        PluginDescriptionFile description = new PluginDescriptionFile("Campfire", "bench", type.getName());
+        Method initialize = JavaPlugin.class.getDeclaredMethod("initialize", PluginLoader.class, Server.class,
+                PluginDescriptionFile.class, File.class, File.class, ClassLoader.class);
+
+        dataFolder.mkdirs();
+        initialize.setAccessible(true);
+        initialize.invoke(plugin, null, server, description, dataFolder, new File(dataFolder, "Campfire.jar"), type.getClassLoader());
+
+        return plugin;
+    }
+
+    /**
+     * Make a plugin available to getPlugin()
+     * It is not initialized or enabled
+     *
+     * @param name Plugin name
+     * @param plugin Plugin
+     */
+    public void addPlugin(String name, Plugin plugin) {
+        plugins.put(name, plugin);
+    }
+
+    /**
+     * Run the delayed tasks queued so far
+     */
+    public void runTasks() {
+        int count = tasks.size();
+
+        for (int i = 0; i < count; i++) {
+            tasks.poll().run();
+        }
+    }
+
+    /**
+     * Get the number of broadcasts
+     *
+     * @return Broadcast messages
+     */
+    public long getBroadcasts() {
+        return broadcasts;
+    }
+
+    /**
+     * Create a proxy of an interface
+     *
+     * @param type Interface
+     * @param handler Handler
+     * @return Proxy
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    /**
+     * Answer Object methods by identity, everything else with a default
+     *
+     * @param proxy Proxy
+     * @param method Method called
+     * @param args Arguments
+     * @return Default for the return type
+     */
+    private static Object object(Object proxy, Method method, Object[] args) {
+        String m = method.getName();
+
+        if (m.equals("equals")) {
+            return proxy == args[0];
+        } else if (m.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (m.equals("toString")) {
+            return method.getDeclaringClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+        }
+
+        Class<?> type = method.getReturnType();
+
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0.0;
+        } else if (type == float.class) {
+            return 0.0f;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == char.class) {
+            return (char) 0;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,58 @@
+package com.psychobit.campfire.benchmarks;
+
+import java.util.HashMap;
+
+import org.bukkit.World;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.managers.FlatRegionManager;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+
+/**
+ * WorldGuard with regions kept in memory
+ *
+ * Never enabled, it only answers region lookups. Regions are WorldGuard's
+ * own, so Campfire resolves them exactly as on a real server.
+ *
+ * @author psychobit
+ *
+ */
+public class StandInWorldGuard extends WorldGuardPlugin {
+    /**
+     * Regions of each world
+     */
+    private final HashMap<World, RegionManager> managers = new HashMap<World, RegionManager>();
+
+    /**
+     * Add a region that denies PvP, from bedrock to the sky
+     *
+     * @param world World
+     * @param id Region id
+     * @param x1 Lowest x
+     * @param z1 Lowest z
+     * @param x2 Highest x
+     * @param z2 Highest z
+     */
+    public void addNoPvpZone(World world, String id, int x1, int z1, int x2, int z2) {
+        ProtectedCuboidRegion region = new ProtectedCuboidRegion(id, new BlockVector(x1, 0, z1), new BlockVector(x2, 255, z2));
+
+        region.setFlag(DefaultFlag.PVP, StateFlag.State.DENY);
+        getRegionManager(world).addRegion(region);
+    }
+
+    @Override
+    public RegionManager getRegionManager(World world) {
+        RegionManager manager = managers.get(world);
+
+        if (manager == null) {
+            manager = new FlatRegionManager(null);
+            managers.put(world, manager);
+        }
+
+        return manager;
+    }
+}
@@ -0,0 +1,137 @@
+package com.psychobit.campfire.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.psychobit.campfire.ColdTier;
+import com.psychobit.campfire.PlayerData;
+import com.psychobit.campfire.PlayerStore;
+
+/**
+ * The player store and expired players with a long history
+ *
+ * loadData opens the files the way the plugin does when it is enabled;
+ * the other benchmarks are what a join, a quit and a save cost.
+ *
+ * @author psychobit
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StorageBenchmark {
+    /**
+     * Players written by saveBatch between flushes
+     */
+    private static final int BATCH = 100;
+
+    @Param({ "10000", "1000000" })
+    public int history;
+
+    private File dataFolder;
+    private File dataFile;
+    private File indexFile;
+    private File coldFile;
+    private PlayerStore store;
+    private ColdTier cold;
+    private String[] names;
+    private PlayerData[] records;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataFolder = Files.createTempDirectory("campfire-bench").toFile();
+        dataFile = new File(dataFolder, "players.bin");
+        indexFile = new File(dataFolder, "players.idx");
+        coldFile = new File(dataFolder, "expired.bin");
+        names = new String[history];
+        records = new PlayerData[history];
+        store = PlayerStore.open(dataFile, indexFile);
+
+        // One in ten is still protected
+        for (int i = 0; i < history; i++) {
+            names[i] = "player" + i;
+            records[i] = new PlayerData();
+            records[i].setEnabled(i % 10 == 0);
+            store.save(names[i], records[i]);
+        }
+
+        store.flush();
+        cold = ColdTier.build(store);
+        cold.save(coldFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+        Fixture.delete(dataFolder);
+    }
+
+    /**
+     * Next player in a fixed, scattered order
+     *
+     * @return Index into names
+     */
+    private int nextIndex() {
+        next = (next + 7919) % history;
+
+        return next;
+    }
+
+    @Benchmark
+    public PlayerData loadKnown() {
+        return store.load(names[nextIndex()]);
+    }
+
+    @Benchmark
+    public PlayerData loadUnknown() {
+        return store.load("newcomer" + nextIndex());
+    }
+
+    @Benchmark
+    public boolean coldContains() {
+        return cold.contains(names[nextIndex()]);
+    }
+
+    @Benchmark
+    public void saveBatch() throws Exception {
+        for (int i = 0; i < BATCH; i++) {
+            int index = nextIndex();
+
+            store.save(names[index], records[index]);
+        }
+
+        store.flush();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 20)
+    public int loadData() throws Exception {
+        PlayerStore reopened = PlayerStore.open(dataFile, indexFile);
+        ColdTier expired = ColdTier.load(coldFile);
+        int size = reopened.size() + expired.size();
+
+        reopened.close();
+
+        return size;
+    }
+}
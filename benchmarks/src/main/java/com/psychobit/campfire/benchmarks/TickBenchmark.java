@@ -0,0 +1,102 @@
+package com.psychobit.campfire.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The periodic tasks, and a player leaving and coming back
+ *
+ * WorldGuard is not loaded, so updatePlayerData() only covers the work
+ * that does not depend on regions. updatePlayerData() is every player at
+ * once, updateTick() is the slice the server pays for each tick.
+ *
+ * @author psychobit
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TickBenchmark {
+    /**
+     * Gives every protected player unsaved changes before each save
+     */
+    @State(Scope.Thread)
+    public static class Dirty {
+        @Setup(Level.Invocation)
+        public void dirtyAll(TickBenchmark bench) {
+            Fixture fixture = bench.fixture;
+
+            for (int i = 0; i < fixture.players.length; i++) {
+                if (fixture.protectedPlayer[i]) {
+                    fixture.command(fixture.players[i], "timeleft");
+                }
+            }
+        }
+    }
+
+    @Param({ "10", "1000", "10000" })
+    public int online;
+    @Param({ "10" })
+    public int protectedPercent;
+
+    private Fixture fixture;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new Fixture(online, protectedPercent);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void updatePlayerData() {
+        fixture.plugin.updatePlayerData();
+    }
+
+    @Benchmark
+    public void updateTick() {
+        fixture.plugin.updateTick();
+    }
+
+    @Benchmark
+    public void processTimers() {
+        fixture.plugin.processTimers();
+    }
+
+    @Benchmark
+    public void saveData(Dirty dirty) {
+        fixture.plugin.saveData();
+    }
+
+    @Benchmark
+    public void quitAndJoin() {
+        StandInServer.StandInPlayer player = fixture.players[next];
+
+        next = (next + 1) % fixture.players.length;
+
+        fixture.plugin.onPlayerQuit(new PlayerQuitEvent(player.getPlayer(), null));
+        fixture.plugin.onPlayerJoin(new PlayerJoinEvent(player.getPlayer(), null));
+    }
+}
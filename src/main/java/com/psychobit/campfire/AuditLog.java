@@ -0,0 +1,769 @@
+package com.psychobit.campfire;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Record of every protection decision
+ *
+ * Recording claims a slot in a fixed size ring and stores a few fields in
+ * it, without locks or allocation, from any thread. A background thread
+ * drains the ring every second into audit-<time>.log files in the audit
+ * folder, one compressed block per drain. A new file is started once the
+ * current one reaches the size limit, and the oldest files are deleted.
+ * When the ring is full, events are dropped and counted rather than making
+ * the caller wait.
+ *
+ * A block starts with the time range and size of its events, so queries
+ * skip the files and blocks outside the time asked for and only inflate the
+ * rest, one block at a time.
+ *
+ * @author psychobit
+ *
+ */
+public class AuditLog {
+    /**
+     * What was decided
+     */
+    public enum Type {
+        ATTACKER_PROTECTED(Messages.Key.AUDIT_ATTACKER_PROTECTED),
+        TARGET_PROTECTED(Messages.Key.AUDIT_TARGET_PROTECTED),
+        FLINT_BLOCKED(Messages.Key.AUDIT_FLINT_BLOCKED),
+        LAVA_BLOCKED(Messages.Key.AUDIT_LAVA_BLOCKED),
+        CHEST_BLOCKED(Messages.Key.AUDIT_CHEST_BLOCKED),
+        BURNING_BLOCKED(Messages.Key.AUDIT_BURNING_BLOCKED),
+        STARTED(Messages.Key.AUDIT_STARTED),
+        EXPIRED(Messages.Key.AUDIT_EXPIRED),
+        TERMINATED(Messages.Key.AUDIT_TERMINATED),
+        DEATH_RESET(Messages.Key.AUDIT_DEATH_RESET),
+        ITEM_BLOCKED(Messages.Key.AUDIT_ITEM_BLOCKED),
+        BLOCK_BLOCKED(Messages.Key.AUDIT_BLOCK_BLOCKED);
+
+        /**
+         * How the event is shown in query results
+         */
+        private final Messages.Key message;
+
+        private Type(Messages.Key message) {
+            this.message = message;
+        }
+
+        /**
+         * Get the message the event is shown with
+         * Arguments are the time, the player, the other player and the value
+         *
+         * @return Message key
+         */
+        public Messages.Key getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * A recorded decision
+     */
+    public static class Event {
+        private final long time;
+        private final Type type;
+        private final String player;
+        private final String other;
+        private final int value;
+
+        private Event(long time, Type type, String player, String other, int value) {
+            this.time = time;
+            this.type = type;
+            this.player = player;
+            this.other = other;
+            this.value = value;
+        }
+
+        /**
+         * Get when it happened
+         *
+         * @return Milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Get what was decided
+         *
+         * @return Event type
+         */
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Get the player the decision was about, the attacker for hits
+         *
+         * @return Player name
+         */
+        public String getPlayer() {
+            return player;
+        }
+
+        /**
+         * Get the other player involved
+         *
+         * @return Player name, empty if there was none
+         */
+        public String getOther() {
+            return other;
+        }
+
+        /**
+         * Get the time elapsed for the events that end or reset protection,
+         * or the material id for prohibited items and blocks
+         *
+         * @return Seconds or material id
+         */
+        public int getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Receives query results, on the audit thread
+     */
+    public interface Results {
+        /**
+         * Called once the query is done
+         *
+         * @param events The latest matching events, oldest first
+         * @param found Number of matching events
+         */
+        void found(List<Event> events, int found);
+    }
+
+    /**
+     * Logger for exceptions.
+     */
+    private static final Logger log = Logger.getLogger("Minecraft");
+    /**
+     * Bytes of an event in a file: time, type, name lengths, value and two names
+     */
+    private static final int EVENT_SIZE = 48;
+    /**
+     * Longest player name kept
+     */
+    private static final int NAME_SIZE = 16;
+    /**
+     * Bytes of a block header: compressed size, events, earliest and latest time
+     */
+    private static final int BLOCK_HEADER = 24;
+    /**
+     * Most events in one block
+     */
+    private static final int BLOCK_EVENTS = 4096;
+    /**
+     * Most bytes a full block can deflate to, zlib's compressBound()
+     */
+    private static final int MAX_BLOCK_LENGTH = BLOCK_EVENTS * EVENT_SIZE + (BLOCK_EVENTS * EVENT_SIZE >> 12)
+            + (BLOCK_EVENTS * EVENT_SIZE >> 14) + (BLOCK_EVENTS * EVENT_SIZE >> 25) + 13;
+    private static final String PREFIX = "audit-";
+    private static final String SUFFIX = ".log";
+    /**
+     * Where dropped events are counted
+     */
+    private final Metrics metrics;
+    /**
+     * Folder holding the log files
+     */
+    private final File folder;
+    /**
+     * A file is closed once it is this big
+     */
+    private final long maxFileSize;
+    /**
+     * Most files kept
+     */
+    private final int maxFiles;
+    /**
+     * Ring slots minus one, the ring size is a power of two
+     */
+    private final int mask;
+    /**
+     * Per slot: the position it can be written at, or that position plus one
+     * once the event in it is complete
+     */
+    private final AtomicLongArray sequences;
+    private final long[] times;
+    private final Type[] types;
+    private final String[] players;
+    private final String[] others;
+    private final int[] values;
+    /**
+     * Next position to write
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * Next position to read, only used by the audit thread
+     */
+    private long head;
+    /**
+     * Single background thread doing the file work
+     */
+    private final ScheduledExecutorService executor;
+    /**
+     * Events of the block being built, only used by the audit thread
+     */
+    private final ByteBuffer block = ByteBuffer.allocate(BLOCK_EVENTS * EVENT_SIZE);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] compressed = new byte[BLOCK_EVENTS * EVENT_SIZE / 2];
+    /**
+     * Time range of the block being built
+     */
+    private long blockMin = Long.MAX_VALUE;
+    private long blockMax = Long.MIN_VALUE;
+    /**
+     * File being appended to, null until the first block
+     */
+    private OutputStream out;
+    private File current;
+
+    /**
+     * Create a log and start draining it
+     *
+     * @param folder Folder for the log files, created if needed
+     * @param capacity Events the ring holds, rounded up to a power of two
+     * @param maxFileSize Bytes after which a new file is started
+     * @param maxFiles Most files kept
+     * @param metrics Where dropped events are counted
+     */
+    public AuditLog(File folder, int capacity, long maxFileSize, int maxFiles, Metrics metrics) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+        this.folder = folder;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = Math.max(1, maxFiles);
+        this.metrics = metrics;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        this.times = new long[size];
+        this.types = new Type[size];
+        this.players = new String[size];
+        this.others = new String[size];
+        this.values = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+
+        folder.mkdirs();
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Campfire-Audit");
+                t.setDaemon(true);
+
+                return t;
+            }
+        });
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Record a decision
+     * Safe to call from any thread, never blocks
+     *
+     * @param type What was decided
+     * @param time When, in milliseconds since the epoch
+     * @param player Player it was about, the attacker for hits
+     * @param other Other player involved, or null
+     * @param value Time elapsed for the events that end or reset protection, material id for items and blocks, or 0
+     */
+    public void record(Type type, long time, String player, String other, int value) {
+        long position = tail.get();
+        int slot;
+
+        while (true) {
+            slot = (int) position & mask;
+
+            long available = sequences.get(slot) - position;
+
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+
+                position = tail.get();
+            } else if (available < 0) {
+                // The audit thread has not caught up with a full ring
+                metrics.count(Metrics.Counter.AUDIT_DROPPED);
+
+                return;
+            } else {
+                position = tail.get(); // Another thread took it
+            }
+        }
+
+        times[slot] = time;
+        types[slot] = type;
+        players[slot] = player;
+        others[slot] = other;
+        values[slot] = value;
+        sequences.lazySet(slot, position + 1);
+    }
+
+    /**
+     * Find the events of a player in a time range
+     * Runs on the audit thread after the events recorded so far are written
+     *
+     * @param player Player name, matched both as the player and the other player
+     * @param from Start of the range, in milliseconds since the epoch
+     * @param to End of the range, in milliseconds since the epoch
+     * @param limit Most events to return, the latest are kept
+     * @param results Receives the events
+     */
+    public void query(final String player, final long from, final long to, final int limit, final Results results) {
+        executor.execute(new Runnable() {
+            public void run() {
+                drain();
+
+                ArrayList<Event> found = new ArrayList<Event>();
+                int count = 0;
+
+                try {
+                    count = search(player, from, to, limit, found);
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Exception while searching the audit log", e);
+                }
+
+                results.found(found, count);
+            }
+        });
+    }
+
+    /**
+     * Write what is left and stop the audit thread
+     *
+     * @param timeout Longest wait for the audit thread
+     * @param unit Unit of the timeout
+     */
+    public void close(long timeout, TimeUnit unit) {
+        executor.shutdown();
+
+        try {
+            if (!executor.awaitTermination(timeout, unit)) {
+                log.log(Level.WARNING, "Timed out waiting for the audit log");
+
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return;
+        }
+
+        drain();
+
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Exception while closing the audit log", e);
+        }
+
+        deflater.end();
+    }
+
+    /**
+     * Move the events in the ring to the current file
+     */
+    private void drain() {
+        try {
+            while (true) {
+                int slot = (int) head & mask;
+
+                if (sequences.get(slot) != head + 1) {
+                    break; // Empty, or the next event is still being recorded
+                }
+
+                append(times[slot], types[slot], players[slot], others[slot], values[slot]);
+
+                players[slot] = null;
+                others[slot] = null;
+                sequences.lazySet(slot, head + mask + 1);
+                head++;
+
+                if (block.position() == block.capacity()) {
+                    writeBlock();
+                }
+            }
+
+            writeBlock();
+        } catch (Exception e) {
+            // Losing a block beats stopping the audit thread
+            log.log(Level.WARNING, "Exception while writing the audit log", e);
+            closeFile();
+            clearBlock();
+        }
+    }
+
+    /**
+     * Add an event to the block being built
+     */
+    private void append(long time, Type type, String player, String other, int value) {
+        blockMin = Math.min(blockMin, time);
+        blockMax = Math.max(blockMax, time);
+        block.putLong(time);
+        block.put((byte) type.ordinal());
+        block.put((byte) Math.min(NAME_SIZE, player.length()));
+        block.put((byte) (other == null ? 0 : Math.min(NAME_SIZE, other.length())));
+        block.put((byte) 0);
+        block.putInt(value);
+        putName(player);
+        putName(other);
+    }
+
+    /**
+     * Add a name padded to the full name size
+     *
+     * @param name Player name, or null
+     */
+    private void putName(String name) {
+        int length = name == null ? 0 : Math.min(NAME_SIZE, name.length());
+
+        for (int i = 0; i < NAME_SIZE; i++) {
+            block.put(i < length ? (byte) name.charAt(i) : 0);
+        }
+    }
+
+    /**
+     * Compress the block being built and append it to the current file
+     *
+     * @throws IOException
+     */
+    private void writeBlock() throws IOException {
+        int size = block.position();
+
+        if (size == 0) {
+            return;
+        }
+
+        if (out == null) {
+            openFile(blockMin);
+        }
+
+        deflater.reset();
+        deflater.setInput(block.array(), 0, size);
+        deflater.finish();
+
+        int length = 0;
+
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER);
+
+        header.putInt(length);
+        header.putInt(size / EVENT_SIZE);
+        header.putLong(blockMin);
+        header.putLong(blockMax);
+
+        out.write(header.array());
+        out.write(compressed, 0, length);
+        out.flush();
+
+        clearBlock();
+
+        if (current.length() >= maxFileSize) {
+            closeFile();
+        }
+    }
+
+    private void clearBlock() {
+        block.clear();
+        blockMin = Long.MAX_VALUE;
+        blockMax = Long.MIN_VALUE;
+    }
+
+    /**
+     * Start a new file and delete the oldest ones over the limit
+     *
+     * @param time Time of the first event in it
+     * @throws IOException
+     */
+    private void openFile(long time) throws IOException {
+        current = new File(folder, PREFIX + time + SUFFIX);
+        out = new FileOutputStream(current, true);
+
+        File[] files = files();
+
+        for (int i = 0; i < files.length - maxFiles; i++) {
+            files[i].delete();
+        }
+    }
+
+    private void closeFile() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Exception while closing the audit log", e);
+        }
+
+        out = null;
+        current = null;
+    }
+
+    /**
+     * Log files, oldest first
+     *
+     * @return Files
+     */
+    private File[] files() {
+        File[] files = folder.listFiles();
+
+        if (files == null) {
+            return new File[0];
+        }
+
+        ArrayList<File> logs = new ArrayList<File>();
+
+        for (File file: files) {
+            if (startTime(file) >= 0) {
+                logs.add(file);
+            }
+        }
+
+        File[] sorted = logs.toArray(new File[logs.size()]);
+
+        Arrays.sort(sorted, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long ta = startTime(a);
+                long tb = startTime(b);
+
+                return ta < tb ? -1 : (ta == tb ? 0 : 1);
+            }
+        });
+
+        return sorted;
+    }
+
+    /**
+     * Time of the first event in a log file, from its name
+     *
+     * @param file File
+     * @return Milliseconds since the epoch, or -1 if it is not a log file
+     */
+    private static long startTime(File file) {
+        String name = file.getName();
+
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Read the blocks that overlap a time range and keep the latest matches
+     *
+     * @param player Player name
+     * @param from Start of the range
+     * @param to End of the range
+     * @param limit Most events to keep
+     * @param found Receives the latest matches, oldest first
+     * @return Number of matches
+     * @throws IOException
+     */
+    private int search(String player, long from, long to, int limit, List<Event> found) throws IOException {
+        File[] files = files();
+        Event[] latest = new Event[Math.max(1, limit)];
+        int count = 0;
+        byte[] name = player.getBytes("ISO-8859-1");
+        Inflater inflater = new Inflater();
+        ByteBuffer events = ByteBuffer.allocate(BLOCK_EVENTS * EVENT_SIZE);
+        byte[] header = new byte[BLOCK_HEADER];
+        byte[] data = new byte[MAX_BLOCK_LENGTH];
+
+        try {
+            for (int f = 0; f < files.length; f++) {
+                // Events can be recorded a little out of order, so only a
+                // file's start is certain; the block headers do the rest
+                if (startTime(files[f]) > to) {
+                    continue;
+                }
+
+                DataInputStream in = new DataInputStream(new FileInputStream(files[f]));
+                long remaining = files[f].length();
+
+                try {
+                    while (true) {
+                        try {
+                            in.readFully(header);
+                        } catch (EOFException e) {
+                            break;
+                        }
+
+                        remaining -= BLOCK_HEADER;
+
+                        ByteBuffer h = ByteBuffer.wrap(header);
+                        int length = h.getInt();
+                        int size = h.getInt() * EVENT_SIZE;
+                        long blockFrom = h.getLong();
+                        long blockTo = h.getLong();
+
+                        if (length < 0 || length > MAX_BLOCK_LENGTH || size < 0 || size > events.capacity()) {
+                            break; // Not a block, the rest of the file is unreadable
+                        }
+
+                        if (length > remaining) {
+                            break; // Cut off while it was being written
+                        }
+
+                        remaining -= length;
+
+                        if (blockFrom > to || blockTo < from) {
+                            if (in.skipBytes(length) < length) {
+                                break;
+                            }
+
+                            continue;
+                        }
+
+                        try {
+                            in.readFully(data, 0, length);
+                        } catch (EOFException e) {
+                            break; // Cut off while it was being written
+                        }
+
+                        inflater.reset();
+                        inflater.setInput(data, 0, length);
+
+                        try {
+                            if (inflater.inflate(events.array(), 0, size) < size) {
+                                break;
+                            }
+                        } catch (DataFormatException e) {
+                            break;
+                        }
+
+                        for (int offset = 0; offset < size; offset += EVENT_SIZE) {
+                            Event event = match(events, offset, name, from, to);
+
+                            if (event != null) {
+                                latest[count++ % latest.length] = event;
+                            }
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+
+        int kept = Math.min(count, latest.length);
+
+        for (int i = count - kept; i < count; i++) {
+            found.add(latest[i % latest.length]);
+        }
+
+        return count;
+    }
+
+    /**
+     * Decode an event if it is about a player and in a time range
+     *
+     * @param events Inflated block
+     * @param offset Start of the event
+     * @param name Player name as stored
+     * @param from Start of the range
+     * @param to End of the range
+     * @return Event, or null if it does not match
+     */
+    private static Event match(ByteBuffer events, int offset, byte[] name, long from, long to) {
+        long time = events.getLong(offset);
+
+        if (time < from || time > to) {
+            return null;
+        }
+
+        int type = events.get(offset + 8);
+        int playerLength = events.get(offset + 9);
+        int otherLength = events.get(offset + 10);
+        int names = offset + 16;
+
+        if (!sameName(events, names, playerLength, name) && !sameName(events, names + NAME_SIZE, otherLength, name)) {
+            return null;
+        }
+
+        Type[] types = Type.values();
+
+        if (type < 0 || type >= types.length) {
+            return null;
+        }
+
+        return new Event(time, types[type], readName(events, names, playerLength),
+                readName(events, names + NAME_SIZE, otherLength), events.getInt(offset + 12));
+    }
+
+    /**
+     * Compare a stored name, ignoring case as player names do
+     */
+    private static boolean sameName(ByteBuffer events, int offset, int length, byte[] name) {
+        if (length != Math.min(NAME_SIZE, name.length)) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase((char) events.get(offset + i)) != Character.toLowerCase((char) name[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String readName(ByteBuffer events, int offset, int length) {
+        char[] chars = new char[length];
+
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (events.get(offset + i) & 0xff);
+        }
+
+        return new String(chars);
+    }
+}
@@ -1,32 +1,46 @@
 package com.psychobit.campfire;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
-import org.bukkit.ChatColor;
+import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
-import org.bukkit.entity.Arrow;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.block.Action;
 import org.bukkit.event.entity.EntityDamageByEntityEvent;
 import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.entity.EntityDeathEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.server.ServerCommandEvent;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
-import com.sk89q.worldguard.protection.ApplicableRegionSet;
-import com.sk89q.worldguard.protection.flags.DefaultFlag;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.bukkit.event.entity.PlayerDeathEvent;
@@ -48,30 +62,171 @@ public class Campfire extends JavaPlugin implements Listener {
     private static final Logger log = Logger.getLogger("Minecraft");
     /**
      * Player data Contains all the info Campfire needs for a specific player
+     * Only holds online players, everyone else stays in storage
+     * Can be read from any thread, entries are only added and removed on the server thread
      */
-    private HashMap<String, PlayerData> playerData;
+    private ConcurrentHashMap<String, PlayerData> playerData;
     /**
-     * Scheduled repeating task Updates player data on an interval
+     * Where every player's data is kept
+     */
+    private PlayerStorage storage;
+    /**
+     * Players about to join or who just left, so joins don't read storage
+     */
+    private PlayerCache playerCache;
+    /**
+     * Names of players whose data changed since the last save
+     */
+    private HashSet<String> dirty;
+    /**
+     * Background writer for player data
+     */
+    private DataWriter writer;
+    /**
+     * Protected players, settings and update batches of each world
+     * Created the first time a world is looked up
+     */
+    private HashMap<String, WorldPartition> partitions;
+    /**
+     * Partition each online player whose protection is active is indexed in
+     * Players in worlds where protection is disabled are not in it
+     */
+    private HashMap<String, WorldPartition> protectedPlayers;
+    /**
+     * Entity ids of protected players, empty when nobody protected is online
+     */
+    private IntSet protectedIds;
+    /**
+     * The id each protected player was added to protectedIds with
+     * Player entities are replaced on respawn and world change
+     */
+    private HashMap<String, Integer> entityIds;
+    /**
+     * Region cache version each protected player's zone was last checked in
+     * Missing when they moved to another block since, or were never checked
+     */
+    private HashMap<String, Integer> zoneVersions;
+    /**
+     * Pending warnings and expiries of running protection timers
+     */
+    private ExpiryScheduler timers;
+    /**
+     * Seconds until online players are next checked for missing data
+     * Protected players are checked in the second their name hashes to
+     */
+    private int reconcileCountdown;
+    /**
+     * Online players to check for op and permission changes, a few each tick
+     */
+    private Player[] reconcilePlayers = NO_PLAYERS;
+    /**
+     * Next index into reconcilePlayers
+     */
+    private int reconcileCursor;
+    /**
+     * Seconds over which all online players are checked for missing data
+     */
+    private static final int RECONCILE_PASSES = 30;
+    private static final Player[] NO_PLAYERS = new Player[0];
+    /**
+     * Ticks since the current pass started
+     * Each pass is spread over TICKS_PER_PASS ticks
+     */
+    private int passTick;
+    /**
+     * Nanoseconds spent on the current pass so far
+     */
+    private long passNanos;
+    /**
+     * Most nanoseconds to spend on player updates in one tick, 0 for no limit
+     * Players over budget are carried over to the next tick
+     */
+    private long updateTickBudget;
+    /**
+     * Ticks each player is visited once in
+     */
+    private static final int TICKS_PER_PASS = 20;
+    /**
+     * Scheduled repeating task Updates a slice of the player data every tick
      */
     private int thread;
     /**
-     * Time in seconds a player should be protected by campfire Configurable in
-     * the config.yml - defaults to 20 min
+     * Scheduled repeating task Fires due warnings and expiries
+     */
+    private int timerThread;
+    /**
+     * Scheduled repeating task Hands changed player data to the writer
+     */
+    private int saveThread;
+    /**
+     * Scheduled repeating task Appends metrics to metrics.log
      */
-    private int duration;
+    private int metricsThread = -1;
     /**
-     * Distance around a player that can't be lava'd or set on fire Configurable
-     * in the config.yml - defaults to 5 blocks
+     * Duration, buffer, prohibited items and blocks, damage sources and world settings
+     * Configurable in the config.yml, replaced as a whole by /campfire reload
      */
-    private int bufferDist;
+    private volatile Rules rules;
     /**
-     * Should a player's data be reset upon death?
+     * Seconds between saves of changed player data
      */
-    private boolean resetOnDeath;
+    private int saveInterval;
+    /**
+     * Seconds to wait for pending writes when the plugin is disabled
+     */
+    private int saveTimeout;
+    /**
+     * Seconds between forced refreshes of the region cache
+     */
+    private int regionCacheRefresh;
+    /**
+     * Seconds until the region cache is next refreshed
+     */
+    private int regionCacheCountdown;
     /**
      * Cache for the instance of worldguard.
      */
     WorldGuardPlugin wg;
+    /**
+     * Remembered WorldGuard decisions, null without WorldGuard
+     */
+    private RegionCache regionCache;
+    /**
+     * Checks zones off the server thread, null unless AsyncZoneChecks is on
+     */
+    private ZoneWorker zoneWorker;
+    /**
+     * Rendered player facing messages
+     */
+    private Messages messages;
+    /**
+     * Hot path timings and counters
+     */
+    private Metrics metrics;
+    /**
+     * Clock protection time is counted in
+     */
+    private Clock clock = Clock.SYSTEM;
+    /**
+     * Record of protection decisions, null unless AuditLog is on
+     */
+    private AuditLog audit;
+    /**
+     * Snapshot of the protected players other plugins are answered from
+     */
+    private ProtectionIndex protections;
+    /**
+     * Has protection changed since the snapshot was published?
+     */
+    private boolean protectionsChanged;
+    /**
+     * Finds the player behind projectiles, wolves and TNT
+     */
+    private DamageAttribution attribution;
+    /**
+     * Counts of what protection did, per player and server-wide
+     */
+    private ProtectionStats stats;
 
     /**
      * Load player data 
@@ -81,9 +236,39 @@ public class Campfire extends JavaPlugin implements Listener {
     @Override
     public void onEnable() {
         // Load the player data
-        playerData = new HashMap<String, PlayerData>();
+        playerData = new ConcurrentHashMap<String, PlayerData>();
+        dirty = new HashSet<String>();
+        partitions = new HashMap<String, WorldPartition>();
+        protectedPlayers = new HashMap<String, WorldPartition>();
+        protectedIds = new IntSet();
+        entityIds = new HashMap<String, Integer>();
+        zoneVersions = new HashMap<String, Integer>();
+        passTick = TICKS_PER_PASS;
+        timers = new ExpiryScheduler();
+        metrics = new Metrics();
+        protections = new ProtectionIndex();
+        attribution = new DamageAttribution(clock);
+        stats = new ProtectionStats();
+        
+        long start = System.nanoTime();
+        
+        if (!loadData()) {
+            metrics.close();
+            getServer().getPluginManager().disablePlugin(this);
+            
+            return;
+        }
+        
+        metrics.time(Metrics.Timer.LOAD_DATA, start);
+        writer = new DataWriter(storage, metrics);
         
-        loadData();
+        try {
+            stats.read(storage.loadStats());
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Exception while loading stats, starting over", e);
+            
+            stats = new ProtectionStats();
+        }
 
         // Define default config values if not set
         if (!getConfig().contains("Duration")) {
@@ -94,31 +279,176 @@ public class Campfire extends JavaPlugin implements Listener {
             
             saveConfig();
         }
+        
+        if (!getConfig().contains("SaveInterval")) {
+            getConfig().set("SaveInterval", 30);
+            getConfig().set("SaveTimeout", 10);
+            
+            saveConfig();
+        }
+        
+        if (!getConfig().contains("Language")) {
+            getConfig().set("Language", "en");
+            getConfig().set("MessageThrottle", 2000);
+            
+            saveConfig();
+        }
+        
+        if (!getConfig().contains("MetricsDumpInterval")) {
+            getConfig().set("MetricsDumpInterval", 300);
+            
+            saveConfig();
+        }
+        
+        if (!getConfig().contains("RegionCacheSize")) {
+            getConfig().set("RegionCacheSize", 4096);
+            getConfig().set("RegionCacheRefresh", 60);
+            
+            saveConfig();
+        }
+        
+        if (!getConfig().contains("UpdateTickBudget")) {
+            getConfig().set("UpdateTickBudget", 500000);
+            
+            saveConfig();
+        }
+        
+        if (!getConfig().contains("Storage")) {
+            getConfig().set("Storage", "file");
+            getConfig().set("StorageDriver", "org.sqlite.JDBC");
+            getConfig().set("StorageUrl", "jdbc:sqlite:" + new File(getDataFolder(), "players.db").getPath());
+            getConfig().set("StorageUser", "");
+            getConfig().set("StoragePassword", "");
+            getConfig().set("StorageCacheTTL", 60);
+            
+            saveConfig();
+        }
+        
+        if (!getConfig().contains("StorageServer")) {
+            getConfig().set("StorageServer", getServer().getServerId());
+            
+            saveConfig();
+        }
+        
+        if (!getConfig().contains("QuitGracePeriod")) {
+            getConfig().set("QuitGracePeriod", 60);
+            
+            saveConfig();
+        }
+        
+        if (!getConfig().contains("AsyncZoneChecks")) {
+            getConfig().set("AsyncZoneChecks", false);
+            
+            saveConfig();
+        }
+        
+        if (!getConfig().contains("AuditLog")) {
+            getConfig().set("AuditLog", true);
+            getConfig().set("AuditBufferSize", 65536);
+            getConfig().set("AuditFileSize", 1024 * 1024);
+            getConfig().set("AuditFiles", 20);
+            
+            saveConfig();
+        }
+        
+        if (!getConfig().contains("ProhibitedItems")) {
+            getConfig().set("ProhibitedItems", Rules.DEFAULT_PROHIBITED_ITEMS);
+            getConfig().set("ProhibitedBlocks", Rules.DEFAULT_PROHIBITED_BLOCKS);
+            getConfig().set("BufferItems", Rules.DEFAULT_BUFFER_ITEMS);
+            getConfig().set("DamageSources", Rules.DEFAULT_DAMAGE_SOURCES);
+            
+            saveConfig();
+        }
+        
+        if (!getConfig().contains("Worlds")) {
+            getConfig().createSection("Worlds");
+            
+            saveConfig();
+        }
+        
+        if (!getConfig().contains("Tiers")) {
+            getConfig().createSection("Tiers");
+            
+            saveConfig();
+        }
 
-        // Set the duration and buffer as defined in the config
-        duration = getConfig().getInt("Duration", 60 * 20);
-        bufferDist = getConfig().getInt("Buffer", 5);
-        resetOnDeath = getConfig().getBoolean("ResetOnDeath", true);
+        // Set the duration, buffer, prohibitions, worlds and tiers as defined in the config
+        rules = Rules.compile(getConfig());
+        saveInterval = Math.max(1, getConfig().getInt("SaveInterval", 30));
+        saveTimeout = getConfig().getInt("SaveTimeout", 10);
+        regionCacheRefresh = getConfig().getInt("RegionCacheRefresh", 60);
+        regionCacheCountdown = regionCacheRefresh;
+        updateTickBudget = Math.max(0, getConfig().getLong("UpdateTickBudget", 500000));
+        playerCache = new PlayerCache(1000L * Math.max(0, getConfig().getInt("QuitGracePeriod", 60)), clock);
+        messages = new Messages(getDataFolder(), getConfig().getString("Language", "en"), getConfig().getLong("MessageThrottle", 2000), clock);
+        
+        if (getConfig().getBoolean("AuditLog", true)) {
+            audit = new AuditLog(new File(getDataFolder(), "audit"), getConfig().getInt("AuditBufferSize", 65536),
+                    getConfig().getLong("AuditFileSize", 1024 * 1024), getConfig().getInt("AuditFiles", 20), metrics);
+        }
         
         if (getConfig().getBoolean("WorldGuardAreas", true)) {
             Plugin p = getServer().getPluginManager().getPlugin("WorldGuard");
             
             if (p != null && p instanceof WorldGuardPlugin) {
                 wg = (WorldGuardPlugin) p;
+                regionCache = new RegionCache(wg, Math.max(1, getConfig().getInt("RegionCacheSize", 4096)), metrics);
+                
+                if (getConfig().getBoolean("AsyncZoneChecks", false)) {
+                    zoneWorker = new ZoneWorker(regionCache, metrics);
+                }
             }
         }
         
         // Register events
         getServer().getPluginManager().registerEvents(this, this);
+        
+        // Pick up anyone already online, e.g. after a reload
+        for (Player player: getServer().getOnlinePlayers()) {
+            joinPlayer(player);
+        }
+        
+        // Let other plugins ask who is protected
+        publishProtections();
+        getServer().getServicesManager().register(ProtectionService.class, protections, this, ServicePriority.Normal);
 
         // Start the task to update player data
         final Campfire plugin = this;
         
         thread = getServer().getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
             public void run() {
-                plugin.updatePlayerData();
+                plugin.updateTick();
+            }
+        }, 1L, 1L); // A twentieth of the players each tick
+        
+        timerThread = getServer().getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
+            public void run() {
+                plugin.processTimers();
+            }
+        }, 1L, 1L); // Only does work when something is due
+        
+        saveThread = getServer().getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
+            public void run() {
+                plugin.saveData();
             }
-        }, 20L, 20L); // Update every second
+        }, 20L * saveInterval, 20L * saveInterval);
+        
+        int dumpInterval = getConfig().getInt("MetricsDumpInterval", 300);
+        
+        if (dumpInterval > 0) {
+            final File dumpFile = new File(getDataFolder(), "metrics.log");
+            
+            // Metrics are safe to read off the server thread, keep the file work there
+            metricsThread = getServer().getScheduler().scheduleAsyncRepeatingTask(this, new Runnable() {
+                public void run() {
+                    try {
+                        metrics.dump(dumpFile, 1024 * 1024);
+                    } catch (Exception e) {
+                        log.log(Level.WARNING, "Exception while writing " + dumpFile.getName(), e);
+                    }
+                }
+            }, 20L * dumpInterval, 20L * dumpInterval);
+        }
     }
 
     /**
@@ -133,11 +463,155 @@ public class Campfire extends JavaPlugin implements Listener {
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         // Check arguments
         if (args.length == 0) {
-            sender.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Usage: ");
-            sender.sendMessage("/campfire terminate ");
-            sender.sendMessage(ChatColor.GRAY + "Removes your protection early");
-            sender.sendMessage("/campfire timeleft [player] ");
-            sender.sendMessage(ChatColor.GRAY + "Gives the duration left for a player's protection");
+            messages.send(sender, Messages.Key.USAGE);
+            
+            return true;
+        }
+        
+        // Region cache statistics, for ops and the console
+        if (args[0].equalsIgnoreCase("regions")) {
+            if (!sender.isOp()) {
+                messages.send(sender, Messages.Key.ONLY_OPS);
+                
+                return true;
+            }
+            
+            if (regionCache == null) {
+                messages.send(sender, Messages.Key.REGIONS_DISABLED);
+                
+                return true;
+            }
+            
+            if (args.length == 2 && args[1].equalsIgnoreCase("clear")) {
+                regionCache.invalidate();
+                messages.send(sender, Messages.Key.REGIONS_CLEARED);
+                
+                return true;
+            }
+            
+            messages.send(sender, Messages.Key.REGIONS_STATS, regionCache.size(), regionCache.getVersion(),
+                    regionCache.getHits(), regionCache.getMisses(), String.format("%.1f", regionCache.getHitRate() * 100),
+                    regionCache.getAverageHitNanos(), regionCache.getAverageMissNanos());
+            
+            return true;
+        }
+
+        // Hot path timings and counters, for ops and the console
+        if (args[0].equalsIgnoreCase("stats")) {
+            if (!sender.isOp()) {
+                messages.send(sender, Messages.Key.ONLY_OPS);
+                
+                return true;
+            }
+            
+            if (args.length > 1 && args[1].equalsIgnoreCase("top")) {
+                showTop(sender, args.length > 2 ? ProtectionStats.Stat.match(args[2]) : null);
+                
+                return true;
+            }
+            
+            messages.send(sender, Messages.Key.STATS_HEADER, Metrics.isFlightRecorderAvailable() ? "on" : "off");
+            
+            for (Metrics.Timer timer: Metrics.Timer.values()) {
+                Metrics.Snapshot snapshot = metrics.snapshot(timer);
+                
+                messages.send(sender, Messages.Key.STATS_TIMER, timer.getLabel(), snapshot.getCount(),
+                        String.format("%.1f", snapshot.getMean() / 1000.0), String.format("%.1f", snapshot.getPercentile(99) / 1000.0),
+                        String.format("%.1f", snapshot.getMax() / 1000.0));
+            }
+            
+            for (Metrics.Counter counter: Metrics.Counter.values()) {
+                messages.send(sender, Messages.Key.STATS_COUNTER, counter.getLabel(), metrics.get(counter));
+            }
+            
+            return true;
+        }
+        
+        // Protection decisions of a player, for ops and the console
+        if (args[0].equalsIgnoreCase("audit")) {
+            if (!sender.isOp()) {
+                messages.send(sender, Messages.Key.ONLY_OPS);
+                
+                return true;
+            }
+            
+            if (audit == null) {
+                messages.send(sender, Messages.Key.AUDIT_DISABLED);
+                
+                return true;
+            }
+            
+            long since = args.length > 2 ? parseAgo(args[2]) : 24 * 60 * 60 * 1000L;
+            long until = args.length > 3 ? parseAgo(args[3]) : 0;
+            
+            if (args.length < 2 || args.length > 4 || since < 0 || until < 0) {
+                messages.send(sender, Messages.Key.AUDIT_USAGE);
+                
+                return true;
+            }
+            
+            long now = clock.currentTimeMillis();
+            
+            queryAudit(sender, args[1], now - since, now - until);
+            
+            return true;
+        }
+        
+        // Read the rules from the config again, for ops and the console
+        if (args[0].equalsIgnoreCase("reload")) {
+            if (!sender.isOp()) {
+                messages.send(sender, Messages.Key.ONLY_OPS);
+                
+                return true;
+            }
+            
+            reloadConfig();
+            reloadRules(Rules.compile(getConfig()));
+            messages.send(sender, Messages.Key.RELOADED, rules.getSizes());
+            
+            return true;
+        }
+        
+        // Resolve permissions again after they were changed, for ops and the console
+        if (args[0].equalsIgnoreCase("refresh")) {
+            if (!sender.isOp()) {
+                messages.send(sender, Messages.Key.ONLY_OPS);
+                
+                return true;
+            }
+            
+            Player[] targets = getServer().getOnlinePlayers();
+            
+            if (args.length == 2) {
+                Player target = getServer().getPlayer(args[1]);
+                
+                if (target == null) {
+                    messages.send(sender, Messages.Key.PLAYER_NOT_FOUND);
+                    
+                    return true;
+                }
+                
+                targets = new Player[] { target };
+            }
+            
+            for (Player target: targets) {
+                refreshPolicy(target);
+            }
+            
+            messages.send(sender, Messages.Key.POLICIES_REFRESHED, targets.length);
+            
+            return true;
+        }
+        
+        // Message statistics, for ops and the console
+        if (args[0].equalsIgnoreCase("messages")) {
+            if (!sender.isOp()) {
+                messages.send(sender, Messages.Key.ONLY_OPS);
+                
+                return true;
+            }
+            
+            messages.send(sender, Messages.Key.MESSAGES_STATS, messages.getSent(), messages.getSuppressed());
             
             return true;
         }
@@ -148,7 +622,7 @@ public class Campfire extends JavaPlugin implements Listener {
         if (sender instanceof Player) {
             player = (Player) sender;
         } else {
-            sender.sendMessage("Only in-game players can use this command!");
+            messages.send(sender, Messages.Key.ONLY_PLAYERS);
             
             return true;
         }
@@ -167,14 +641,12 @@ public class Campfire extends JavaPlugin implements Listener {
                 // Tell them to confirm
                 data.setConfirmed();
                 
-                player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] You will be vulnerable to PvP if you");
-                player.sendMessage("terminate your protection! If you understand the risk, ");
-                player.sendMessage("type '/campfire confirm' to terminate...");
+                messages.send(player, Messages.Key.TERMINATE_WARNING);
                 
                 return true;
             } else {
                 // Tell them they are already expired
-                player.sendMessage("Your protection has already expired!");
+                messages.send(player, Messages.Key.ALREADY_EXPIRED);
                 
                 return true;
             }
@@ -186,22 +658,27 @@ public class Campfire extends JavaPlugin implements Listener {
             if (data.isEnabled()) {
                 // Check for terminate command
                 if (!data.confirmed()) {
-                    player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Use /campfire terminate first!");
+                    messages.send(player, Messages.Key.TERMINATE_FIRST);
                     
                     return true;
                 }
                 
                 // Disable their protection
+                recordAudit(AuditLog.Type.TERMINATED, playerName, null, data.getTimeElapsed());
+                stats.add(ProtectionStats.Stat.TERMINATIONS, playerName, 1);
                 data.setEnabled(false);
+                dirty.add(playerName);
+                timers.cancel(playerName);
+                unprotect(playerName);
 
                 // Announce it to the server
-                getServer().broadcastMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + playerName + " Terminated their protection!");
-                player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] You are now vulnerable!");
+                messages.broadcast(getServer(), Messages.Key.TERMINATED, playerName);
+                messages.send(player, Messages.Key.NOW_VULNERABLE);
                 
                 return true;
             } else {
                 // Tell them they are already expired
-                player.sendMessage("Your protection has already expired!");
+                messages.send(player, Messages.Key.ALREADY_EXPIRED);
                 
                 return true;
             }
@@ -213,27 +690,29 @@ public class Campfire extends JavaPlugin implements Listener {
             
             // Determine who the player they want to check is
             String target = "";
+            Player targetPlayer = null;
             
             if (args.length == 2) {
                 // Search for a target
-                Player targetPlayer = getServer().getPlayer(args[1]);
+                targetPlayer = getServer().getPlayer(args[1]);
                 
                 if (targetPlayer != null) {
                     target = targetPlayer.getName();
                 }
             } else if (player != null) {
                 // Default to the issuer's name
+                targetPlayer = player;
                 target = player.getName();
             } else {
                 // Must have a target
-                sender.sendMessage("You must specify a target!");
+                messages.send(sender, Messages.Key.NEED_TARGET);
                 
                 return true;
             }
 
             // Alert if no player was found
             if (target.equals("")) {
-                sender.sendMessage(ChatColor.RED + "Player not found!");
+                messages.send(sender, Messages.Key.PLAYER_NOT_FOUND);
                 
                 return true;
             }
@@ -242,230 +721,1289 @@ public class Campfire extends JavaPlugin implements Listener {
             PlayerData data = playerData.get(target);
             
             if (!data.isEnabled()) {
-                sender.sendMessage(target + ": protection expired!");
+                messages.send(sender, Messages.Key.TIMELEFT_EXPIRED, target);
                 
                 return true;
             }
 
+            // Count the time since their last deadline
+            if (timers.isScheduled(target)) {
+                data.update(clock.currentTimeSeconds());
+                dirty.add(target);
+            }
+
             // Give them the time left
-            int timeLeft = duration - data.getTimeElapsed();
+            int timeLeft = data.getPolicy().getDuration(partition(targetPlayer.getWorld()).getDuration()) - data.getTimeElapsed();
             int min = (timeLeft / 60);
             
-            sender.sendMessage(target + ": " + min + " min of protection left!");
+            messages.send(sender, Messages.Key.TIMELEFT, target, min);
             
             return true;
 
         }
 
         // Default to usage
-        sender.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Usage: ");
-        sender.sendMessage("/campfire terminate ");
-        sender.sendMessage(ChatColor.GRAY + "Removes your protection early");
-        sender.sendMessage("/campfire timeleft [player] ");
-        sender.sendMessage(ChatColor.GRAY + "Gives the duration left for a player's protection");
+        messages.send(sender, Messages.Key.USAGE);
         
         return true;
     }
 
     /**
-     * Save player data and stop the scheduled task
+     * Save player data and stop the scheduled tasks
+     * Waits a bounded time for the writer to finish
      */
     @Override
     public void onDisable() {
-        saveData();
+        if (writer == null) {
+            return; // Never got enabled
+        }
         
         getServer().getScheduler().cancelTask(thread);
+        getServer().getScheduler().cancelTask(timerThread);
+        getServer().getScheduler().cancelTask(saveThread);
+        getServer().getScheduler().cancelTask(metricsThread);
+        getServer().getServicesManager().unregister(ProtectionService.class, protections);
+        protections.publish(new HashMap<String, ProtectionService.Protection>());
+        metrics.close();
+        
+        if (zoneWorker != null) {
+            zoneWorker.close();
+        }
+        
+        // Bank the time of running timers
+        for (String playerName: protectedPlayers.keySet()) {
+            if (timers.isScheduled(playerName)) {
+                playerData.get(playerName).update(clock.currentTimeSeconds());
+                dirty.add(playerName);
+            }
+        }
+        
+        saveData();
+        writer.submitStats(stats.write(clock.currentTimeMillis()));
+        
+        // The audit log and the writer finish side by side within one timeout
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(saveTimeout);
+        
+        if (audit != null) {
+            audit.close(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        
+        if (!writer.close(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            log.log(Level.SEVERE, "Timed out after " + saveTimeout + "s waiting for player data to be saved");
+            
+            return;
+        }
+        
+        try {
+            storage.close();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Exception while closing player data", e);
+        }
     }
 
     /**
-     * Save config and player data to disk
+     * Swap in new rules
+     * Players are moved in or out of worlds where protection was turned on or
+     * off, running timers are rescheduled for a new duration and buffer grids
+     * are rebuilt for a new buffer. Policies are resolved again for new tiers.
+     *
+     * @param next Rules to use from now on
+     */
+    private void reloadRules(Rules next) {
+        long now = clock.currentTimeSeconds();
+        
+        rules = next;
+        protectionsChanged = true;
+        
+        for (WorldPartition partition: partitions.values()) {
+            boolean wasEnabled = partition.isEnabled();
+            int duration = partition.getDuration();
+            
+            partition.setSettings(next.getWorld(partition.getWorldName()));
+            
+            if (wasEnabled && !partition.isEnabled()) {
+                // Paused for as long as they stay
+                for (String playerName: partition.getPlayerNames()) {
+                    leaveWorld(playerName, playerData.get(playerName));
+                }
+            } else if (!wasEnabled && partition.isEnabled()) {
+                World world = getServer().getWorld(partition.getWorldName());
+                
+                for (Player player: world == null ? new ArrayList<Player>() : world.getPlayers()) {
+                    PlayerData data = playerData.get(player.getName());
+                    
+                    if (data != null && data.isEnabled() && !data.getPolicy().isExempt() && !player.isDead()) {
+                        enterWorld(player.getName(), player, data);
+                    }
+                }
+            } else if (partition.getDuration() != duration) {
+                for (String playerName: partition.getPlayerNames()) {
+                    if (timers.isScheduled(playerName)) {
+                        PlayerData data = playerData.get(playerName);
+                        
+                        data.update(now);
+                        dirty.add(playerName);
+                        scheduleNext(playerName, data);
+                    }
+                }
+            }
+        }
+        
+        for (Player player: getServer().getOnlinePlayers()) {
+            refreshPolicy(player);
+        }
+    }
+    
+    /**
+     * Record a protection decision in the audit log, if it is on
+     *
+     * @param type What was decided
+     * @param playerName Player it was about, the attacker for hits
+     * @param other Other player involved, or null
+     * @param value Time elapsed for the events that end or reset protection, material id for items and blocks
+     */
+    private void recordAudit(AuditLog.Type type, String playerName, String other, int value) {
+        if (audit != null) {
+            audit.record(type, clock.currentTimeMillis(), playerName, other, value);
+        }
+    }
+    
+    /**
+     * Search the audit log off the server thread and send what was found
+     *
+     * @param sender Who asked
+     * @param playerName Player to look for
+     * @param from Start of the range, in milliseconds since the epoch
+     * @param to End of the range, in milliseconds since the epoch
+     */
+    private void queryAudit(final CommandSender sender, final String playerName, long from, long to) {
+        final Campfire plugin = this;
+        
+        audit.query(playerName, from, to, 10, new AuditLog.Results() {
+            public void found(final List<AuditLog.Event> events, final int found) {
+                // Messages are only sent from the server thread
+                getServer().getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+                    public void run() {
+                        if (found == 0) {
+                            messages.send(sender, Messages.Key.AUDIT_NONE, playerName);
+                            
+                            return;
+                        }
+                        
+                        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                        
+                        messages.send(sender, Messages.Key.AUDIT_HEADER, found, playerName, events.size());
+                        
+                        for (AuditLog.Event event: events) {
+                            messages.send(sender, event.getType().getMessage(), format.format(new Date(event.getTime())),
+                                    event.getPlayer(), event.getOther(), event.getValue());
+                        }
+                    }
+                });
+            }
+        });
+    }
+    
+    /**
+     * Send the server-wide counts of a stat and its top players
+     * Without a stat the counts of every stat are sent
+     *
+     * @param sender Who asked
+     * @param stat Stat, or null
+     */
+    private void showTop(CommandSender sender, ProtectionStats.Stat stat) {
+        long now = clock.currentTimeMillis();
+        
+        for (ProtectionStats.Stat shown: stat == null ? ProtectionStats.Stat.values() : new ProtectionStats.Stat[] { stat }) {
+            messages.send(sender, Messages.Key.STATS_TOP_TOTAL, shown.getLabel(), stats.getLastMinutes(shown, now, 60),
+                    stats.getLastHours(shown, now, 24), stats.getTotal(shown));
+        }
+        
+        if (stat == null) {
+            StringBuilder labels = new StringBuilder();
+            
+            for (ProtectionStats.Stat each: ProtectionStats.Stat.values()) {
+                labels.append(labels.length() > 0 ? ", " : "").append(each.getLabel());
+            }
+            
+            messages.send(sender, Messages.Key.STATS_TOP_USAGE, labels);
+            
+            return;
+        }
+        
+        Map<String, Long> top = stats.getTop(stat);
+        int rank = 0;
+        
+        if (top.isEmpty()) {
+            messages.send(sender, Messages.Key.STATS_TOP_NONE, stat.getLabel());
+        }
+        
+        for (Map.Entry<String, Long> entry: top.entrySet()) {
+            messages.send(sender, Messages.Key.STATS_TOP_ENTRY, ++rank, entry.getKey(), entry.getValue());
+        }
+    }
+    
+    /**
+     * Parse how long ago something was, e.g. 30m, 12h or 7d
+     * A number alone is minutes
+     *
+     * @param text Text to parse
+     * @return Milliseconds, or -1 if it can't be parsed
+     */
+    private static long parseAgo(String text) {
+        long unit = 60 * 1000L;
+        String number = text;
+        char suffix = Character.toLowerCase(text.charAt(text.length() - 1));
+        
+        if (!Character.isDigit(suffix)) {
+            number = text.substring(0, text.length() - 1);
+            
+            if (suffix == 's') {
+                unit = 1000L;
+            } else if (suffix == 'm') {
+                unit = 60 * 1000L;
+            } else if (suffix == 'h') {
+                unit = 60 * 60 * 1000L;
+            } else if (suffix == 'd') {
+                unit = 24 * 60 * 60 * 1000L;
+            } else {
+                return -1;
+            }
+        }
+        
+        try {
+            long value = Long.parseLong(number);
+            
+            return value < 0 ? -1 : value * unit;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Replace the clock protection time is counted in
+     * Only for simulations, call before the plugin is enabled
+     *
+     * @param clock Clock
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Get a copy of an online player's data
+     * Safe to call from any thread
+     *
+     * @param playerName Player name
+     * @return Copy of their data, or null if they are not online
+     */
+    public PlayerData getPlayerData(String playerName) {
+        PlayerData data = playerData.get(playerName);
+
+        return data == null ? null : data.copy();
+    }
+
+    /**
+     * Get the hot path timings and counters
+     *
+     * @return Metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the service other plugins ask who is protected
+     *
+     * @return Protection service
+     */
+    public ProtectionService getProtectionService() {
+        return protections;
+    }
+
+    /**
+     * Publish a new snapshot of the protected players
+     */
+    private void publishProtections() {
+        long start = System.nanoTime();
+        HashMap<String, ProtectionService.Protection> snapshot = new HashMap<String, ProtectionService.Protection>(protectedPlayers.size() * 2);
+        
+        for (WorldPartition partition: partitions.values()) {
+            for (Map.Entry<String, Player> entry: partition.entries()) {
+                String playerName = entry.getKey();
+                PlayerData data = playerData.get(playerName);
+                
+                snapshot.put(playerName, new ProtectionService.Protection(playerName, data.getPolicy().getDuration(partition.getDuration()),
+                        data, timers.isScheduled(playerName), clock));
+            }
+        }
+        
+        protectionsChanged = false;
+        protections.publish(snapshot);
+        
+        metrics.time(Metrics.Timer.PUBLISH_PROTECTIONS, start);
+    }
+
+    /**
+     * Hand changed player data to the background writer
+     * Only copies the entries that changed, the disk work happens off the server thread
      */
     public void saveData() {
-        // Save player data
+        if (dirty.isEmpty()) {
+            return;
+        }
+        
+        long start = System.nanoTime();
+        HashMap<String, PlayerData> batch = new HashMap<String, PlayerData>();
+        
+        for (String playerName: dirty) {
+            PlayerData data = playerData.get(playerName);
+            
+            if (data != null) {
+                batch.put(playerName, data.copy());
+            }
+        }
+        
+        dirty.clear();
+        writer.submit(batch);
+        
+        metrics.time(Metrics.Timer.SAVE_DATA, start);
+    }
+
+    /**
+     * Open the player storage chosen in the config
+     * The file storage imports the old players.dat the first time
+     *
+     * @return False if there is nowhere to keep player data
+     */
+    public boolean loadData() {
         try {
-            ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(getDataFolder() + "/players.dat"));
-            oos.writeObject(playerData);
-            oos.flush();
-            oos.close();
+            if (getConfig().getString("Storage", "file").equalsIgnoreCase("jdbc")) {
+                storage = JdbcStorage.open(getConfig().getString("StorageDriver", ""),
+                        getConfig().getString("StorageUrl", ""), getConfig().getString("StorageUser", ""),
+                        getConfig().getString("StoragePassword", ""), 1000L * getConfig().getInt("StorageCacheTTL", 60),
+                        getConfig().getString("StorageServer", getServer().getServerId()), clock);
+            } else {
+                storage = FileStorage.open(getDataFolder());
+            }
+            
+            return true;
         } catch (Exception e) {
-            log.log(Level.SEVERE, "Exception while saving data", e);
+            log.log(Level.SEVERE, "Exception while loading data, disabling Campfire", e);
+            
+            return false;
+        }
+    }
+    
+    /**
+     * Get an online player's data
+     * Usually read while they logged in or kept since they quit, storage is
+     * only read here if that did not happen
+     *
+     * @param playerName Player to look up
+     * @return Their data, or null if they have never been protected
+     */
+    private PlayerData loadPlayer(String playerName) {
+        PlayerData data = playerData.get(playerName);
+        
+        if (data != null) {
+            return data;
+        }
+        
+        PlayerCache.Entry cached = playerCache.take(playerName);
+        
+        if (cached != null) {
+            data = cached.getData();
+            metrics.count(Metrics.Counter.JOINS_CACHED);
+        } else {
+            metrics.count(Metrics.Counter.JOINS_LOADED);
+            
+            try {
+                data = writer.load(playerName);
+            } catch (Exception e) {
+                // Treat them as expired rather than giving them protection they may have used up
+                log.log(Level.SEVERE, "Exception while loading data of " + playerName, e);
+                
+                data = new PlayerData();
+                data.setEnabled(false);
+            }
+        }
+        
+        if (data != null) {
+            playerData.put(playerName, data);
+        }
+        
+        return data;
+    }
+
+    /**
+     * Start tracking an online player
+     * Every online player gets data, created if they are new, and their timer
+     * is started if they are protected
+     *
+     * @param player Player that joined
+     */
+    private void joinPlayer(Player player) {
+        String playerName = player.getName();
+        PlayerData data = loadPlayer(playerName);
+        PlayerPolicy policy = resolvePolicy(player);
+        
+        stats.join(playerName);
+        
+        // Add them to the list if they are not on it
+        if (data == null) {
+            data = new PlayerData();
+            playerData.put(playerName, data);
+            
+            // Exempt players are not protected, they are told if they stop being exempt
+            if (!policy.isExempt()) {
+                messages.send(player, Messages.Key.STARTING);
+                recordAudit(AuditLog.Type.STARTED, playerName, null, 0);
+            }
+        }
+        
+        data.setPolicy(policy);
+        
+        // Ignore exempt players
+        if (policy.isExempt() || !data.isEnabled()) {
+            return;
+        }
+        
+        enterWorld(playerName, player, data);
+    }
+    
+    /**
+     * Resolve an online player's policy again and apply what changed
+     * Players who became exempt stop being protected, players who stopped
+     * being exempt start again and running timers pick up a new tier. Call
+     * on the server thread after changing a player's permissions.
+     *
+     * @param player Player
+     */
+    public void refreshPolicy(Player player) {
+        String playerName = player.getName();
+        PlayerData data = playerData.get(playerName);
+        
+        // Not joined yet, the join resolves it
+        if (data == null) {
+            return;
+        }
+        
+        PlayerPolicy previous = data.getPolicy();
+        PlayerPolicy policy = resolvePolicy(player);
+        
+        data.setPolicy(policy);
+        
+        if (policy.isExempt()) {
+            if (protectedPlayers.containsKey(playerName)) {
+                leaveWorld(playerName, data);
+            }
+            
+            return;
+        }
+        
+        if (!protectedPlayers.containsKey(playerName)) {
+            if (!data.isEnabled() || player.isDead()) {
+                return; // Dead guys are picked up by a later refresh
+            }
+            
+            // Created while they were exempt and never started
+            if (previous.isExempt() && data.getLastUpdated() == 0) {
+                messages.send(player, Messages.Key.STARTING);
+                recordAudit(AuditLog.Type.STARTED, playerName, null, 0);
+            }
+            
+            enterWorld(playerName, player, data);
+            
+            return;
+        }
+        
+        if (policy.changesDuration(previous)) {
+            protectionsChanged = true;
+            
+            if (timers.isScheduled(playerName)) {
+                data.update(clock.currentTimeSeconds());
+                dirty.add(playerName);
+                scheduleNext(playerName, data);
+            }
+        }
+    }
+    
+    /**
+     * Ask the permission plugin what protection means for a player
+     *
+     * @param player Player
+     * @return Policy
+     */
+    private PlayerPolicy resolvePolicy(Player player) {
+        metrics.count(Metrics.Counter.POLICIES_RESOLVED);
+        
+        return PlayerPolicy.resolve(player, rules);
+    }
+    
+    /**
+     * Get the policy of an online player
+     *
+     * @param player Player
+     * @return Their policy, the default if they have no data
+     */
+    private PlayerPolicy policy(Player player) {
+        PlayerData data = playerData.get(player.getName());
+        
+        return data == null ? PlayerPolicy.DEFAULT : data.getPolicy();
+    }
+    
+    /**
+     * Get the time a protected player is protected for
+     *
+     * @param playerName Player name
+     * @param data Their data
+     * @return Seconds, from their tier or the world they are in
+     */
+    private int duration(String playerName, PlayerData data) {
+        return data.getPolicy().getDuration(protectedPlayers.get(playerName).getDuration());
+    }
+    
+    /**
+     * Start protecting a player in the world they are in
+     * Nothing happens in a world where protection is disabled, their timer
+     * stays paused until they go somewhere it is enabled
+     *
+     * @param playerName Player name
+     * @param player Player
+     * @param data Their data, enabled
+     */
+    private void enterWorld(String playerName, Player player, PlayerData data) {
+        WorldPartition partition = partition(player.getWorld());
+        
+        if (!partition.isEnabled()) {
+            return;
+        }
+        
+        protect(playerName, player, partition);
+        
+        // Without WorldGuard there are no zones to stay paused in
+        if (wg == null) {
+            data.setProtectedZone(false);
+        }
+        
+        if (data.inProtectedZone()) {
+            data.setUpdateTime(clock.currentTimeSeconds());
+            dirty.add(playerName);
+        } else {
+            startTimer(playerName, data);
+        }
+    }
+    
+    /**
+     * Stop protecting a player in the world they are leaving, keeping the
+     * time used so far
+     *
+     * @param playerName Player name
+     * @param data Their data
+     */
+    private void leaveWorld(String playerName, PlayerData data) {
+        countZoneTime(playerName, data);
+        stopTimer(playerName, data);
+        unprotect(playerName);
+    }
+    
+    /**
+     * Count the time a protected player has been paused in a zone until now
+     * Their last updated time is when the pause started
+     *
+     * @param playerName Player name
+     * @param data Their data
+     */
+    private void countZoneTime(String playerName, PlayerData data) {
+        if (data.inProtectedZone() && !timers.isScheduled(playerName)) {
+            stats.add(ProtectionStats.Stat.ZONE_SECONDS, playerName, Math.max(0, clock.currentTimeSeconds() - data.getLastUpdated()));
+        }
+    }
+    
+    /**
+     * Get the partition of a world
+     *
+     * @param world World
+     * @return Partition, created if the world was never looked up
+     */
+    private WorldPartition partition(World world) {
+        WorldPartition partition = partitions.get(world.getName());
+        
+        if (partition == null) {
+            partition = new WorldPartition(world.getName(), rules.getWorld(world.getName()));
+            partitions.put(world.getName(), partition);
+        }
+        
+        return partition;
+    }
+    
+    /**
+     * Get an online player whose protection is active
+     *
+     * @param playerName Player name
+     * @return Player, or null if they are not protected where they are
+     */
+    private Player protectedPlayer(String playerName) {
+        WorldPartition partition = protectedPlayers.get(playerName);
+        
+        return partition == null ? null : partition.get(playerName);
+    }
+    
+    /**
+     * Track an online player as protected
+     *
+     * @param playerName Player name
+     * @param player Player
+     * @param partition Partition of the world they are in
+     */
+    private void protect(String playerName, Player player, WorldPartition partition) {
+        WorldPartition previous = protectedPlayers.put(playerName, partition);
+        
+        if (previous != null && previous != partition) {
+            previous.remove(playerName);
+        }
+        
+        partition.put(playerName, player);
+        
+        Integer old = entityIds.put(playerName, player.getEntityId());
+        
+        if (old != null) {
+            protectedIds.remove(old);
+        }
+        
+        protectedIds.add(player.getEntityId());
+        protectionsChanged = true;
+    }
+    
+    /**
+     * Stop tracking a player as protected
+     *
+     * @param playerName Player name
+     */
+    private void unprotect(String playerName) {
+        WorldPartition partition = protectedPlayers.remove(playerName);
+        
+        if (partition != null) {
+            partition.remove(playerName);
+        }
+        
+        zoneVersions.remove(playerName);
+        
+        Integer id = entityIds.remove(playerName);
+        
+        if (id != null) {
+            protectedIds.remove(id);
+        }
+        
+        protectionsChanged = true;
+    }
+    
+    /**
+     * Pick up a protected player's new entity id after the next tick
+     *
+     * @param player Player that respawned or changed world
+     */
+    private void refreshEntityId(final Player player) {
+        if (!protectedPlayers.containsKey(player.getName())) {
+            return;
+        }
+        
+        // The new entity is only in place once the event is over
+        getServer().getScheduler().scheduleSyncDelayedTask(this, new Runnable() {
+            public void run() {
+                String playerName = player.getName();
+                Integer id = entityIds.get(playerName);
+                
+                if (id != null && id.intValue() != player.getEntityId()) {
+                    protect(playerName, player, protectedPlayers.get(playerName));
+                }
+            }
+        });
+    }
+    
+    /**
+     * Start counting down a protected player's time
+     *
+     * @param playerName Player
+     * @param data Their data
+     */
+    private void startTimer(String playerName, PlayerData data) {
+        data.setUpdateTime(clock.currentTimeSeconds());
+        dirty.add(playerName);
+        protectionsChanged = true;
+        
+        scheduleNext(playerName, data);
+    }
+    
+    /**
+     * Stop counting down, keeping the time used so far
+     *
+     * @param playerName Player
+     * @param data Their data
+     */
+    private void stopTimer(String playerName, PlayerData data) {
+        if (timers.isScheduled(playerName)) {
+            data.update(clock.currentTimeSeconds());
+            dirty.add(playerName);
+            protectionsChanged = true;
+            
+            timers.cancel(playerName);
+        }
+    }
+    
+    /**
+     * Schedule the next minute warning or the expiry of a running timer
+     * The player's data must have just been updated
+     *
+     * @param playerName Player
+     * @param data Their data
+     */
+    private void scheduleNext(String playerName, PlayerData data) {
+        int timeLeft = duration(playerName, data) - data.getTimeElapsed();
+        
+        // Warn at every whole minute left, below what is left now
+        int target = timeLeft > 0 ? ((timeLeft - 1) / 60) * 60 : 0;
+        long due = (data.getLastUpdated() + Math.max(0, timeLeft - target)) * 1000L;
+        
+        timers.schedule(playerName, due, target);
+    }
+    
+    /**
+     * Send the warnings and expiries that are due
+     */
+    public void processTimers() {
+        long now = clock.currentTimeMillis();
+        ExpiryScheduler.Deadline deadline;
+        
+        while ((deadline = timers.poll(now)) != null) {
+            String playerName = deadline.getPlayerName();
+            Player player = protectedPlayer(playerName);
+            PlayerData data = playerData.get(playerName);
+            
+            if (player == null || data == null || !data.isEnabled()) {
+                continue;
+            }
+            
+            // Dead guys are not updated, try again shortly
+            if (player.isDead()) {
+                timers.schedule(playerName, now + 1000L, deadline.getTarget());
+                
+                continue;
+            }
+            
+            // Increment their time and update their last updated time
+            data.update(clock.currentTimeSeconds());
+            dirty.add(playerName);
+            
+            // Check for expiration
+            int timeLeft = duration(playerName, data) - data.getTimeElapsed();
+            
+            if (timeLeft <= 0) {
+                recordAudit(AuditLog.Type.EXPIRED, playerName, null, data.getTimeElapsed());
+                stats.add(ProtectionStats.Stat.EXPIRIES, playerName, 1);
+                messages.broadcast(getServer(), Messages.Key.EXPIRED, playerName);
+                messages.send(player, Messages.Key.VULNERABLE);
+                
+                data.setEnabled(false);
+                unprotect(playerName);
+                
+                continue;
+            }
+            
+            if (deadline.getTarget() > 0 && timeLeft <= deadline.getTarget()) {
+                int min = deadline.getTarget() / 60;
+                messages.send(player, min != 1 ? Messages.Key.EXPIRES_MINUTES : Messages.Key.EXPIRES_MINUTE, min);
+            }
+            
+            scheduleNext(playerName, data);
+        }
+    }
+
+    /**
+     * Update the next slice of protected players
+     * Every player is visited about once a second, spread over the ticks so no
+     * single tick pays for everyone. Each world's players are shared out over
+     * the ticks on their own. A tick stops once it has used up
+     * updateTickBudget and leaves the rest of its slices to the next one.
+     */
+    public void updateTick() {
+        long start = System.nanoTime();
+        
+        if (zoneWorker != null) {
+            applyZones();
+        }
+        
+        // Changes made since the last tick
+        if (protectionsChanged) {
+            publishProtections();
+        }
+        
+        // Start the next pass once the last one is done and its second is up
+        if (passTick >= TICKS_PER_PASS && passDone()) {
+            if (passNanos > 0) {
+                metrics.record(Metrics.Timer.UPDATE_PLAYER_DATA, passNanos);
+            }
+            
+            beginPass();
+        }
+        
+        passTick++;
+        
+        // Share what is left of each world's pass between the ticks left in its second
+        int ticksLeft = Math.max(1, TICKS_PER_PASS - passTick + 1);
+        int carried = 0;
+        boolean overBudget = false;
+        
+        for (WorldPartition partition: partitions.values()) {
+            int quota = (partition.remaining() + ticksLeft - 1) / ticksLeft;
+            int done = 0;
+            
+            while (!overBudget && done < quota) {
+                updatePlayer(partition.next());
+                done++;
+                
+                overBudget = updateTickBudget > 0 && System.nanoTime() - start >= updateTickBudget;
+            }
+            
+            carried += quota - done;
+        }
+        
+        // Unprotected players are shared out over the ticks left until the next check
+        int reconcileTicks = Math.max(1, (reconcileCountdown - 1) * TICKS_PER_PASS + ticksLeft);
+        int reconcileQuota = (reconcilePlayers.length - reconcileCursor + reconcileTicks - 1) / reconcileTicks;
+        
+        for (int done = 0; !overBudget && done < reconcileQuota; done++) {
+            reconcile(reconcilePlayers[reconcileCursor++]);
+            
+            overBudget = updateTickBudget > 0 && System.nanoTime() - start >= updateTickBudget;
+        }
+        
+        if (reconcileCursor >= reconcilePlayers.length) {
+            reconcilePlayers = NO_PLAYERS;
+            reconcileCursor = 0;
+        }
+        
+        if (carried > 0) {
+            metrics.count(Metrics.Counter.UPDATES_CARRIED, carried);
+        }
+        
+        long elapsed = System.nanoTime() - start;
+        
+        passNanos += elapsed;
+        metrics.record(Metrics.Timer.UPDATE_TICK, elapsed);
+    }
+    
+    /**
+     * Update every protected player at once
+     * This is what each second used to cost in a single tick
+     */
+    public void updatePlayerData() {
+        long start = System.nanoTime();
+        
+        beginPass();
+        
+        for (WorldPartition partition: partitions.values()) {
+            while (partition.remaining() > 0) {
+                updatePlayer(partition.next());
+            }
+        }
+        
+        while (reconcileCursor < reconcilePlayers.length) {
+            reconcile(reconcilePlayers[reconcileCursor++]);
+        }
+        
+        reconcilePlayers = NO_PLAYERS;
+        reconcileCursor = 0;
+        
+        if (zoneWorker != null) {
+            submitZones();
+        }
+        
+        passTick = TICKS_PER_PASS;
+        passNanos = 0;
+        
+        metrics.time(Metrics.Timer.UPDATE_PLAYER_DATA, start);
+    }
+    
+    /**
+     * Has every world's pass been done?
+     *
+     * @return True if no player is left to visit
+     */
+    private boolean passDone() {
+        for (WorldPartition partition: partitions.values()) {
+            if (partition.remaining() > 0) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Do the once a second work and list the players to visit
+     */
+    private void beginPass() {
+        // Positions from the pass that just ended
+        if (zoneWorker != null) {
+            submitZones();
+        }
+        
+        // Pick up op and permission changes nobody told us about, this only needs to happen now and then
+        // The players are checked a few at a time over the passes until the next round
+        if (--reconcileCountdown <= 0) {
+            reconcileCountdown = RECONCILE_PASSES;
+            reconcilePlayers = getServer().getOnlinePlayers();
+            reconcileCursor = 0;
+        }
+        
+        playerCache.expire();
+        
+        // Once a minute the stats are saved with the player data
+        if (stats.roll(clock.currentTimeMillis())) {
+            writer.submitStats(stats.write(clock.currentTimeMillis()));
+        }
+        
+        // Regions can also change without a command we see, e.g. from other plugins
+        if (regionCache != null && regionCacheRefresh > 0 && --regionCacheCountdown <= 0) {
+            regionCacheCountdown = regionCacheRefresh;
+            regionCache.invalidate();
+        }
+        
+        for (WorldPartition partition: partitions.values()) {
+            partition.beginPass();
+        }
+        
+        passTick = 0;
+        passNanos = 0;
+    }
+    
+    /**
+     * Check an online player who is not protected for op and permission changes
+     * Protected players are checked by updatePlayer()
+     *
+     * @param player Player
+     */
+    private void reconcile(Player player) {
+        if (player.isOnline() && !protectedPlayers.containsKey(player.getName())) {
+            refreshPolicy(player);
+        }
+    }
+    
+    /**
+     * Hand the positions captured this pass to the zone worker
+     * Players whose positions were dropped because it was busy are checked again next pass
+     */
+    private void submitZones() {
+        for (String playerName: zoneWorker.submit()) {
+            zoneVersions.remove(playerName);
+        }
+    }
+    
+    /**
+     * Check a protected player's entity id and zone
+     * Expiry and warnings are handled by processTimers()
+     *
+     * @param player Player
+     */
+    private void updatePlayer(Player player) {
+        String playerName = player.getName();
+        
+        // They may have quit, expired or changed world since the pass started
+        if (protectedPlayer(playerName) != player) {
+            return;
+        }
+        
+        // Once in RECONCILE_PASSES, in the pass their name falls on
+        if ((playerName.hashCode() & Integer.MAX_VALUE) % RECONCILE_PASSES == reconcileCountdown - 1) {
+            refreshPolicy(player);
+            
+            if (protectedPlayer(playerName) != player) {
+                return; // Exempt now
+            }
+        }
+        
+        // Catch entity id changes the respawn and world change events missed
+        if (entityIds.get(playerName).intValue() != player.getEntityId()) {
+            protectedIds.remove(entityIds.put(playerName, player.getEntityId()));
+            protectedIds.add(player.getEntityId());
+        }
+        
+        // Moves are checked as they happen, only look again when regions changed since
+        if (regionCache == null || player.isDead()) {
+            return;
+        }
+        
+        int version = regionCache.getVersion();
+        Integer checked = zoneVersions.get(playerName);
+        
+        if (checked != null && checked.intValue() == version) {
+            return;
+        }
+        
+        zoneVersions.put(playerName, version);
+        
+        if (zoneWorker != null) {
+            zoneWorker.capture(playerName, player, playerData.get(playerName).inProtectedZone());
+        } else {
+            updateZone(playerName, player, player.getLocation());
         }
     }
-
+    
     /**
-     * Load data from disk
+     * Check the zone of a protected player who moved to another block
+     * With the zone worker the check waits for the next pass instead
+     *
+     * @param player Player
+     * @param to Where they are going
      */
-    @SuppressWarnings("unchecked")
-    public void loadData() {
-        try {
-            ObjectInputStream ois = new ObjectInputStream(new FileInputStream(getDataFolder() + "/players.dat"));
-            playerData = (HashMap<String, PlayerData>) ois.readObject();
-            ois.close();
-        } catch (FileNotFoundException e) { // Ignore it
-        } catch (Exception e) {
-            log.log(Level.SEVERE, "Exception while loading data", e);
+    private void playerMoved(Player player, Location to) {
+        String playerName = player.getName();
+        
+        if (regionCache == null || !protectedPlayers.containsKey(playerName)) {
+            return;
         }
+        
+        if (zoneWorker != null) {
+            zoneVersions.remove(playerName);
+            
+            return;
+        }
+        
+        zoneVersions.put(playerName, regionCache.getVersion());
+        updateZone(playerName, player, to);
     }
-
+    
     /**
-     * Update players' elapsed time
+     * Pause and resume the timer of a protected player entering or leaving a zone
+     *
+     * @param playerName Player's name
+     * @param player Player
+     * @param location Where they are
      */
-    public void updatePlayerData() {
-        // Loop through online players
-        Player[] players = getServer().getOnlinePlayers();
+    private void updateZone(String playerName, Player player, Location location) {
+        // Ignore dead guys, exempt players are never protected
+        if (player.isDead()) {
+            return;
+        }
+        
+        metrics.count(Metrics.Counter.ZONE_CHECKS);
+        setZone(playerName, player, playerData.get(playerName), regionCache.isTimerPaused(location));
+    }
+    
+    /**
+     * Apply the zone changes the zone worker found
+     * The players are checked again, they may have changed since they were captured
+     */
+    private void applyZones() {
+        ZoneWorker.Positions batch = zoneWorker.poll();
+        
+        if (batch == null) {
+            return;
+        }
         
-        for (Player player: players) {
-            // Ignore ops and dead guys
-            if (player.isOp() || player.isDead()) {
+        for (int change = 0; change < batch.getChangeCount(); change++) {
+            int i = batch.getChange(change);
+            String playerName = batch.getName(i);
+            Player player = batch.getPlayer(i);
+            
+            if (protectedPlayer(playerName) != player || player.isDead()) {
                 continue;
             }
-
-            // Check if the player is already on the list
-            String playerName = player.getName();
             
-            if (!playerData.containsKey(playerName)) {
-                // Add them to the list
-                PlayerData data = new PlayerData();
-                
-                playerData.put(playerName, data);
-                playerData.get(playerName).setUpdateTime();
+            PlayerData data = playerData.get(playerName);
+            
+            // Already applied by an earlier batch
+            if (data.inProtectedZone() != batch.wasInZone(i)) {
+                continue;
+            }
+            
+            setZone(playerName, player, data, !batch.wasInZone(i));
+        }
+        
+        zoneWorker.release(batch);
+    }
+    
+    /**
+     * Send messages on state change and pause the timer while in a protected zone
+     *
+     * @param playerName Player's name
+     * @param player Player
+     * @param data Their data
+     * @param paused Are they in a zone that pauses timers?
+     */
+    private void setZone(String playerName, Player player, PlayerData data, boolean paused) {
+        if (paused) {
+            if (!data.inProtectedZone()) {
+                messages.send(player, Messages.Key.ZONE_ENTER);
                 
-                player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Starting protection!");
-                player.sendMessage("Type '/campfire' for info on PvP Protection");
-            } else if (playerData.get(playerName).isEnabled()) {
-                // Alias
-                PlayerData data = playerData.get(playerName);
-
-                // Check to see if they are in a WorldGuard region if the config says to
-                if (wg != null) {
-                    ApplicableRegionSet regions = wg.getRegionManager(player.getWorld()).getApplicableRegions(player.getLocation());
-                    
-                    boolean inNoPvP = !regions.allows(DefaultFlag.PVP);
-                    boolean inInvincible = regions.allows(DefaultFlag.INVINCIBILITY);
-
-                    // Send messages on state change and don't update if in a protected zone
-                    if (inNoPvP || inInvincible) {
-                        data.setUpdateTime();
-                        
-                        if (!data.inProtectedZone()) {
-                            player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Entering protected zone.");
-                            player.sendMessage("Protection timer paused!");
-                            
-                            data.setProtectedZone(true);
-                        }
-                        
-                        continue;
-                    } else if (data.inProtectedZone()) {
-                        player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Leaving protected zone.");
-                        player.sendMessage("Protection timer resumed!");
-                        
-                        data.setProtectedZone(false);
-                    }
-                }
+                data.setProtectedZone(true);
+                protectionsChanged = true;
+                stopTimer(playerName, data);
+            }
+        } else if (data.inProtectedZone()) {
+            messages.send(player, Messages.Key.ZONE_LEAVE);
+            
+            countZoneTime(playerName, data);
+            data.setProtectedZone(false);
+            protectionsChanged = true;
+            startTimer(playerName, data);
+        }
+    }
 
-                // Increment their time and update their last updated time
-                data.update();
+    /**
+     * Refresh the region cache after a player edits or reloads regions, and
+     * the policy of a player they op or deop
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerCommandPreprocess(PlayerCommandPreprocessEvent e) {
+        checkRegionCommand(e.getMessage());
+        checkOpCommand(e.getMessage());
+    }
 
-                // Check for expiration
-                int timeLeft = duration - data.getTimeElapsed();
+    /**
+     * Refresh the region cache after the console edits or reloads regions, and
+     * the policy of a player it ops or deops
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onServerCommand(ServerCommandEvent e) {
+        checkRegionCommand("/" + e.getCommand());
+        checkOpCommand("/" + e.getCommand());
+    }
+    
+    /**
+     * Resolve the policy of a player again once they have been opped or deopped
+     *
+     * @param message Command line, starting with a slash
+     */
+    private void checkOpCommand(String message) {
+        String[] args = message.trim().split(" +");
+        
+        if (args.length < 2 || !(args[0].equalsIgnoreCase("/op") || args[0].equalsIgnoreCase("/deop"))) {
+            return;
+        }
+        
+        final String playerName = args[1];
+        
+        // The command runs after this event, so wait a tick
+        getServer().getScheduler().scheduleSyncDelayedTask(this, new Runnable() {
+            public void run() {
+                Player player = getServer().getPlayerExact(playerName);
                 
-                if (timeLeft <= 0) {
-                    getServer().broadcastMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Protection for " + playerName + " Expired!");
-                    player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] You are vulnerable!");
-                    
-                    data.setEnabled(false);
-                } else if (timeLeft % 60 == 0) {
-                    int min = timeLeft / 60;
-                    player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Expires in " + min + " minute" + (min != 1 ? "s" : "") + "!");
+                if (player != null) {
+                    refreshPolicy(player);
                 }
             }
-        }
+        });
+    }
 
-        // Save
-        saveData();
+    /**
+     * Invalidate the region cache once a WorldGuard command has run
+     *
+     * @param message Command line, starting with a slash
+     */
+    private void checkRegionCommand(String message) {
+        if (regionCache == null) {
+            return;
+        }
+        
+        int end = message.indexOf(' ');
+        String name = (end == -1 ? message : message.substring(0, end)).toLowerCase();
+        
+        if (name.equals("/region") || name.equals("/regions") || name.equals("/rg")
+                || name.equals("/wg") || name.equals("/worldguard")) {
+            // The command runs after this event, so wait a tick
+            getServer().getScheduler().scheduleSyncDelayedTask(this, new Runnable() {
+                public void run() {
+                    regionCache.invalidate();
+                }
+            });
+        }
     }
 
     /**
      * Prevent PvP damage for protected players
+     * Most damage is ruled out by the protected entity ids before anything else
      *
      * @param e
      */
     @EventHandler(priority = EventPriority.HIGH)
     public void onEntityDamage(EntityDamageEvent e) {
-        // Make sure the entity is a player
-        Player target;
+        long start = System.nanoTime();
+        boolean wasCancelled = e.isCancelled();
         
-        if (e.getEntity() instanceof Player) {
-            target = (Player) e.getEntity();
-        } else {
-            return;
+        checkDamage(e);
+        
+        if (!wasCancelled && e.isCancelled()) {
+            metrics.count(Metrics.Counter.HITS_CANCELLED);
         }
-
-        // Ignore ops
-        if (target.isOp()) {
+        
+        metrics.time(Metrics.Timer.ENTITY_DAMAGE, start);
+    }
+    
+    /**
+     * Cancel a hit if the attacker or the victim is protected
+     *
+     * @param e
+     */
+    private void checkDamage(EntityDamageEvent e) {
+        // Nobody online can be protected
+        if (protectedIds.isEmpty()) {
             return;
         }
-
+        
         // Ensure player was damaged by an entity
-        EntityDamageByEntityEvent e2;
+        if (!(e instanceof EntityDamageByEntityEvent)) {
+            return;
+        }
         
-        if (e instanceof EntityDamageByEntityEvent) {
-            e2 = (EntityDamageByEntityEvent) e;
-        } else {
+        // Only the damage sources that count as PvP
+        if (!rules.isDamageSource(e.getCause())) {
             return;
         }
-
-        // Finally, make sure it was another player or an arrow from a player
-        Player attacker;
         
-        if (e2.getDamager() instanceof Arrow) {
-            // Get the arrow's owner
-            Arrow arrow = (Arrow) e2.getDamager();
-            
-            if (!(arrow.getShooter() instanceof Player)) {
-                return;
-            }
-            
-            attacker = (Player) arrow.getShooter();
-        } else if (!(e2.getDamager() instanceof Player)) {
+        // Make sure the entity is a player
+        Entity victim = e.getEntity();
+        
+        if (!(victim instanceof Player)) {
             return;
-        } else {
-            attacker = (Player) e2.getDamager();
         }
-
-        // Ignore ops
-        if (attacker.isOp()) {
+        
+        // Nothing to do where protection is disabled
+        if (!partition(victim.getWorld()).isEnabled()) {
             return;
         }
-
-        // If the attacker or the victim are under protection, cancel the event
-        boolean attackerEnabled = false;
-        PlayerData attackerData = playerData.get(attacker.getName());
         
-        if (attackerData != null && attackerData.isEnabled()) {
-            attackerEnabled = true;
+        // Finally, make sure another player is behind it, e.g. shot the arrow or owns the wolf
+        Player attacker = attribution.attribute(((EntityDamageByEntityEvent) e).getDamager());
+        
+        if (attacker == null || attacker == victim) {
+            return;
         }
         
-        boolean targetEnabled = false;
-        PlayerData targetData = playerData.get(target.getName());
+        // If the attacker or the victim are under protection, cancel the event
+        boolean attackerEnabled = protectedIds.contains(attacker.getEntityId());
         
-        if (targetData != null && targetData.isEnabled()) {
-            targetEnabled = true;
+        if (!attackerEnabled && !protectedIds.contains(victim.getEntityId())) {
+            return;
         }
         
-        if (attackerEnabled || targetEnabled) {
-            String message;
-            
-            if (attackerEnabled) {
-                message = "You are under protection! No PvP!";
-            } else {
-                message = "This player is under protection! No PvP!";
-            }
-            
-            attacker.sendMessage(ChatColor.GRAY + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.GRAY + "] " + ChatColor.RED + message);
-            
-            e.setCancelled(true);
+        // Ignore exempt players
+        if (policy(attacker).isExempt() || policy((Player) victim).isExempt()) {
+            return;
         }
+        
+        messages.send(attacker, attackerEnabled ? Messages.Key.ATTACKER_PROTECTED : Messages.Key.TARGET_PROTECTED);
+        recordAudit(attackerEnabled ? AuditLog.Type.ATTACKER_PROTECTED : AuditLog.Type.TARGET_PROTECTED,
+                attacker.getName(), ((Player) victim).getName(), 0);
+        stats.add(ProtectionStats.Stat.HITS_BLOCKED, attacker.getName(), 1);
+        
+        e.setCancelled(true);
     }
 
     /**
@@ -477,28 +2015,86 @@ public class Campfire extends JavaPlugin implements Listener {
     @EventHandler(priority = EventPriority.NORMAL)
     public void onPlayerDeath(PlayerDeathEvent e) {
         // Only reset if config says to
-        if (!resetOnDeath) {
+        if (!rules.isResetOnDeath()) {
             return;
         }
         
         Player target = e.getEntity();
 
-        // Ignore ops
-        if (target.isOp()) {
+        // Ignore exempt players
+        if (policy(target).isExempt()) {
+            return;
+        }
+        
+        // Nothing to do where protection is disabled
+        WorldPartition partition = partition(target.getWorld());
+        
+        if (!partition.isEnabled()) {
             return;
         }
 
         // Reset them
-        PlayerData data = playerData.get(target.getName());
+        String playerName = target.getName();
+        PlayerData data = playerData.get(playerName);
         
         if (data != null) {
-            data.reset();
+            if (protectedPlayers.containsKey(playerName)) {
+                countZoneTime(playerName, data);
+            }
+            
+            recordAudit(AuditLog.Type.DEATH_RESET, playerName, null, data.getTimeElapsed());
+            stats.add(ProtectionStats.Stat.DEATH_RESETS, playerName, 1);
+            data.reset(clock.currentTimeSeconds());
+            dirty.add(playerName);
+            
+            protect(playerName, target, partition);
+            startTimer(playerName, data);
         }
-        
-        saveData();
 
         // Let them know they have been reset
-        target.sendMessage(ChatColor.GRAY + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.GRAY + "] " + "You have died! Resetting Protection!");
+        messages.send(target, Messages.Key.DEATH_RESET);
+    }
+
+    /**
+     * Forget the owner of a wolf that died
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityDeath(EntityDeathEvent e) {
+        attribution.forget(e.getEntity().getEntityId());
+    }
+
+    /**
+     * Forget who lit TNT once it has exploded
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityExplode(EntityExplodeEvent e) {
+        if (e.getEntity() != null) {
+            attribution.forget(e.getEntity().getEntityId());
+        }
+    }
+
+    /**
+     * Read a player's data while they log in, so the join does not wait for it
+     * Called off the server thread
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent e) {
+        if (e.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        
+        try {
+            writer.prefetch(e.getName());
+            playerCache.arrived(e.getName(), writer.load(e.getName()));
+        } catch (Exception ex) {
+            log.log(Level.WARNING, "Exception while prefetching data of " + e.getName(), ex);
+        }
     }
 
     /**
@@ -508,27 +2104,141 @@ public class Campfire extends JavaPlugin implements Listener {
      */
     @EventHandler(priority = EventPriority.HIGH)
     public void onPlayerJoin(PlayerJoinEvent e) {
-        // Get player object
-        Player player = e.getPlayer();
-        String playerName = player.getName();
+        joinPlayer(e.getPlayer());
+    }
 
-        // Ignore ops
-        if (player.isOp()) {
+    /**
+     * Write a leaving player's data and move it to the player cache
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent e) {
+        String playerName = e.getPlayer().getName();
+        PlayerData data = playerData.remove(playerName);
+        
+        messages.forget(playerName);
+        attribution.forget(e.getPlayer());
+        
+        if (data == null) {
             return;
         }
-
-        // Add them to the list if they are not on it
-        if (!playerData.containsKey(playerName)) {
-            // Add them to the list
-            PlayerData data = new PlayerData();
-            playerData.put(playerName, data);
+        
+        // The timer stops while they are offline
+        if (protectedPlayers.containsKey(playerName)) {
+            countZoneTime(playerName, data);
+        }
+        
+        unprotect(playerName);
+        stopTimer(playerName, data);
+        stats.quit(playerName);
+        
+        if (dirty.remove(playerName)) {
+            HashMap<String, PlayerData> batch = new HashMap<String, PlayerData>();
+            batch.put(playerName, data.copy());
             
-            player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Starting protection!");
-            player.sendMessage("Type '/campfire' for info on PvP Protection");
+            writer.submit(batch);
+        }
+        
+        // Keep it around in case they come straight back
+        playerCache.departed(playerName, data);
+    }
+
+    /**
+     * Keep protected players' positions in the grid up to date
+     * Zones are checked again when they cross into another block
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent e) {
+        WorldPartition partition = protectedPlayers.get(e.getPlayer().getName());
+        
+        // Only protected players are tracked
+        if (partition == null) {
+            return;
+        }
+        
+        Location from = e.getFrom();
+        Location to = e.getTo();
+        
+        partition.update(e.getPlayer().getName(), to);
+        
+        // Most moves are within a block, only turning or stepping around
+        if (from.getBlockX() != to.getBlockX() || from.getBlockY() != to.getBlockY()
+                || from.getBlockZ() != to.getBlockZ() || from.getWorld() != to.getWorld()) {
+            playerMoved(e.getPlayer(), to);
+        }
+    }
+
+    /**
+     * Keep protected players' positions in the grid and their zone up to date
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent e) {
+        WorldPartition partition = protectedPlayers.get(e.getPlayer().getName());
+        
+        // Only protected players are tracked, moves to another world are handled once they get there
+        if (partition == null || e.getTo().getWorld() != e.getFrom().getWorld()) {
+            return;
+        }
+        
+        partition.update(e.getPlayer().getName(), e.getTo());
+        playerMoved(e.getPlayer(), e.getTo());
+    }
+
+    /**
+     * Keep protected players' positions in the grid up to date
+     * They are still dead here, so their zone is checked by the next pass
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent e) {
+        WorldPartition partition = protectedPlayers.get(e.getPlayer().getName());
+        
+        // Respawning in another world is handled once they get there
+        if (partition == null || !e.getRespawnLocation().getWorld().getName().equals(partition.getWorldName())) {
+            return;
         }
+        
+        partition.update(e.getPlayer().getName(), e.getRespawnLocation());
+        zoneVersions.remove(e.getPlayer().getName());
+        refreshEntityId(e.getPlayer());
+    }
 
-        // Update the player
-        playerData.get(playerName).setUpdateTime();
+    /**
+     * Move a player to the partition of their new world
+     * Their timer is paused while they are in a world where protection is
+     * disabled and resumes when they come back
+     *
+     * @param e
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent e) {
+        Player player = e.getPlayer();
+        String playerName = player.getName();
+        PlayerData data = playerData.get(playerName);
+        
+        if (data == null) {
+            return;
+        }
+        
+        if (protectedPlayers.containsKey(playerName)) {
+            leaveWorld(playerName, data);
+        }
+        
+        // Permissions can be set for each world
+        data.setPolicy(resolvePolicy(player));
+        
+        if (data.isEnabled() && !data.getPolicy().isExempt()) {
+            enterWorld(playerName, player, data);
+        }
+        
+        playerMoved(player, player.getLocation());
+        refreshEntityId(player);
     }
 
     /**
@@ -539,41 +2249,88 @@ public class Campfire extends JavaPlugin implements Listener {
      */
     @EventHandler(priority = EventPriority.HIGH)
     public void onPlayerInteract(PlayerInteractEvent e) {
+        long start = System.nanoTime();
+        boolean wasCancelled = e.isCancelled();
+        
+        checkInteract(e);
+        
+        if (!wasCancelled && e.isCancelled()) {
+            metrics.count(Metrics.Counter.INTERACTS_CANCELLED);
+        }
+        
+        // Remember who lit TNT, its explosion is their damage
+        if (!e.isCancelled() && e.getAction() == Action.RIGHT_CLICK_BLOCK && e.getClickedBlock().getType() == Material.TNT
+                && e.getPlayer().getItemInHand().getType() == Material.FLINT_AND_STEEL) {
+            attribution.ignited(e.getPlayer(), e.getClickedBlock().getLocation());
+        }
+        
+        metrics.time(Metrics.Timer.PLAYER_INTERACT, start);
+    }
+    
+    /**
+     * Cancel the use of prohibited items by or around protected players
+     *
+     * @param e
+     */
+    private void checkInteract(PlayerInteractEvent e) {
         // Get player object
         Player player = e.getPlayer();
+        WorldPartition partition = partition(player.getWorld());
+        
+        // Nothing to do where protection is disabled
+        if (!partition.isEnabled()) {
+            return;
+        }
+        
         Material itemInHand = player.getItemInHand().getType();
+        Rules current = rules;
+        PlayerData data = playerData.get(player.getName());
+        PlayerPolicy policy = data.getPolicy();
 
-        // Ignore ops
-        if (player.isOp()) {
+        // Ignore exempt players
+        if (policy.isExempt()) {
             return;
         }
 
         // If they are under protection, check if they are trying to use a prohibited item
-        if (playerData.get(player.getName()).isEnabled()) {
-            // Check for flint and steel
-            if (itemInHand == Material.FLINT_AND_STEEL) {
-                player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "You cannot use flint and steel!");
-                player.sendMessage("Use '/campfire terminate' to end your protection early!");
-                
-                e.setCancelled(true);
-                
+        if (data.isEnabled()) {
+            // Allowed by a permission
+            if (policy.bypassesItems()) {
                 return;
             }
-
-            // Check for lava buckets
-            if (itemInHand == Material.LAVA_BUCKET) {
-                player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "You cannot use lava buckets!");
-                player.sendMessage("Use '/campfire terminate' to end your protection early!");
+            
+            // Check for prohibited items, e.g. flint and steel and lava buckets
+            if (current.isProhibitedItem(itemInHand)) {
+                if (itemInHand == Material.FLINT_AND_STEEL) {
+                    messages.send(player, Messages.Key.NO_FLINT);
+                    recordAudit(AuditLog.Type.FLINT_BLOCKED, player.getName(), null, 0);
+                    stats.add(ProtectionStats.Stat.FLINT_BLOCKED, player.getName(), 1);
+                } else if (itemInHand == Material.LAVA_BUCKET) {
+                    messages.send(player, Messages.Key.NO_LAVA);
+                    recordAudit(AuditLog.Type.LAVA_BLOCKED, player.getName(), null, 0);
+                    stats.add(ProtectionStats.Stat.LAVA_BLOCKED, player.getName(), 1);
+                } else {
+                    messages.send(player, Messages.Key.NO_ITEM);
+                    recordAudit(AuditLog.Type.ITEM_BLOCKED, player.getName(), null, itemInHand.getId());
+                }
                 
                 e.setCancelled(true);
                 
                 return;
             }
 
-            // Check for chests
-            if (e.getClickedBlock() != null && e.getClickedBlock().getType() == Material.CHEST) {
-                player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "You cannot open or break chests!");
-                player.sendMessage("Use '/campfire terminate' to end your protection early!");
+            // Check for prohibited blocks, e.g. chests
+            Material clicked = e.getClickedBlock() != null ? e.getClickedBlock().getType() : null;
+            
+            if (clicked != null && current.isProhibitedBlock(clicked)) {
+                if (clicked == Material.CHEST) {
+                    messages.send(player, Messages.Key.NO_CHESTS);
+                    recordAudit(AuditLog.Type.CHEST_BLOCKED, player.getName(), null, 0);
+                    stats.add(ProtectionStats.Stat.CHESTS_BLOCKED, player.getName(), 1);
+                } else {
+                    messages.send(player, Messages.Key.NO_BLOCK);
+                    recordAudit(AuditLog.Type.BLOCK_BLOCKED, player.getName(), null, clicked.getId());
+                }
                 
                 e.setCancelled(true);
                 
@@ -583,32 +2340,20 @@ public class Campfire extends JavaPlugin implements Listener {
             return; // The code below only applies to non-protected players
         }
 
-        // Check that the player clicked on a block and that they are holding flint and steel or lava 
-        if (e.getClickedBlock() != null && 
-                (itemInHand == Material.FLINT_AND_STEEL ||
-                itemInHand == Material.LAVA_BUCKET)) {
+        // Check that the player clicked on a block and that they are holding a buffer item, e.g. flint and steel or lava
+        if (e.getClickedBlock() != null && current.isBufferItem(itemInHand) && !policy.bypassesBuffer()) {
             // Check if they are within the buffer range of protection of a protected player
-            Player[] players = getServer().getOnlinePlayers();
-            
-            for (Player target: players) {
-                if (target.equals(player) || 
-                        target.isOp() ||
-                        target.getWorld() != player.getWorld() ||
-                        playerData.get(target.getName()) == null ||
-                        !playerData.get(target.getName()).isEnabled()) {
-                    continue;
-                }
-                
-                // Check distance
-                double dist = e.getClickedBlock().getLocation().distance(target.getLocation());
+            if (partition.anyWithinBuffer(e.getClickedBlock().getLocation(), player)) {
+                messages.send(player, Messages.Key.NO_BURNING);
+                recordAudit(AuditLog.Type.BURNING_BLOCKED, player.getName(), null, 0);
                 
-                if (dist <= bufferDist) {
-                    player.sendMessage("[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "Player is protected! No burning!");
-                    
-                    e.setCancelled(true);
-                    
-                    return;
+                if (itemInHand == Material.FLINT_AND_STEEL) {
+                    stats.add(ProtectionStats.Stat.FLINT_BLOCKED, player.getName(), 1);
+                } else if (itemInHand == Material.LAVA_BUCKET) {
+                    stats.add(ProtectionStats.Stat.LAVA_BLOCKED, player.getName(), 1);
                 }
+                
+                e.setCancelled(true);
             }
         }
     }
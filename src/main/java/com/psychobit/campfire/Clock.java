@@ -0,0 +1,50 @@
+package com.psychobit.campfire;
+
+/**
+ * Source of the time protection is counted in
+ *
+ * The plugin always uses SYSTEM. Simulations replace it with a clock they
+ * move forward themselves, so hours of play can run in minutes.
+ *
+ * @author psychobit
+ *
+ */
+public abstract class Clock {
+    /**
+     * The system clock
+     */
+    public static final Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Wall clock time
+     *
+     * @return Milliseconds since the epoch
+     */
+    public abstract long currentTimeMillis();
+
+    /**
+     * Monotonic time for measuring intervals
+     *
+     * @return Nanoseconds from an arbitrary origin
+     */
+    public abstract long nanoTime();
+
+    /**
+     * Wall clock time in seconds, as player data is stamped
+     *
+     * @return Seconds since the epoch
+     */
+    public long currentTimeSeconds() {
+        return currentTimeMillis() / 1000;
+    }
+}
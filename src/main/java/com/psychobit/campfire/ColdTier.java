@@ -0,0 +1,387 @@
+package com.psychobit.campfire;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Compact set of players whose protection has expired
+ *
+ * Expired players never need their record again unless they die with
+ * ResetOnDeath on, so they are kept as a sorted array of 64 bit name hashes
+ * with a Bloom filter in front. New players miss the filter without a
+ * search, expired players are answered without reading the store.
+ *
+ * Additions and removals are buffered and merged into a new array by
+ * compact(). FileStorage makes them from the writer thread when it saves a
+ * player whose protection ran out or was given back.
+ *
+ * @author psychobit
+ *
+ */
+public class ColdTier {
+    /**
+     * "CFEX"
+     */
+    private static final int MAGIC = 0x43464558;
+    /**
+     * Bloom filter bits per player
+     */
+    private static final int BITS_PER_ENTRY = 10;
+    /**
+     * Bloom filter hash functions
+     */
+    private static final int HASHES = 7;
+    /**
+     * Names are hashed as UTF-8
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * Merged hashes, sorted
+     * Replaced as a whole by compact()
+     */
+    private volatile long[] sorted;
+    /**
+     * Bloom filter over sorted and added
+     */
+    private volatile long[] bloom;
+    /**
+     * Hashes added since the last compaction
+     * Guarded by this
+     */
+    private HashSet<Long> added = new HashSet<Long>();
+    /**
+     * Hashes removed since the last compaction
+     * Guarded by this
+     */
+    private HashSet<Long> removed = new HashSet<Long>();
+
+    /**
+     * Create a cold tier from sorted hashes
+     *
+     * @param sorted Sorted hashes, owned by the tier from now on
+     */
+    public ColdTier(long[] sorted) {
+        this.sorted = sorted;
+        this.bloom = buildBloom(sorted, 0);
+    }
+
+    /**
+     * Is this player known to have expired?
+     *
+     * @param playerName Player to check
+     * @return True if the player is in the cold tier
+     */
+    public boolean contains(String playerName) {
+        long hash = hash(playerName);
+
+        if (!mightContain(bloom, hash)) {
+            return false;
+        }
+
+        synchronized (this) {
+            if (added.contains(hash)) {
+                return true;
+            }
+
+            if (removed.contains(hash)) {
+                return false;
+            }
+        }
+
+        return Arrays.binarySearch(sorted, hash) >= 0;
+    }
+
+    /**
+     * Demote an expired player
+     *
+     * @param playerName Player to add
+     */
+    public void add(String playerName) {
+        long hash = hash(playerName);
+
+        synchronized (this) {
+            removed.remove(hash);
+            added.add(hash);
+
+            setBloom(bloom, hash);
+        }
+    }
+
+    /**
+     * Promote a player whose protection was given back
+     *
+     * @param playerName Player to remove
+     */
+    public void remove(String playerName) {
+        long hash = hash(playerName);
+
+        synchronized (this) {
+            added.remove(hash);
+            removed.add(hash);
+        }
+    }
+
+    /**
+     * Number of expired players
+     *
+     * @return Entries in the tier, approximate until compacted
+     */
+    public synchronized int size() {
+        return sorted.length + added.size();
+    }
+
+    /**
+     * Merge buffered changes into a new sorted array and filter
+     *
+     * @return True if anything changed
+     */
+    public boolean compact() {
+        long[] adds;
+        HashSet<Long> removes;
+
+        synchronized (this) {
+            if (added.isEmpty() && removed.isEmpty()) {
+                return false;
+            }
+
+            adds = new long[added.size()];
+            int i = 0;
+
+            for (Long hash: added) {
+                adds[i++] = hash;
+            }
+
+            removes = new HashSet<Long>(removed);
+        }
+
+        Arrays.sort(adds);
+
+        long[] current = sorted;
+        long[] merged = new long[current.length + adds.length];
+        int n = 0;
+        int a = 0;
+
+        for (int c = 0; c <= current.length; c++) {
+            long next = c < current.length ? current[c] : Long.MAX_VALUE;
+
+            while (a < adds.length && adds[a] <= next) {
+                if (!removes.contains(adds[a]) && (n == 0 || merged[n - 1] != adds[a])) {
+                    merged[n++] = adds[a];
+                }
+
+                a++;
+            }
+
+            if (c < current.length && !removes.contains(next) && (n == 0 || merged[n - 1] != next)) {
+                merged[n++] = next;
+            }
+        }
+
+        merged = Arrays.copyOf(merged, n);
+
+        synchronized (this) {
+            // Anything changed while merging stays buffered for the next round
+            for (long hash: adds) {
+                added.remove(hash);
+            }
+
+            for (Long hash: removes) {
+                removed.remove(hash);
+            }
+
+            // Don't hold on to the table of a large batch
+            if (added.isEmpty()) {
+                added = new HashSet<Long>();
+            }
+
+            if (removed.isEmpty()) {
+                removed = new HashSet<Long>();
+            }
+
+            long[] filter = buildBloom(merged, added.size());
+
+            for (Long hash: added) {
+                setBloom(filter, hash);
+            }
+
+            sorted = merged;
+            bloom = filter;
+        }
+
+        return true;
+    }
+
+    /**
+     * Write the merged hashes to a file
+     *
+     * @param file Destination
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        long[] hashes = sorted;
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(hashes.length);
+
+            for (long hash: hashes) {
+                out.writeLong(hash);
+            }
+        } finally {
+            out.close();
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Read a cold tier written by save()
+     *
+     * @param file Source
+     * @return Cold tier
+     * @throws IOException If the file is missing or not valid
+     */
+    public static ColdTier load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a Campfire expired player file");
+            }
+
+            long[] hashes = new long[in.readInt()];
+
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = in.readLong();
+
+                if (i > 0 && hashes[i] <= hashes[i - 1]) {
+                    throw new IOException(file.getName() + " is not sorted");
+                }
+            }
+
+            return new ColdTier(hashes);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Build a cold tier from every expired player in a store
+     * Used once when there is no saved cold tier yet
+     *
+     * @param store Store to scan
+     * @return Cold tier
+     */
+    public static ColdTier build(PlayerStore store) {
+        final ColdTier tier = new ColdTier(new long[0]);
+
+        store.scan(new PlayerStore.Visitor() {
+            public void visit(String playerName, PlayerData data) {
+                if (!data.isEnabled()) {
+                    tier.add(playerName);
+                }
+            }
+        });
+
+        tier.compact();
+
+        return tier;
+    }
+
+    /**
+     * 64 bit hash of a player name
+     *
+     * @param playerName Player name
+     * @return Hash
+     */
+    static long hash(String playerName) {
+        long h = 0xcbf29ce484222325L;
+
+        for (byte b: playerName.getBytes(UTF8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+
+        return h;
+    }
+
+    /**
+     * Create a filter sized for the given hashes plus some headroom
+     *
+     * @param hashes Hashes to add
+     * @param extra Additional entries expected
+     * @return Filter bits
+     */
+    private static long[] buildBloom(long[] hashes, int extra) {
+        long bits = Math.max(1024L, (long) (hashes.length + extra + 1024) * BITS_PER_ENTRY);
+        long[] filter = new long[(int) ((bits + 63) / 64)];
+
+        for (long hash: hashes) {
+            setBloom(filter, hash);
+        }
+
+        return filter;
+    }
+
+    /**
+     * Set a hash's bits in a filter
+     *
+     * @param filter Filter bits
+     * @param hash Hash to add
+     */
+    private static void setBloom(long[] filter, long hash) {
+        long bits = filter.length * 64L;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % bits;
+            filter[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Could a hash be in a filter?
+     *
+     * @param filter Filter bits
+     * @param hash Hash to check
+     * @return False if the hash is definitely absent
+     */
+    private static boolean mightContain(long[] filter, long hash) {
+        long bits = filter.length * 64L;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % bits;
+
+            if ((filter[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
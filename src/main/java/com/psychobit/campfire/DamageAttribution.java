@@ -0,0 +1,278 @@
+package com.psychobit.campfire;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.AnimalTamer;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Projectile;
+import org.bukkit.entity.Tameable;
+
+/**
+ * Finds the player responsible for damage dealt by an entity
+ *
+ * Each entity type that can act for a player has a resolver in a table
+ * indexed by the type, so a damager costs one array lookup however many
+ * types are supported. Players deal their own damage, projectiles belong to
+ * their shooter, tamed wolves to their owner and primed TNT to whoever lit
+ * it with flint and steel.
+ *
+ * Wolf and TNT owners are remembered by entity id, so an explosion hitting
+ * many players or a wolf biting again does not resolve them again. Only used
+ * on the server thread.
+ *
+ * @author psychobit
+ *
+ */
+public class DamageAttribution {
+    /**
+     * Finds the player behind a damager of one entity type
+     */
+    private interface Resolver {
+        /**
+         * @param damager Entity dealing the damage
+         * @return Responsible player, or null if there is none
+         */
+        Player resolve(Entity damager);
+    }
+
+    /**
+     * TNT lit with flint and steel
+     */
+    private static class Ignition {
+        private final Player player;
+        private final World world;
+        private final double x;
+        private final double y;
+        private final double z;
+        private final long time;
+
+        private Ignition(Player player, Location location, long time) {
+            this.player = player;
+            this.world = location.getWorld();
+            this.x = location.getBlockX() + 0.5;
+            this.y = location.getBlockY() + 0.5;
+            this.z = location.getBlockZ() + 0.5;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Furthest primed TNT can be from where it was lit and still be matched to it
+     */
+    private static final double IGNITION_RANGE = 8;
+    /**
+     * Milliseconds an ignition is kept, the fuse is 4 seconds
+     */
+    private static final long IGNITION_TTL = 10 * 1000L;
+    /**
+     * Most owners remembered, the cache is cleared when it is full
+     */
+    private static final int MAX_OWNERS = 4096;
+    /**
+     * Resolvers by EntityType ordinal, null for types that never act for a player
+     */
+    private final Resolver[] resolvers = new Resolver[EntityType.values().length];
+    /**
+     * Owners of wolves and primed TNT by entity id, null for TNT nobody lit
+     */
+    private final HashMap<Integer, Player> owners = new HashMap<Integer, Player>();
+    /**
+     * Recent ignitions, oldest first
+     */
+    private final ArrayDeque<Ignition> ignitions = new ArrayDeque<Ignition>();
+    /**
+     * Clock ignitions are timed with
+     */
+    private final Clock clock;
+
+    /**
+     * Build the dispatch table
+     *
+     * @param clock Clock ignitions are timed with
+     */
+    public DamageAttribution(Clock clock) {
+        this.clock = clock;
+
+        resolvers[EntityType.PLAYER.ordinal()] = new Resolver() {
+            public Player resolve(Entity damager) {
+                return (Player) damager;
+            }
+        };
+
+        Resolver shooter = new Resolver() {
+            public Player resolve(Entity damager) {
+                LivingEntity shooter = ((Projectile) damager).getShooter();
+
+                return shooter instanceof Player ? (Player) shooter : null;
+            }
+        };
+
+        for (EntityType type: new EntityType[] { EntityType.ARROW, EntityType.SNOWBALL, EntityType.EGG,
+                EntityType.FIREBALL, EntityType.SMALL_FIREBALL, EntityType.SPLASH_POTION, EntityType.FISHING_HOOK }) {
+            resolvers[type.ordinal()] = shooter;
+        }
+
+        resolvers[EntityType.WOLF.ordinal()] = new Resolver() {
+            public Player resolve(Entity damager) {
+                Player owner = owners.get(damager.getEntityId());
+
+                if (owner != null) {
+                    return owner;
+                }
+
+                // Wild wolves are not remembered, they can still be tamed
+                Tameable wolf = (Tameable) damager;
+
+                if (!wolf.isTamed()) {
+                    return null;
+                }
+
+                AnimalTamer tamer = wolf.getOwner();
+
+                if (!(tamer instanceof Player)) {
+                    return null; // Owner is offline
+                }
+
+                remember(damager.getEntityId(), (Player) tamer);
+
+                return (Player) tamer;
+            }
+        };
+
+        resolvers[EntityType.PRIMED_TNT.ordinal()] = new Resolver() {
+            public Player resolve(Entity damager) {
+                Integer id = damager.getEntityId();
+                Player owner = owners.get(id);
+
+                if (owner != null || owners.containsKey(id)) {
+                    return owner;
+                }
+
+                owner = ignitedBy(damager.getLocation());
+                remember(id, owner);
+
+                return owner;
+            }
+        };
+    }
+
+    /**
+     * Find the player responsible for damage
+     *
+     * @param damager Entity dealing the damage
+     * @return Responsible player, or null if there is none
+     */
+    public Player attribute(Entity damager) {
+        Resolver resolver = resolvers[damager.getType().ordinal()];
+
+        return resolver == null ? null : resolver.resolve(damager);
+    }
+
+    /**
+     * Remember that a player lit TNT
+     *
+     * @param player Player
+     * @param location Where the TNT block is
+     */
+    public void ignited(Player player, Location location) {
+        long now = clock.currentTimeMillis();
+
+        expire(now);
+        ignitions.addLast(new Ignition(player, location, now));
+    }
+
+    /**
+     * Forget the owner of an entity that died or exploded
+     *
+     * @param entityId Entity id
+     */
+    public void forget(int entityId) {
+        owners.remove(entityId);
+    }
+
+    /**
+     * Forget everything owned by a player who quit
+     * Their Player object is replaced when they come back
+     *
+     * @param player Player
+     */
+    public void forget(Player player) {
+        Iterator<Map.Entry<Integer, Player>> i = owners.entrySet().iterator();
+
+        while (i.hasNext()) {
+            if (i.next().getValue() == player) {
+                i.remove();
+            }
+        }
+
+        Iterator<Ignition> j = ignitions.iterator();
+
+        while (j.hasNext()) {
+            if (j.next().player == player) {
+                j.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the number of owners remembered
+     *
+     * @return Entities with a known owner
+     */
+    public int size() {
+        return owners.size();
+    }
+
+    private void remember(Integer entityId, Player owner) {
+        if (owners.size() >= MAX_OWNERS) {
+            owners.clear();
+        }
+
+        owners.put(entityId, owner);
+    }
+
+    /**
+     * Find who lit the TNT nearest to where primed TNT is
+     *
+     * @param location Where the primed TNT is
+     * @return Player, or null if no recent ignition is close enough
+     */
+    private Player ignitedBy(Location location) {
+        expire(clock.currentTimeMillis());
+
+        Player found = null;
+        double best = IGNITION_RANGE * IGNITION_RANGE;
+
+        for (Ignition ignition: ignitions) {
+            if (!ignition.world.equals(location.getWorld())) {
+                continue;
+            }
+
+            double dx = ignition.x - location.getX();
+            double dy = ignition.y - location.getY();
+            double dz = ignition.z - location.getZ();
+            double distance = dx * dx + dy * dy + dz * dz;
+
+            if (distance <= best) {
+                best = distance;
+                found = ignition.player;
+            }
+        }
+
+        return found;
+    }
+
+    private void expire(long now) {
+        while (!ignitions.isEmpty() && now - ignitions.peekFirst().time > IGNITION_TTL) {
+            ignitions.removeFirst();
+        }
+    }
+}
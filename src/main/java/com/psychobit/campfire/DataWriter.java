@@ -0,0 +1,281 @@
+package com.psychobit.campfire;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes player data to storage on a background thread
+ *
+ * The server thread hands over copies of the entries that changed since the
+ * last flush, so the writer never touches the live PlayerData objects.
+ * Batches that arrive while a write is in progress are merged and written
+ * together. Loads see entries that are queued or being written, so a
+ * player who quits and comes straight back gets what they left with.
+ * Protection stats go the same way, only the newest are written.
+ *
+ * @author psychobit
+ *
+ */
+public class DataWriter {
+    /**
+     * Logger for exceptions.
+     */
+    private static final Logger log = Logger.getLogger("Minecraft");
+    /**
+     * Where the data is written to
+     */
+    private final PlayerStorage storage;
+    /**
+     * Where write times and sizes are recorded
+     */
+    private final Metrics metrics;
+    /**
+     * Entries waiting for the next write
+     * Guarded by this
+     */
+    private HashMap<String, PlayerData> pending;
+    /**
+     * Entries being written right now, null between writes
+     * Guarded by this
+     */
+    private HashMap<String, PlayerData> writing;
+    /**
+     * Stats waiting for the next write, null if there are none
+     * Guarded by this
+     */
+    private byte[] pendingStats;
+    /**
+     * Is a write already queued?
+     * Guarded by this
+     */
+    private boolean queued;
+    /**
+     * Single background thread doing the disk work
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Create a writer for the given storage
+     *
+     * @param storage Destination storage
+     * @param metrics Where write times and sizes are recorded
+     */
+    public DataWriter(PlayerStorage storage, Metrics metrics) {
+        this.storage = storage;
+        this.metrics = metrics;
+        this.pending = new HashMap<String, PlayerData>();
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Campfire-Writer");
+                t.setDaemon(true);
+
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queue a batch of changed entries for writing
+     * Returns immediately, the disk work happens on the writer thread
+     *
+     * @param batch Copies of the changed entries, owned by the writer from now on
+     */
+    public void submit(Map<String, PlayerData> batch) {
+        synchronized (this) {
+            pending.putAll(batch);
+
+            if (queued) {
+                return; // The queued write will pick these up
+            }
+
+            queued = true;
+        }
+
+        executor.execute(new Runnable() {
+            public void run() {
+                writePending();
+            }
+        });
+    }
+
+    /**
+     * Queue protection stats for writing
+     * Replaces stats that are still waiting
+     *
+     * @param stats Bytes from ProtectionStats.write()
+     */
+    public void submitStats(byte[] stats) {
+        synchronized (this) {
+            pendingStats = stats;
+
+            if (queued) {
+                return; // The queued write will pick these up
+            }
+
+            queued = true;
+        }
+
+        executor.execute(new Runnable() {
+            public void run() {
+                writePending();
+            }
+        });
+    }
+
+    /**
+     * Look up a player, including entries that are not written yet
+     *
+     * @param playerName Player name
+     * @return A new PlayerData holding their data, or null if unknown
+     * @throws IOException If the storage could not be read
+     */
+    public PlayerData load(String playerName) throws IOException {
+        synchronized (this) {
+            PlayerData data = queued(playerName);
+
+            if (data != null) {
+                return data.copy();
+            }
+        }
+
+        return storage.load(playerName);
+    }
+
+    /**
+     * Get a player's data ready before they join
+     * Skipped while they have entries queued, those are newer
+     *
+     * @param playerName Player name
+     * @throws IOException If the storage could not be read
+     */
+    public void prefetch(String playerName) throws IOException {
+        synchronized (this) {
+            if (queued(playerName) != null) {
+                return;
+            }
+        }
+
+        storage.prefetch(playerName);
+    }
+
+    /**
+     * Find the newest entry of a player that is not written yet
+     * Call while holding the lock
+     *
+     * @param playerName Player name
+     * @return Entry or null
+     */
+    private PlayerData queued(String playerName) {
+        PlayerData data = pending.get(playerName);
+
+        if (data == null && writing != null) {
+            data = writing.get(playerName);
+        }
+
+        return data;
+    }
+
+    /**
+     * Stop accepting work and wait for queued writes to finish
+     *
+     * @param timeout How long to wait at most
+     * @param unit Unit of the timeout
+     * @return True if everything was written in time
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        executor.shutdown();
+
+        try {
+            return executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+    }
+
+    /**
+     * Merge the pending batch and write everything out
+     * Runs on the writer thread
+     */
+    private void writePending() {
+        HashMap<String, PlayerData> batch;
+        byte[] stats;
+
+        synchronized (this) {
+            batch = pending;
+            stats = pendingStats;
+            pending = new HashMap<String, PlayerData>();
+            pendingStats = null;
+            writing = batch;
+            queued = false;
+        }
+
+        if (stats != null) {
+            writeStats(stats);
+        }
+
+        if (batch.isEmpty()) {
+            synchronized (this) {
+                writing = null;
+            }
+
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            long bytes = storage.save(batch);
+
+            metrics.count(Metrics.Counter.SAVES);
+            metrics.count(Metrics.Counter.RECORDS_SAVED, batch.size());
+            metrics.count(Metrics.Counter.BYTES_WRITTEN, bytes);
+            metrics.time(Metrics.Timer.WRITE, start);
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Exception while saving data", e);
+
+            // Try again with the next batch, unless there is something newer by then
+            synchronized (this) {
+                for (Map.Entry<String, PlayerData> entry: batch.entrySet()) {
+                    if (!pending.containsKey(entry.getKey())) {
+                        pending.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                writing = null;
+            }
+        }
+    }
+
+    /**
+     * Write protection stats
+     * Runs on the writer thread
+     *
+     * @param stats Bytes to write
+     */
+    private void writeStats(byte[] stats) {
+        try {
+            storage.saveStats(stats);
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Exception while saving stats", e);
+
+            // Try again with the next write, unless there is something newer by then
+            synchronized (this) {
+                if (pendingStats == null) {
+                    pendingStats = stats;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.psychobit.campfire;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Deadlines for protection warnings and expiry
+ *
+ * Every running protection timer has exactly one pending deadline: the
+ * moment its remaining time reaches the next whole minute, or zero. Paused
+ * timers (offline, protected zone) have none. Finding what is due only
+ * looks at the head of a queue, so the cost follows the number of due
+ * deadlines rather than the number of players online.
+ *
+ * Cancelled deadlines are left in the queue and skipped when they reach
+ * the head.
+ *
+ * @author psychobit
+ *
+ */
+public class ExpiryScheduler {
+    /**
+     * A pending warning or expiry
+     */
+    public static class Deadline implements Comparable<Deadline> {
+        /**
+         * Player the deadline belongs to
+         */
+        private final String playerName;
+        /**
+         * When it is due, in milliseconds
+         */
+        private final long due;
+        /**
+         * Seconds of protection left when it is due, 0 for expiry
+         */
+        private final int target;
+        /**
+         * Was it replaced or cancelled?
+         */
+        private boolean cancelled;
+
+        /**
+         * Create a deadline
+         *
+         * @param playerName Player the deadline belongs to
+         * @param due When it is due, in milliseconds
+         * @param target Seconds of protection left when it is due
+         */
+        private Deadline(String playerName, long due, int target) {
+            this.playerName = playerName;
+            this.due = due;
+            this.target = target;
+        }
+
+        /**
+         * Get the player the deadline belongs to
+         *
+         * @return Player name
+         */
+        public String getPlayerName() {
+            return playerName;
+        }
+
+        /**
+         * Get when the deadline is due
+         *
+         * @return Time in milliseconds
+         */
+        public long getDue() {
+            return due;
+        }
+
+        /**
+         * Get the protection left when the deadline is due
+         *
+         * @return Seconds left, 0 for expiry
+         */
+        public int getTarget() {
+            return target;
+        }
+
+        public int compareTo(Deadline other) {
+            return due < other.due ? -1 : (due == other.due ? 0 : 1);
+        }
+    }
+
+    /**
+     * Deadlines ordered by due time
+     */
+    private final PriorityQueue<Deadline> queue = new PriorityQueue<Deadline>();
+    /**
+     * The live deadline of each player
+     */
+    private final HashMap<String, Deadline> pending = new HashMap<String, Deadline>();
+
+    /**
+     * Set a player's deadline, replacing any pending one
+     *
+     * @param playerName Player
+     * @param due When it is due, in milliseconds
+     * @param target Seconds of protection left when it is due
+     */
+    public void schedule(String playerName, long due, int target) {
+        Deadline deadline = new Deadline(playerName, due, target);
+        Deadline old = pending.put(playerName, deadline);
+
+        if (old != null) {
+            old.cancelled = true;
+        }
+
+        queue.add(deadline);
+
+        // Drop cancelled deadlines if they pile up far ahead of the head
+        if (queue.size() > 2 * pending.size() + 1024) {
+            queue.clear();
+            queue.addAll(pending.values());
+        }
+    }
+
+    /**
+     * Remove a player's deadline
+     *
+     * @param playerName Player
+     */
+    public void cancel(String playerName) {
+        Deadline old = pending.remove(playerName);
+
+        if (old != null) {
+            old.cancelled = true;
+        }
+    }
+
+    /**
+     * Does a player have a pending deadline?
+     *
+     * @param playerName Player
+     * @return True if their timer is running
+     */
+    public boolean isScheduled(String playerName) {
+        return pending.containsKey(playerName);
+    }
+
+    /**
+     * Take the next deadline that is due
+     *
+     * @param now Current time in milliseconds
+     * @return A due deadline, or null if nothing is due
+     */
+    public Deadline poll(long now) {
+        while (!queue.isEmpty()) {
+            Deadline head = queue.peek();
+
+            if (head.cancelled) {
+                queue.poll();
+
+                continue;
+            }
+
+            if (head.due > now) {
+                return null;
+            }
+
+            queue.poll();
+            pending.remove(head.playerName);
+
+            return head;
+        }
+
+        return null;
+    }
+
+    /**
+     * Number of running timers
+     *
+     * @return Pending deadlines
+     */
+    public int size() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,254 @@
+package com.psychobit.campfire;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Player data kept in the plugin folder
+ *
+ * Records are in the memory mapped players.bin, expired players in the
+ * cold tier saved as expired.bin and protection stats in stats.bin. The
+ * default storage, for a single server.
+ *
+ * Opening only maps the files. The cold tier grows with the number of
+ * players who ever expired, so it is read on a background thread; until it
+ * is there, loads go to the store, whose records say the same thing.
+ *
+ * @author psychobit
+ *
+ */
+public class FileStorage implements PlayerStorage {
+    /**
+     * Logger for exceptions.
+     */
+    private static final Logger log = Logger.getLogger("Minecraft");
+    /**
+     * Every player's data
+     */
+    private final PlayerStore store;
+    /**
+     * Players whose protection expired, kept compact so they never need the store
+     * Null until it is loaded
+     */
+    private volatile ColdTier cold;
+    /**
+     * Opened once the cold tier is loaded
+     */
+    private final CountDownLatch coldLoaded = new CountDownLatch(1);
+    /**
+     * File the cold tier is saved to
+     */
+    private final File coldFile;
+    /**
+     * File the protection stats are saved to
+     */
+    private final File statsFile;
+
+    /**
+     * Create a storage from an opened store
+     * Starts loading the cold tier
+     *
+     * @param store Player records
+     * @param coldFile File the expired players are saved to
+     * @param statsFile File the protection stats are saved to
+     */
+    public FileStorage(PlayerStore store, File coldFile, File statsFile) {
+        this.store = store;
+        this.coldFile = coldFile;
+        this.statsFile = statsFile;
+
+        Thread loader = new Thread(new Runnable() {
+            public void run() {
+                cold = loadColdTier();
+                coldLoaded.countDown();
+            }
+        }, "Campfire-ColdTier");
+
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Open the player data in a plugin folder
+     * Imports the old players.dat the first time. Only starts with no
+     * players when there is no players.bin yet.
+     *
+     * @param dataFolder Plugin folder
+     * @return Storage
+     * @throws IOException If there is nowhere to keep player data, or the records can't be read
+     */
+    public static FileStorage open(File dataFolder) throws IOException {
+        File file = new File(dataFolder, "players.bin");
+        File index = new File(dataFolder, "players.idx");
+        File legacy = new File(dataFolder, "players.dat");
+        File coldFile = new File(dataFolder, "expired.bin");
+        File statsFile = new File(dataFolder, "stats.bin");
+
+        if (!file.exists() && legacy.exists()) {
+            try {
+                LegacyImporter.importLegacy(legacy, file);
+            } catch (Exception e) {
+                // Starting without it would give everyone their protection back
+                throw new IOException("Could not import " + legacy.getName(), e);
+            }
+        }
+
+        try {
+            return new FileStorage(PlayerStore.open(file, index), coldFile, statsFile);
+        } catch (Exception e) {
+            // Starting without it would give everyone their protection back
+            throw new IOException("Could not read " + file.getName() + ", restore it from a backup or remove it to start over", e);
+        }
+    }
+
+    /**
+     * Load the expired players, building them from the store the first time
+     *
+     * @return Cold tier
+     */
+    private ColdTier loadColdTier() {
+        try {
+            return ColdTier.load(coldFile);
+        } catch (FileNotFoundException e) { // Build it below
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Exception while loading expired players, rebuilding", e);
+        }
+
+        ColdTier cold = ColdTier.build(store);
+
+        try {
+            cold.save(coldFile);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Exception while saving expired players", e);
+        }
+
+        return cold;
+    }
+
+    /**
+     * Look up a player
+     * Expired players are answered by the cold tier without touching the store
+     *
+     * @param playerName Player name
+     * @return Their data, or null if they have never been protected
+     */
+    public PlayerData load(String playerName) {
+        ColdTier tier = cold;
+
+        if (tier != null && tier.contains(playerName)) {
+            // Never marked dirty while expired, so the stored record stays as it is
+            PlayerData data = new PlayerData();
+            data.setEnabled(false);
+
+            return data;
+        }
+
+        return store.load(playerName);
+    }
+
+    /**
+     * Nothing to do, a load is a lookup in mapped memory
+     *
+     * @param playerName Player name
+     */
+    public void prefetch(String playerName) {
+    }
+
+    /**
+     * Write a batch to the store and move players in or out of the cold tier
+     *
+     * @param batch Copies of the changed entries
+     * @return Bytes synced to disk
+     * @throws IOException
+     */
+    public long save(Map<String, PlayerData> batch) throws IOException {
+        // Changes have to go into the tier that is being loaded
+        try {
+            coldLoaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IOException("Interrupted while loading expired players");
+        }
+
+        for (Map.Entry<String, PlayerData> entry: batch.entrySet()) {
+            String playerName = entry.getKey();
+            boolean expired = !entry.getValue().isEnabled();
+
+            store.save(playerName, entry.getValue());
+
+            // Only touch the tier on a change, every change costs a compaction
+            if (expired != cold.contains(playerName)) {
+                if (expired) {
+                    cold.add(playerName);
+                } else {
+                    cold.remove(playerName);
+                }
+            }
+        }
+
+        long bytes = store.flush();
+
+        if (cold.compact()) {
+            cold.save(coldFile);
+            bytes += coldFile.length();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Read stats.bin
+     *
+     * @return Its bytes, or null if there is none yet
+     * @throws IOException
+     */
+    public byte[] loadStats() throws IOException {
+        if (!statsFile.exists()) {
+            return null;
+        }
+
+        return Files.readAllBytes(statsFile.toPath());
+    }
+
+    /**
+     * Replace stats.bin
+     *
+     * @param stats Bytes to write
+     * @throws IOException
+     */
+    public void saveStats(byte[] stats) throws IOException {
+        File temp = new File(statsFile.getPath() + ".tmp");
+
+        Files.write(temp.toPath(), stats);
+
+        try {
+            Files.move(temp.toPath(), statsFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), statsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Close the store, once the cold tier is done reading it
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        try {
+            coldLoaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        store.close();
+    }
+}
@@ -0,0 +1,114 @@
+package com.psychobit.campfire;
+
+import java.util.HashMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder events for Metrics
+ *
+ * Only loaded when jdk.jfr exists, Metrics checks before calling in here.
+ * Timings are committed as they happen; counters are sampled as a periodic
+ * event so a busy counter does not flood the recording.
+ *
+ * @author psychobit
+ *
+ */
+class FlightEvents {
+    /**
+     * A timed Campfire operation
+     */
+    @Name("com.psychobit.campfire.Operation")
+    @Label("Campfire Operation")
+    @Category("Campfire")
+    @Description("Time spent in a Campfire hot path")
+    @StackTrace(false)
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+    }
+
+    /**
+     * Value of a Campfire counter
+     */
+    @Name("com.psychobit.campfire.Counter")
+    @Label("Campfire Counter")
+    @Category("Campfire")
+    @Description("Total of a Campfire counter since the plugin was enabled")
+    @StackTrace(false)
+    @Period("1 s")
+    static class CounterEvent extends Event {
+        @Label("Counter")
+        String counter;
+
+        @Label("Value")
+        long value;
+    }
+
+    /**
+     * Periodic hooks of registered metrics
+     */
+    private static final HashMap<Metrics, Runnable> hooks = new HashMap<Metrics, Runnable>();
+
+    /**
+     * Start sampling a set of metrics' counters
+     *
+     * @param metrics Metrics
+     */
+    static synchronized void register(final Metrics metrics) {
+        Runnable hook = new Runnable() {
+            public void run() {
+                for (Metrics.Counter counter: Metrics.Counter.values()) {
+                    CounterEvent event = new CounterEvent();
+                    event.counter = counter.getLabel();
+                    event.value = metrics.get(counter);
+                    event.commit();
+                }
+            }
+        };
+
+        FlightRecorder.addPeriodicEvent(CounterEvent.class, hook);
+        hooks.put(metrics, hook);
+    }
+
+    /**
+     * Stop sampling a set of metrics' counters
+     *
+     * @param metrics Metrics
+     */
+    static synchronized void unregister(Metrics metrics) {
+        Runnable hook = hooks.remove(metrics);
+
+        if (hook != null) {
+            FlightRecorder.removePeriodicEvent(hook);
+        }
+    }
+
+    /**
+     * Report a timing
+     *
+     * @param timer Operation
+     * @param nanos Nanoseconds
+     */
+    static void operation(Metrics.Timer timer, long nanos) {
+        OperationEvent event = new OperationEvent();
+
+        if (event.isEnabled()) {
+            event.operation = timer.getLabel();
+            event.time = nanos;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.psychobit.campfire;
+
+import java.util.Arrays;
+
+/**
+ * Set of ints without boxing
+ *
+ * Open addressing with linear probing. Removal shifts the following run
+ * back instead of leaving tombstones, so lookups never slow down as
+ * players come and go.
+ *
+ * @author psychobit
+ *
+ */
+public class IntSet {
+    /**
+     * Marks an empty slot, stored separately when it is a member
+     */
+    private static final int EMPTY = 0;
+    /**
+     * Slots, a power of two long
+     */
+    private int[] table;
+    /**
+     * Is EMPTY itself a member?
+     */
+    private boolean hasEmpty;
+    /**
+     * Members in the table
+     */
+    private int size;
+
+    /**
+     * Create an empty set
+     */
+    public IntSet() {
+        table = new int[16];
+    }
+
+    /**
+     * Is a value in the set?
+     *
+     * @param value Value
+     * @return True if it was added and not removed since
+     */
+    public boolean contains(int value) {
+        if (value == EMPTY) {
+            return hasEmpty;
+        }
+
+        int[] t = table;
+        int mask = t.length - 1;
+
+        for (int i = mix(value) & mask;; i = (i + 1) & mask) {
+            int v = t[i];
+
+            if (v == value) {
+                return true;
+            }
+
+            if (v == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Add a value
+     *
+     * @param value Value
+     * @return True if it was not in the set
+     */
+    public boolean add(int value) {
+        if (value == EMPTY) {
+            boolean added = !hasEmpty;
+            hasEmpty = true;
+
+            return added;
+        }
+
+        if ((size + 1) * 2 > table.length) {
+            resize(table.length * 2);
+        }
+
+        int mask = table.length - 1;
+
+        for (int i = mix(value) & mask;; i = (i + 1) & mask) {
+            int v = table[i];
+
+            if (v == value) {
+                return false;
+            }
+
+            if (v == EMPTY) {
+                table[i] = value;
+                size++;
+
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Remove a value
+     *
+     * @param value Value
+     * @return True if it was in the set
+     */
+    public boolean remove(int value) {
+        if (value == EMPTY) {
+            boolean removed = hasEmpty;
+            hasEmpty = false;
+
+            return removed;
+        }
+
+        int mask = table.length - 1;
+        int i = mix(value) & mask;
+
+        while (table[i] != value) {
+            if (table[i] == EMPTY) {
+                return false;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        // Move later members of the run into the gap if they belong before it
+        int gap = i;
+
+        for (int j = (gap + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+            int home = mix(table[j]) & mask;
+
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                table[gap] = table[j];
+                gap = j;
+            }
+        }
+
+        table[gap] = EMPTY;
+        size--;
+
+        return true;
+    }
+
+    /**
+     * Is the set empty?
+     *
+     * @return True if nothing is in the set
+     */
+    public boolean isEmpty() {
+        return size == 0 && !hasEmpty;
+    }
+
+    /**
+     * Number of members
+     *
+     * @return Size
+     */
+    public int size() {
+        return size + (hasEmpty ? 1 : 0);
+    }
+
+    /**
+     * Remove every member
+     */
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        hasEmpty = false;
+        size = 0;
+    }
+
+    /**
+     * Rehash into a table of a new length
+     *
+     * @param length New length, a power of two
+     */
+    private void resize(int length) {
+        int[] old = table;
+        int mask = length - 1;
+
+        table = new int[length];
+
+        for (int v: old) {
+            if (v == EMPTY) {
+                continue;
+            }
+
+            int i = mix(v) & mask;
+
+            while (table[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+
+            table[i] = v;
+        }
+    }
+
+    /**
+     * Spread sequential ids over the table
+     *
+     * @param value Value
+     * @return Hash
+     */
+    private static int mix(int value) {
+        int h = value * 0x9e3779b9;
+
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,578 @@
+package com.psychobit.campfire;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Player data kept in a database shared by several servers
+ *
+ * Players are read while they log in and kept in a local cache for a while,
+ * so joins and handlers never wait on the database. Saves are batched into
+ * one transaction and add the time played on this server to the stored
+ * total instead of overwriting it, so time spent protected on any server
+ * counts on all of them.
+ *
+ * Each row has a generation that goes up when the player is reset. Time is
+ * only added within the generation it was played in, so time from before a
+ * reset on another server is dropped rather than added to the new total.
+ * Expiry is only ever turned on within a generation.
+ *
+ * Protection stats are kept per server, in a row named after it.
+ *
+ * Works with any JDBC driver, e.g. the SQLite one bundled with CraftBukkit,
+ * H2 or MySQL.
+ *
+ * @author psychobit
+ *
+ */
+public class JdbcStorage implements PlayerStorage {
+    /**
+     * Logger for exceptions.
+     */
+    private static final Logger log = Logger.getLogger("Minecraft");
+    /**
+     * Table holding the players
+     */
+    private static final String TABLE = "campfire_players";
+    /**
+     * Table holding each server's protection stats
+     */
+    private static final String STATS_TABLE = "campfire_stats";
+    /**
+     * Database connection
+     * Statements are run while holding its lock
+     */
+    private final Connection connection;
+    /**
+     * Milliseconds a read is answered from the cache
+     */
+    private final long ttl;
+    /**
+     * Name of this server's row of stats
+     */
+    private final String server;
+    /**
+     * Clock the cache is timed with
+     */
+    private final Clock clock;
+    /**
+     * Players read from the database, unknown players as null data
+     * Guarded by this
+     */
+    private final HashMap<String, Cached> cache = new HashMap<String, Cached>();
+    /**
+     * Stored state each player's changes are counted from
+     * Guarded by this
+     */
+    private final HashMap<String, Baseline> baselines = new HashMap<String, Baseline>();
+    /**
+     * When expired cache entries were last dropped
+     * Guarded by this
+     */
+    private long lastSweep;
+
+    /**
+     * A player's data as read or last saved
+     */
+    private static class Cached {
+        private PlayerData data;
+        private final long loaded;
+        private long touched;
+
+        private Cached(PlayerData data, long loaded) {
+            this.data = data;
+            this.loaded = loaded;
+            this.touched = loaded;
+        }
+    }
+
+    /**
+     * A player's row as this server last saw it
+     */
+    private static class Baseline {
+        private int generation;
+        private int elapsed;
+        private int resets;
+
+        private Baseline(int generation, int elapsed, int resets) {
+            this.generation = generation;
+            this.elapsed = elapsed;
+            this.resets = resets;
+        }
+    }
+
+    /**
+     * Create a storage on an open connection
+     *
+     * @param connection Connection, owned by the storage from now on
+     * @param ttl Milliseconds a read is answered from the cache
+     * @param server Name of this server's row of stats
+     * @param clock Clock the cache is timed with
+     */
+    public JdbcStorage(Connection connection, long ttl, String server, Clock clock) {
+        this.connection = connection;
+        this.ttl = ttl;
+        this.server = server;
+        this.clock = clock;
+        this.lastSweep = clock.currentTimeMillis();
+    }
+
+    /**
+     * Connect to a database, creating the tables if needed
+     *
+     * @param driver Driver class to load, empty if it registers itself
+     * @param url JDBC URL
+     * @param user User name
+     * @param password Password
+     * @param ttl Milliseconds a read is answered from the cache
+     * @param server Name of this server's row of stats
+     * @param clock Clock the cache is timed with
+     * @return Storage
+     * @throws IOException If the database can't be used
+     */
+    public static JdbcStorage open(String driver, String url, String user, String password, long ttl, String server, Clock clock) throws IOException {
+        try {
+            if (driver != null && driver.length() > 0) {
+                Class.forName(driver);
+            }
+
+            Connection connection = DriverManager.getConnection(url, user, password);
+            Statement statement = connection.createStatement();
+
+            try {
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+                        + "name VARCHAR(32) NOT NULL PRIMARY KEY, "
+                        + "generation INTEGER NOT NULL, "
+                        + "elapsed INTEGER NOT NULL, "
+                        + "last_updated BIGINT NOT NULL, "
+                        + "disabled INTEGER NOT NULL, "
+                        + "flags INTEGER NOT NULL)");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + STATS_TABLE + " ("
+                        + "server VARCHAR(64) NOT NULL PRIMARY KEY, "
+                        + "data BLOB NOT NULL)");
+            } finally {
+                statement.close();
+            }
+
+            connection.setAutoCommit(false);
+
+            return new JdbcStorage(connection, ttl, server, clock);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("JDBC driver " + driver + " not found, put its jar on the server's classpath", e);
+        } catch (SQLException e) {
+            throw new IOException("Could not open " + url, e);
+        }
+    }
+
+    /**
+     * Look up a player, from the cache if they were read recently
+     *
+     * @param playerName Player name
+     * @return Their data, or null if they have never been protected
+     * @throws IOException If the database could not be read
+     */
+    public PlayerData load(String playerName) throws IOException {
+        synchronized (this) {
+            Cached cached = cache.get(playerName);
+
+            if (cached != null && clock.currentTimeMillis() - cached.loaded < ttl) {
+                return cached.data == null ? null : cached.data.copy();
+            }
+        }
+
+        PlayerData data = read(playerName);
+
+        return data == null ? null : data.copy();
+    }
+
+    /**
+     * Read a player into the cache
+     * Always goes to the database, they may have played elsewhere since the last read
+     *
+     * @param playerName Player name
+     * @throws IOException If the database could not be read
+     */
+    public void prefetch(String playerName) throws IOException {
+        read(playerName);
+    }
+
+    /**
+     * Add this server's changes to the stored players in one transaction
+     *
+     * @param batch Copies of the changed entries
+     * @return 0, the database does not say
+     * @throws IOException If the batch could not be written
+     */
+    public long save(Map<String, PlayerData> batch) throws IOException {
+        synchronized (connection) {
+            ArrayList<String> added = new ArrayList<String>();
+            ArrayList<String> unmatched = new ArrayList<String>();
+            HashMap<String, Baseline> saved = new HashMap<String, Baseline>();
+
+            try {
+                PreparedStatement add = connection.prepareStatement("UPDATE " + TABLE
+                        + " SET elapsed = elapsed + ?, last_updated = ?, flags = ?,"
+                        + " disabled = CASE WHEN disabled = 1 OR ? = 1 THEN 1 ELSE 0 END"
+                        + " WHERE name = ? AND generation = ?");
+                PreparedStatement replace = connection.prepareStatement("UPDATE " + TABLE
+                        + " SET generation = ?, elapsed = ?, last_updated = ?, flags = ?, disabled = ?"
+                        + " WHERE name = ?");
+
+                try {
+                    for (Map.Entry<String, PlayerData> entry: batch.entrySet()) {
+                        String playerName = entry.getKey();
+                        PlayerData data = entry.getValue();
+                        Baseline baseline;
+
+                        synchronized (this) {
+                            baseline = baselines.get(playerName);
+                        }
+
+                        if (baseline == null) {
+                            unmatched.add(playerName);
+                        } else if (data.getResets() != baseline.resets) {
+                            // Reset here, the time from before no longer counts anywhere
+                            int generation = baseline.generation + 1;
+
+                            bindReplace(replace, playerName, data, generation);
+                            replace.addBatch();
+                            saved.put(playerName, new Baseline(generation, data.getTimeElapsed(), data.getResets()));
+                        } else {
+                            add.setInt(1, data.getTimeElapsed() - baseline.elapsed);
+                            add.setLong(2, data.getLastUpdated());
+                            add.setInt(3, data.getFlags() & ~PlayerDataFile.FLAG_DISABLED);
+                            add.setInt(4, data.isEnabled() ? 0 : 1);
+                            add.setString(5, playerName);
+                            add.setInt(6, baseline.generation);
+                            add.addBatch();
+                            added.add(playerName);
+                            saved.put(playerName, new Baseline(baseline.generation, data.getTimeElapsed(), data.getResets()));
+                        }
+                    }
+
+                    int[] counts = add.executeBatch();
+
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] == 0) {
+                            unmatched.add(added.get(i));
+                        }
+                    }
+
+                    replace.executeBatch();
+                } finally {
+                    add.close();
+                    replace.close();
+                }
+
+                for (String playerName: unmatched) {
+                    saveUnmatched(playerName, batch.get(playerName), saved);
+                }
+
+                connection.commit();
+            } catch (SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException ex) {
+                    log.log(Level.WARNING, "Exception while rolling back player data", ex);
+                }
+
+                throw new IOException("Could not save player data", e);
+            }
+
+            // Only count from the new state once it is committed
+            synchronized (this) {
+                long now = clock.currentTimeMillis();
+
+                for (Map.Entry<String, Baseline> entry: saved.entrySet()) {
+                    String playerName = entry.getKey();
+                    Cached cached = cache.get(playerName);
+
+                    baselines.put(playerName, entry.getValue());
+
+                    if (cached != null) {
+                        cached.data = batch.get(playerName).copy();
+                        cached.touched = now;
+                    }
+                }
+
+                sweep(now);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Read this server's row of stats
+     *
+     * @return Its bytes, or null if there is none yet
+     * @throws IOException If the database could not be read
+     */
+    public byte[] loadStats() throws IOException {
+        synchronized (connection) {
+            try {
+                byte[] stats = null;
+                PreparedStatement select = connection.prepareStatement("SELECT data FROM " + STATS_TABLE + " WHERE server = ?");
+
+                try {
+                    select.setString(1, server);
+
+                    ResultSet row = select.executeQuery();
+
+                    if (row.next()) {
+                        stats = row.getBytes(1);
+                    }
+
+                    row.close();
+                } finally {
+                    select.close();
+                }
+
+                connection.commit();
+
+                return stats;
+            } catch (SQLException e) {
+                throw new IOException("Could not read stats of " + server, e);
+            }
+        }
+    }
+
+    /**
+     * Replace this server's row of stats
+     *
+     * @param stats Bytes to write
+     * @throws IOException If the stats could not be written
+     */
+    public void saveStats(byte[] stats) throws IOException {
+        synchronized (connection) {
+            try {
+                PreparedStatement update = connection.prepareStatement("UPDATE " + STATS_TABLE + " SET data = ? WHERE server = ?");
+
+                try {
+                    update.setBytes(1, stats);
+                    update.setString(2, server);
+
+                    if (update.executeUpdate() == 0) {
+                        PreparedStatement insert = connection.prepareStatement("INSERT INTO " + STATS_TABLE + " (data, server) VALUES (?, ?)");
+
+                        try {
+                            insert.setBytes(1, stats);
+                            insert.setString(2, server);
+                            insert.executeUpdate();
+                        } finally {
+                            insert.close();
+                        }
+                    }
+                } finally {
+                    update.close();
+                }
+
+                connection.commit();
+            } catch (SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException ex) {
+                    log.log(Level.WARNING, "Exception while rolling back stats", ex);
+                }
+
+                throw new IOException("Could not save stats of " + server, e);
+            }
+        }
+    }
+
+    /**
+     * Close the connection
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        synchronized (connection) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                throw new IOException("Could not close the player database", e);
+            }
+        }
+    }
+
+    /**
+     * Read a player from the database into the cache
+     *
+     * @param playerName Player name
+     * @return Cached data, or null if unknown
+     * @throws IOException If the database could not be read
+     */
+    private PlayerData read(String playerName) throws IOException {
+        synchronized (connection) {
+            PlayerData data = null;
+            Baseline baseline = null;
+
+            try {
+                PreparedStatement select = connection.prepareStatement("SELECT generation, elapsed, last_updated, disabled, flags"
+                        + " FROM " + TABLE + " WHERE name = ?");
+
+                try {
+                    select.setString(1, playerName);
+
+                    ResultSet row = select.executeQuery();
+
+                    if (row.next()) {
+                        int flags = row.getInt(5) | (row.getInt(4) != 0 ? PlayerDataFile.FLAG_DISABLED : 0);
+
+                        data = new PlayerData(row.getInt(2), row.getLong(3), flags);
+                        baseline = new Baseline(row.getInt(1), row.getInt(2), 0);
+                    }
+
+                    row.close();
+                } finally {
+                    select.close();
+                }
+
+                connection.commit();
+            } catch (SQLException e) {
+                throw new IOException("Could not read player data of " + playerName, e);
+            }
+
+            synchronized (this) {
+                cache.put(playerName, new Cached(data, clock.currentTimeMillis()));
+
+                if (baseline != null) {
+                    baselines.put(playerName, baseline);
+                } else {
+                    baselines.remove(playerName);
+                }
+            }
+
+            return data;
+        }
+    }
+
+    /**
+     * Save a player whose row was not where their baseline said
+     * Either they are new, their baseline was dropped from the cache, or
+     * another server reset them
+     *
+     * @param playerName Player name
+     * @param data Data to save
+     * @param saved Baselines to use once committed
+     * @throws SQLException
+     */
+    private void saveUnmatched(String playerName, PlayerData data, HashMap<String, Baseline> saved) throws SQLException {
+        boolean known;
+        int generation = 0;
+
+        synchronized (this) {
+            known = baselines.containsKey(playerName);
+        }
+
+        PreparedStatement select = connection.prepareStatement("SELECT generation FROM " + TABLE + " WHERE name = ?");
+
+        try {
+            select.setString(1, playerName);
+
+            ResultSet row = select.executeQuery();
+
+            if (row.next()) {
+                generation = row.getInt(1);
+            } else {
+                PreparedStatement insert = connection.prepareStatement("INSERT INTO " + TABLE
+                        + " (generation, elapsed, last_updated, flags, disabled, name) VALUES (?, ?, ?, ?, ?, ?)");
+
+                try {
+                    bindReplace(insert, playerName, data, 0);
+                    insert.executeUpdate();
+                } finally {
+                    insert.close();
+                }
+
+                saved.put(playerName, new Baseline(0, data.getTimeElapsed(), data.getResets()));
+                row.close();
+
+                return;
+            }
+
+            row.close();
+        } finally {
+            select.close();
+        }
+
+        if (known) {
+            // Reset elsewhere since we read them, what was played here belongs to the old generation
+            log.log(Level.INFO, "Not saving Campfire time of " + playerName + ", they were reset on another server");
+            saved.remove(playerName);
+
+            synchronized (this) {
+                cache.remove(playerName);
+                baselines.remove(playerName);
+            }
+
+            return;
+        }
+
+        // They can only be online here, so this server's view is the newest
+        PreparedStatement replace = connection.prepareStatement("UPDATE " + TABLE
+                + " SET generation = ?, elapsed = ?, last_updated = ?, flags = ?, disabled = ? WHERE name = ?");
+
+        try {
+            bindReplace(replace, playerName, data, generation);
+            replace.executeUpdate();
+        } finally {
+            replace.close();
+        }
+
+        saved.put(playerName, new Baseline(generation, data.getTimeElapsed(), data.getResets()));
+    }
+
+    /**
+     * Set the parameters of a statement writing a whole row
+     * Parameter order: generation, elapsed, last_updated, flags, disabled, name
+     *
+     * @param statement Statement
+     * @param playerName Player name
+     * @param data Data to write
+     * @param generation Generation to write
+     * @throws SQLException
+     */
+    private static void bindReplace(PreparedStatement statement, String playerName, PlayerData data, int generation) throws SQLException {
+        statement.setInt(1, generation);
+        statement.setInt(2, data.getTimeElapsed());
+        statement.setLong(3, data.getLastUpdated());
+        statement.setInt(4, data.getFlags() & ~PlayerDataFile.FLAG_DISABLED);
+        statement.setInt(5, data.isEnabled() ? 0 : 1);
+        statement.setString(6, playerName);
+    }
+
+    /**
+     * Drop players that were neither read nor saved for a while
+     * Call while holding the lock
+     *
+     * @param now Current time in milliseconds
+     */
+    private void sweep(long now) {
+        if (now - lastSweep < ttl) {
+            return;
+        }
+
+        lastSweep = now;
+
+        for (Iterator<Map.Entry<String, Cached>> it = cache.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Cached> entry = it.next();
+
+            if (now - Math.max(entry.getValue().loaded, entry.getValue().touched) >= ttl) {
+                it.remove();
+                baselines.remove(entry.getKey());
+            }
+        }
+    }
+}
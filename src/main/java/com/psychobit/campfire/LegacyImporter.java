@@ -0,0 +1,76 @@
+package com.psychobit.campfire;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One-time import of the old serialized players.dat
+ *
+ * Converts the file to the binary format and reports how the two compare.
+ * The old file is kept next to the new one, renamed so it is not imported
+ * again.
+ *
+ * @author psychobit
+ *
+ */
+public class LegacyImporter {
+    /**
+     * Logger for exceptions.
+     */
+    private static final Logger log = Logger.getLogger("Minecraft");
+
+    /**
+     * Import a serialized players.dat
+     *
+     * @param legacy Old serialized file
+     * @param target Binary file to create
+     * @return Imported player data
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<String, PlayerData> importLegacy(File legacy, File target) throws IOException, ClassNotFoundException {
+        // Load the old format, timing it for the report
+        long start = System.nanoTime();
+        HashMap<String, PlayerData> data;
+        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(legacy)));
+
+        try {
+            data = (HashMap<String, PlayerData>) ois.readObject();
+        } finally {
+            ois.close();
+        }
+
+        long legacyNanos = System.nanoTime() - start;
+        long legacySize = legacy.length();
+
+        // Write the new format and read it back, which also verifies it
+        long size = PlayerDataFile.writeAtomic(target, data);
+
+        start = System.nanoTime();
+        HashMap<String, PlayerData> verify = PlayerDataFile.read(target);
+        long nanos = System.nanoTime() - start;
+
+        if (verify.size() != data.size()) {
+            log.log(Level.WARNING, "Imported " + verify.size() + " of " + data.size() + " players, the rest have names that do not fit the new format");
+        }
+
+        File backup = new File(legacy.getPath() + ".migrated");
+
+        if (!legacy.renameTo(backup)) {
+            log.log(Level.WARNING, "Could not rename " + legacy.getName() + " to " + backup.getName());
+        }
+
+        log.log(Level.INFO, "[Campfire] Imported " + verify.size() + " players from " + legacy.getName()
+                + ": " + legacySize / 1024 + " KB loaded in " + legacyNanos / 1000000 + " ms before, "
+                + size / 1024 + " KB loaded in " + nanos / 1000000 + " ms now");
+
+        return verify;
+    }
+}
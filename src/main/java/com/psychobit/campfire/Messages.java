@@ -0,0 +1,391 @@
+package com.psychobit.campfire;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Server;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * Player facing messages
+ *
+ * Templates are read once from messages_<language>.yml and rendered up
+ * front: colour codes translated, {prefix} filled in, lines split and
+ * placeholders located. Sending a message without arguments reuses the
+ * same strings every time.
+ *
+ * Notifications that repeat while a player keeps trying something (denied
+ * hits, blocked items, zone changes) are throttled per recipient and
+ * message, and the ones dropped are counted.
+ *
+ * Only used from the server thread.
+ *
+ * @author psychobit
+ *
+ */
+public class Messages {
+    /**
+     * Every message, with its default English text
+     * Use & for colours, \n between lines and {0}, {1}.. for arguments
+     */
+    public enum Key {
+        PREFIX("[&6PvP Protection&f] ", false),
+        USAGE("{prefix}Usage: \n/campfire terminate \n&7Removes your protection early\n/campfire timeleft [player] \n&7Gives the duration left for a player's protection", false),
+        ONLY_PLAYERS("Only in-game players can use this command!", false),
+        ONLY_OPS("&cOnly ops can use this command!", false),
+        TERMINATE_WARNING("{prefix}You will be vulnerable to PvP if you\nterminate your protection! If you understand the risk, \ntype '/campfire confirm' to terminate...", false),
+        TERMINATE_FIRST("{prefix}Use /campfire terminate first!", false),
+        TERMINATED("{prefix}{0} Terminated their protection!", false),
+        NOW_VULNERABLE("{prefix}You are now vulnerable!", false),
+        ALREADY_EXPIRED("Your protection has already expired!", false),
+        NEED_TARGET("You must specify a target!", false),
+        PLAYER_NOT_FOUND("&cPlayer not found!", false),
+        TIMELEFT_EXPIRED("{0}: protection expired!", false),
+        TIMELEFT("{0}: {1} min of protection left!", false),
+        STARTING("{prefix}Starting protection!\nType '/campfire' for info on PvP Protection", false),
+        EXPIRED("{prefix}Protection for {0} Expired!", false),
+        VULNERABLE("{prefix}You are vulnerable!", false),
+        EXPIRES_MINUTE("{prefix}Expires in {0} minute!", false),
+        EXPIRES_MINUTES("{prefix}Expires in {0} minutes!", false),
+        DEATH_RESET("&7[&6PvP Protection&7] You have died! Resetting Protection!", false),
+        ZONE_ENTER("{prefix}Entering protected zone.\nProtection timer paused!", true),
+        ZONE_LEAVE("{prefix}Leaving protected zone.\nProtection timer resumed!", true),
+        ATTACKER_PROTECTED("&7[&6PvP Protection&7] &cYou are under protection! No PvP!", true),
+        TARGET_PROTECTED("&7[&6PvP Protection&7] &cThis player is under protection! No PvP!", true),
+        NO_FLINT("{prefix}&cYou cannot use flint and steel!\nUse '/campfire terminate' to end your protection early!", true),
+        NO_LAVA("{prefix}&cYou cannot use lava buckets!\nUse '/campfire terminate' to end your protection early!", true),
+        NO_CHESTS("{prefix}&cYou cannot open or break chests!\nUse '/campfire terminate' to end your protection early!", true),
+        NO_BURNING("{prefix}&cPlayer is protected! No burning!", true),
+        NO_ITEM("{prefix}&cYou cannot use that while protected!\nUse '/campfire terminate' to end your protection early!", true),
+        NO_BLOCK("{prefix}&cYou cannot use that block while protected!\nUse '/campfire terminate' to end your protection early!", true),
+        REGIONS_DISABLED("WorldGuard areas are not enabled.", false),
+        REGIONS_CLEARED("Region cache cleared.", false),
+        REGIONS_STATS("{prefix}Region cache: {0} blocks, version {1}\nHits: {2}, misses: {3}, hit rate: {4}%\nAverage lookup: {5}ns hit, {6}ns miss", false),
+        MESSAGES_STATS("{prefix}Messages sent: {0}, suppressed: {1}", false),
+        STATS_HEADER("{prefix}Stats since enable, Flight Recorder events {0}", false),
+        STATS_TIMER("&7{0}: &f{1} calls, mean {2}us, p99 {3}us, max {4}us", false),
+        STATS_COUNTER("&7{0}: &f{1}", false),
+        STATS_TOP_USAGE("Usage: /campfire stats top <stat>\n&7Stats: {0}", false),
+        STATS_TOP_TOTAL("&7{0}: &f{1} last hour, {2} last day, {3} in all", false),
+        STATS_TOP_ENTRY("&7{0}. &f{1}: {2}", false),
+        STATS_TOP_NONE("Nobody has any {0} yet.", false),
+        AUDIT_USAGE("Usage: /campfire audit <player> [since] [until]\n&7Times are how long ago, e.g. 30m, 12h or 7d. Defaults to the last day", false),
+        AUDIT_DISABLED("The audit log is not enabled.", false),
+        AUDIT_HEADER("{prefix}{0} protection events for {1}, latest {2}:", false),
+        AUDIT_NONE("No protection events for {0} in that time.", false),
+        AUDIT_ATTACKER_PROTECTED("&7{0} &f{1} could not hit {2}, {1} is protected", false),
+        AUDIT_TARGET_PROTECTED("&7{0} &f{1} could not hit {2}, {2} is protected", false),
+        AUDIT_FLINT_BLOCKED("&7{0} &f{1} could not use flint and steel, protected", false),
+        AUDIT_LAVA_BLOCKED("&7{0} &f{1} could not use a lava bucket, protected", false),
+        AUDIT_CHEST_BLOCKED("&7{0} &f{1} could not open a chest, protected", false),
+        AUDIT_BURNING_BLOCKED("&7{0} &f{1} could not burn next to a protected player", false),
+        AUDIT_STARTED("&7{0} &f{1}'s protection started", false),
+        AUDIT_EXPIRED("&7{0} &f{1}'s protection expired after {3}s", false),
+        AUDIT_TERMINATED("&7{0} &f{1} terminated their protection after {3}s", false),
+        AUDIT_DEATH_RESET("&7{0} &f{1} died and got protection back after {3}s", false),
+        AUDIT_ITEM_BLOCKED("&7{0} &f{1} could not use item {3}, protected", false),
+        AUDIT_BLOCK_BLOCKED("&7{0} &f{1} could not use block {3}, protected", false),
+        RELOADED("{prefix}Rules reloaded: {0} prohibited items, {1} prohibited blocks, {2} buffer items, {3} damage sources", false),
+        POLICIES_REFRESHED("{prefix}Permissions refreshed for {0} players", false);
+
+        /**
+         * Text used when the file does not have one
+         */
+        private final String defaultText;
+        /**
+         * Are repeats within the throttle window dropped?
+         */
+        private final boolean throttled;
+
+        private Key(String defaultText, boolean throttled) {
+            this.defaultText = defaultText;
+            this.throttled = throttled;
+        }
+
+        /**
+         * Name of the message in the file
+         *
+         * @return Lower case name
+         */
+        public String path() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * A rendered message
+     */
+    private static class Template {
+        /**
+         * Text between placeholders, one more than args
+         */
+        private final String[] parts;
+        /**
+         * Argument index of each placeholder
+         */
+        private final int[] args;
+        /**
+         * Lines when there are no placeholders
+         */
+        private final String[] lines;
+
+        private Template(String[] parts, int[] args) {
+            this.parts = parts;
+            this.args = args;
+            this.lines = args.length == 0 ? parts[0].split("\n") : null;
+        }
+
+        /**
+         * Fill in the arguments
+         *
+         * @param values Arguments
+         * @return Lines to send
+         */
+        private String[] render(Object[] values) {
+            if (lines != null) {
+                return lines;
+            }
+
+            StringBuilder text = new StringBuilder(parts[0]);
+
+            for (int i = 0; i < args.length; i++) {
+                text.append(args[i] < values.length ? values[args[i]] : "");
+                text.append(parts[i + 1]);
+            }
+
+            return text.toString().split("\n");
+        }
+    }
+
+    /**
+     * Logger for exceptions.
+     */
+    private static final Logger log = Logger.getLogger("Minecraft");
+    /**
+     * Rendered templates by key ordinal
+     */
+    private final Template[] templates;
+    /**
+     * Milliseconds in which a throttled message is only sent once
+     */
+    private final long window;
+    /**
+     * Clock the window is timed with
+     */
+    private final Clock clock;
+    /**
+     * When each recipient was last sent each throttled message, by key ordinal
+     */
+    private final HashMap<String, long[]> lastSent = new HashMap<String, long[]>();
+    /**
+     * Messages sent
+     */
+    private long sent;
+    /**
+     * Throttled messages dropped
+     */
+    private long suppressed;
+    /**
+     * Drops per key ordinal
+     */
+    private final long[] suppressedByKey;
+
+    /**
+     * Load the messages of a language, writing missing ones to its file
+     *
+     * @param dataFolder Plugin data folder
+     * @param language Language code, e.g. "en"
+     * @param window Milliseconds in which a throttled message is only sent once
+     * @param clock Clock the window is timed with
+     */
+    public Messages(File dataFolder, String language, long window, Clock clock) {
+        Key[] keys = Key.values();
+        File file = new File(dataFolder, "messages_" + language + ".yml");
+        YamlConfiguration config = file.exists() ? YamlConfiguration.loadConfiguration(file) : new YamlConfiguration();
+        boolean changed = false;
+
+        for (Key key: keys) {
+            if (!config.isString(key.path())) {
+                config.set(key.path(), key.defaultText);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            try {
+                dataFolder.mkdirs();
+                config.save(file);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Exception while saving " + file.getName(), e);
+            }
+        }
+
+        String prefix = color(config.getString(Key.PREFIX.path()));
+
+        this.templates = new Template[keys.length];
+        this.window = window;
+        this.clock = clock;
+        this.suppressedByKey = new long[keys.length];
+
+        for (Key key: keys) {
+            templates[key.ordinal()] = compile(color(config.getString(key.path())).replace("{prefix}", prefix));
+        }
+    }
+
+    /**
+     * Send a message
+     *
+     * @param to Recipient
+     * @param key Message
+     * @param args Arguments for the placeholders
+     */
+    public void send(CommandSender to, Key key, Object... args) {
+        if (key.throttled && throttle(to.getName(), key)) {
+            return;
+        }
+
+        sent++;
+        to.sendMessage(templates[key.ordinal()].render(args));
+    }
+
+    /**
+     * Send a message to everyone online
+     *
+     * @param server Server
+     * @param key Message
+     * @param args Arguments for the placeholders
+     */
+    public void broadcast(Server server, Key key, Object... args) {
+        sent++;
+
+        for (String line: templates[key.ordinal()].render(args)) {
+            server.broadcastMessage(line);
+        }
+    }
+
+    /**
+     * Drop the throttle state of a player who left
+     *
+     * @param name Recipient name
+     */
+    public void forget(String name) {
+        lastSent.remove(name);
+    }
+
+    /**
+     * Get the number of messages sent
+     *
+     * @return Messages, a multi-line message counts once
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * Get the number of throttled messages dropped
+     *
+     * @return Messages
+     */
+    public long getSuppressed() {
+        return suppressed;
+    }
+
+    /**
+     * Get the number of drops of one message
+     *
+     * @param key Message
+     * @return Messages
+     */
+    public long getSuppressed(Key key) {
+        return suppressedByKey[key.ordinal()];
+    }
+
+    /**
+     * Was this message sent to this recipient within the window?
+     * Records the send if it was not
+     *
+     * @param name Recipient name
+     * @param key Message
+     * @return True if it should be dropped
+     */
+    private boolean throttle(String name, Key key) {
+        long now = clock.currentTimeMillis();
+        long[] times = lastSent.get(name);
+
+        if (times == null) {
+            times = new long[templates.length];
+            lastSent.put(name, times);
+        } else if (now - times[key.ordinal()] < window) {
+            suppressed++;
+            suppressedByKey[key.ordinal()]++;
+
+            return true;
+        }
+
+        times[key.ordinal()] = now;
+
+        return false;
+    }
+
+    /**
+     * Translate & colour codes
+     *
+     * @param text Text from the file
+     * @return Text with colours
+     */
+    private static String color(String text) {
+        return ChatColor.translateAlternateColorCodes('&', text);
+    }
+
+    /**
+     * Locate the placeholders of a message
+     *
+     * @param text Message with colours and prefix in place
+     * @return Template
+     */
+    private static Template compile(String text) {
+        ArrayList<String> parts = new ArrayList<String>();
+        ArrayList<Integer> args = new ArrayList<Integer>();
+        StringBuilder part = new StringBuilder();
+        int start = 0;
+        int open;
+
+        while ((open = text.indexOf('{', start)) != -1) {
+            int close = text.indexOf('}', open);
+
+            if (close == -1) {
+                break;
+            }
+
+            part.append(text, start, open);
+
+            try {
+                args.add(Integer.parseInt(text.substring(open + 1, close)));
+                parts.add(part.toString());
+                part.setLength(0);
+            } catch (NumberFormatException e) {
+                // Not a placeholder, keep it as text
+                part.append(text, open, close + 1);
+            }
+
+            start = close + 1;
+        }
+
+        part.append(text, start, text.length());
+        parts.add(part.toString());
+
+        int[] argIndexes = new int[args.size()];
+
+        for (int i = 0; i < argIndexes.length; i++) {
+            argIndexes[i] = args.get(i);
+        }
+
+        return new Template(parts.toArray(new String[parts.size()]), argIndexes);
+    }
+}
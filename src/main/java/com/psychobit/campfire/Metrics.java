@@ -0,0 +1,455 @@
+package com.psychobit.campfire;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Latency histograms and counters for Campfire's hot paths
+ *
+ * Latencies go into power of two buckets of nanoseconds, so recording is a
+ * couple of atomic increments and percentiles are accurate to a factor of
+ * two. Each timing and each counter is also reported to Java Flight
+ * Recorder when the JVM has it.
+ *
+ * Safe to use from any thread.
+ *
+ * @author psychobit
+ *
+ */
+public class Metrics {
+    /**
+     * Timed operations
+     */
+    public enum Timer {
+        UPDATE_PLAYER_DATA("updatePlayerData"),
+        UPDATE_TICK("updateTick"),
+        SAVE_DATA("saveData"),
+        WRITE("write"),
+        LOAD_DATA("loadData"),
+        ENTITY_DAMAGE("onEntityDamage"),
+        PLAYER_INTERACT("onPlayerInteract"),
+        REGION_LOOKUP("worldGuardLookup"),
+        ZONE_WORKER("zoneWorker"),
+        PUBLISH_PROTECTIONS("publishProtections");
+
+        private final String label;
+
+        private Timer(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Name shown in stats and recordings
+         *
+         * @return Label
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Counted things
+     */
+    public enum Counter {
+        HITS_CANCELLED("hitsCancelled"),
+        INTERACTS_CANCELLED("interactsCancelled"),
+        SAVES("saves"),
+        RECORDS_SAVED("recordsSaved"),
+        BYTES_WRITTEN("bytesWritten"),
+        UPDATES_CARRIED("updatesCarried"),
+        ZONE_PASSES_SKIPPED("zonePassesSkipped"),
+        ZONE_CHECKS("zoneChecks"),
+        JOINS_CACHED("joinsCached"),
+        JOINS_LOADED("joinsLoaded"),
+        AUDIT_DROPPED("auditDropped"),
+        POLICIES_RESOLVED("policiesResolved");
+
+        private final String label;
+
+        private Counter(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Name shown in stats and recordings
+         *
+         * @return Label
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * One bucket per bit of a long
+     */
+    private static final int BUCKETS = 64;
+    /**
+     * Logger for exceptions.
+     */
+    private static final Logger log = Logger.getLogger("Minecraft");
+    /**
+     * Is Flight Recorder there to report to?
+     */
+    private static final boolean FLIGHT_RECORDER = flightRecorderAvailable();
+    /**
+     * Counts per timer and bucket, timer-major
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(Timer.values().length * BUCKETS);
+    /**
+     * Total nanoseconds per timer
+     */
+    private final AtomicLongArray totals = new AtomicLongArray(Timer.values().length);
+    /**
+     * Longest time per timer
+     */
+    private final AtomicLongArray maxima = new AtomicLongArray(Timer.values().length);
+    /**
+     * Longest time per timer since the last dump
+     */
+    private final AtomicLongArray dumpMaxima = new AtomicLongArray(Timer.values().length);
+    /**
+     * Value per counter
+     */
+    private final AtomicLong[] counters = new AtomicLong[Counter.values().length];
+    /**
+     * Timers as of the last dump
+     * Guarded by this
+     */
+    private Snapshot[] lastDump;
+    /**
+     * Counters as of the last dump
+     * Guarded by this
+     */
+    private long[] lastDumpCounters = new long[Counter.values().length];
+    /**
+     * When the last dump was written
+     * Guarded by this
+     */
+    private long lastDumpTime = System.currentTimeMillis();
+
+    /**
+     * Create empty metrics
+     */
+    public Metrics() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new AtomicLong();
+        }
+
+        if (FLIGHT_RECORDER) {
+            try {
+                FlightEvents.register(this);
+            } catch (Throwable e) {
+                log.log(Level.WARNING, "Could not register Campfire Flight Recorder events", e);
+            }
+        }
+    }
+
+    /**
+     * Record the time since a start
+     *
+     * @param timer Operation
+     * @param start System.nanoTime() when it started
+     */
+    public void time(Timer timer, long start) {
+        record(timer, System.nanoTime() - start);
+    }
+
+    /**
+     * Record how long something took
+     *
+     * @param timer Operation
+     * @param nanos Nanoseconds
+     */
+    public void record(Timer timer, long nanos) {
+        int t = timer.ordinal();
+
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        buckets.incrementAndGet(t * BUCKETS + bucket(nanos));
+        totals.addAndGet(t, nanos);
+
+        long max;
+
+        while (nanos > (max = maxima.get(t)) && !maxima.compareAndSet(t, max, nanos)) {
+        }
+
+        while (nanos > (max = dumpMaxima.get(t)) && !dumpMaxima.compareAndSet(t, max, nanos)) {
+        }
+
+        if (FLIGHT_RECORDER) {
+            FlightEvents.operation(timer, nanos);
+        }
+    }
+
+    /**
+     * Add one to a counter
+     *
+     * @param counter Counter
+     */
+    public void count(Counter counter) {
+        counters[counter.ordinal()].incrementAndGet();
+    }
+
+    /**
+     * Add to a counter
+     *
+     * @param counter Counter
+     * @param delta Amount
+     */
+    public void count(Counter counter, long delta) {
+        counters[counter.ordinal()].addAndGet(delta);
+    }
+
+    /**
+     * Get a counter's value
+     *
+     * @param counter Counter
+     * @return Value
+     */
+    public long get(Counter counter) {
+        return counters[counter.ordinal()].get();
+    }
+
+    /**
+     * Copy the current state of a timer
+     *
+     * @param timer Operation
+     * @return Snapshot
+     */
+    public Snapshot snapshot(Timer timer) {
+        int t = timer.ordinal();
+        long[] counts = new long[BUCKETS];
+
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = buckets.get(t * BUCKETS + b);
+        }
+
+        return new Snapshot(counts, totals.get(t), maxima.get(t));
+    }
+
+    /**
+     * Append what happened since the last dump to a file
+     * Moves the file to .old first once it is over maxSize
+     *
+     * @param file Destination
+     * @param maxSize Bytes
+     * @throws IOException
+     */
+    public synchronized void dump(File file, long maxSize) throws IOException {
+        Timer[] timers = Timer.values();
+        Counter[] names = Counter.values();
+        Snapshot[] now = new Snapshot[timers.length];
+        long time = System.currentTimeMillis();
+
+        for (Timer timer: timers) {
+            now[timer.ordinal()] = snapshot(timer);
+        }
+
+        if (lastDump == null) {
+            lastDump = new Snapshot[timers.length];
+
+            for (Timer timer: timers) {
+                lastDump[timer.ordinal()] = new Snapshot(new long[BUCKETS], 0, 0);
+            }
+        }
+
+        if (file.length() > maxSize) {
+            File old = new File(file.getPath() + ".old");
+
+            old.delete();
+            file.renameTo(old);
+        }
+
+        PrintWriter out = new PrintWriter(new FileWriter(file, true));
+
+        try {
+            out.println("# " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(time))
+                    + ", last " + ((time - lastDumpTime) / 1000) + "s");
+
+            for (Timer timer: timers) {
+                Snapshot interval = now[timer.ordinal()].since(lastDump[timer.ordinal()], dumpMaxima.getAndSet(timer.ordinal(), 0));
+
+                out.println(timer.getLabel() + " " + interval.describe());
+            }
+
+            StringBuilder line = new StringBuilder();
+
+            for (Counter counter: names) {
+                long value = get(counter);
+
+                line.append(counter.getLabel()).append('=').append(value - lastDumpCounters[counter.ordinal()]).append(' ');
+                lastDumpCounters[counter.ordinal()] = value;
+            }
+
+            out.println(line.toString().trim());
+        } finally {
+            out.close();
+        }
+
+        lastDump = now;
+        lastDumpTime = time;
+    }
+
+    /**
+     * Stop reporting counters to Flight Recorder
+     */
+    public void close() {
+        if (FLIGHT_RECORDER) {
+            try {
+                FlightEvents.unregister(this);
+            } catch (Throwable e) {
+                log.log(Level.WARNING, "Could not remove Campfire Flight Recorder events", e);
+            }
+        }
+    }
+
+    /**
+     * Is Flight Recorder reporting enabled?
+     *
+     * @return True if the JVM has Flight Recorder
+     */
+    public static boolean isFlightRecorderAvailable() {
+        return FLIGHT_RECORDER;
+    }
+
+    /**
+     * Point in time copy of a timer
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long total;
+        private final long max;
+
+        private Snapshot(long[] counts, long total, long max) {
+            this.counts = counts;
+            this.total = total;
+            this.max = max;
+        }
+
+        /**
+         * Everything recorded since an earlier snapshot of the same timer
+         *
+         * @param earlier Earlier snapshot
+         * @param max Longest time since the earlier snapshot
+         * @return Difference
+         */
+        public Snapshot since(Snapshot earlier, long max) {
+            long[] diff = new long[BUCKETS];
+
+            for (int b = 0; b < BUCKETS; b++) {
+                diff[b] = counts[b] - earlier.counts[b];
+            }
+
+            return new Snapshot(diff, total - earlier.total, max);
+        }
+
+        /**
+         * Number of timings
+         *
+         * @return Count
+         */
+        public long getCount() {
+            long count = 0;
+
+            for (long c: counts) {
+                count += c;
+            }
+
+            return count;
+        }
+
+        /**
+         * Average time
+         *
+         * @return Nanoseconds
+         */
+        public long getMean() {
+            long count = getCount();
+
+            return count == 0 ? 0 : total / count;
+        }
+
+        /**
+         * Longest time
+         *
+         * @return Nanoseconds
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * One line summary in microseconds
+         *
+         * @return Count, mean, p50, p99 and max
+         */
+        public String describe() {
+            return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus", getCount(),
+                    getMean() / 1000.0, getPercentile(50) / 1000.0, getPercentile(99) / 1000.0, max / 1000.0);
+        }
+
+        /**
+         * Upper bound of the bucket a percentile falls in
+         *
+         * @param percentile Between 0 and 100
+         * @return Nanoseconds
+         */
+        public long getPercentile(double percentile) {
+            long count = getCount();
+
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += counts[b];
+
+                if (seen >= rank) {
+                    return Math.min(max, (1L << b) - 1);
+                }
+            }
+
+            return max;
+        }
+    }
+
+    /**
+     * Bucket of a time: the number of bits it needs
+     *
+     * @param nanos Nanoseconds, not negative
+     * @return Bucket index
+     */
+    private static int bucket(long nanos) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * Check for the Flight Recorder API without loading anything that needs it
+     *
+     * @return True if jdk.jfr is there
+     */
+    private static boolean flightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.psychobit.campfire;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Player data of players who are about to join or just left
+ *
+ * Data read while a player logs in waits here for their join event, so the
+ * join never reads storage. Players who quit stay for a grace period, so
+ * reconnecting does not read it either. Whichever of the two is newer is
+ * used.
+ *
+ * arrived() may be called from any thread, everything else only from the
+ * server thread.
+ *
+ * @author psychobit
+ *
+ */
+public class PlayerCache {
+    /**
+     * Data of a player who is not online
+     */
+    public static class Entry {
+        private final PlayerData data;
+        private final long time;
+
+        private Entry(PlayerData data, long time) {
+            this.data = data;
+            this.time = time;
+        }
+
+        /**
+         * Get the data
+         *
+         * @return Their data, or null if they have never been protected
+         */
+        public PlayerData getData() {
+            return data;
+        }
+    }
+
+    /**
+     * Nanoseconds to wait for the join of a player read while logging in
+     */
+    private static final long ARRIVAL_TIMEOUT = 60 * 1000000000L;
+    /**
+     * Players read while logging in
+     */
+    private final ConcurrentHashMap<String, Entry> arrivals = new ConcurrentHashMap<String, Entry>();
+    /**
+     * Players who quit, oldest first
+     */
+    private final LinkedHashMap<String, Entry> departures = new LinkedHashMap<String, Entry>();
+    /**
+     * Nanoseconds entries are kept
+     */
+    private final long grace;
+    /**
+     * Clock the entries are timed with
+     */
+    private final Clock clock;
+
+    /**
+     * Create an empty cache
+     *
+     * @param grace Milliseconds to keep players who quit
+     * @param clock Clock the entries are timed with
+     */
+    public PlayerCache(long grace, Clock clock) {
+        this.grace = grace * 1000000L;
+        this.clock = clock;
+    }
+
+    /**
+     * Keep data read for a player who is logging in
+     *
+     * @param playerName Player name
+     * @param data Their data, or null if they have never been protected
+     */
+    public void arrived(String playerName, PlayerData data) {
+        arrivals.put(playerName, new Entry(data, clock.nanoTime()));
+    }
+
+    /**
+     * Keep the data of a player who quit
+     *
+     * @param playerName Player name
+     * @param data Their data
+     */
+    public void departed(String playerName, PlayerData data) {
+        departures.remove(playerName);
+        departures.put(playerName, new Entry(data, clock.nanoTime()));
+    }
+
+    /**
+     * Take the newest data kept for a player who is joining
+     *
+     * @param playerName Player name
+     * @return Entry, or null if nothing is kept
+     */
+    public Entry take(String playerName) {
+        Entry arrival = arrivals.remove(playerName);
+        Entry departure = departures.remove(playerName);
+
+        if (arrival == null) {
+            return departure;
+        }
+
+        if (departure == null) {
+            return arrival;
+        }
+
+        // Read before they left is older than what they left with
+        return arrival.time - departure.time > 0 ? arrival : departure;
+    }
+
+    /**
+     * Drop players who quit longer than the grace period ago, and logins
+     * that never became a join
+     */
+    public void expire() {
+        long now = clock.nanoTime();
+
+        for (Iterator<Entry> it = departures.values().iterator(); it.hasNext();) {
+            if (now - it.next().time < grace) {
+                break; // The rest are newer
+            }
+
+            it.remove();
+        }
+
+        for (Iterator<Map.Entry<String, Entry>> it = arrivals.entrySet().iterator(); it.hasNext();) {
+            if (now - it.next().getValue().time >= ARRIVAL_TIMEOUT) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Number of players kept
+     *
+     * @return Entries
+     */
+    public int size() {
+        return arrivals.size() + departures.size();
+    }
+}
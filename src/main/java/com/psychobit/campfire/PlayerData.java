@@ -1,10 +1,22 @@
 package com.psychobit.campfire;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Holds data about players' campfire time
  *
+ * Everything is packed into one long that is replaced by compare and set,
+ * so the data can be read and changed from any thread and a reader always
+ * sees the fields of a single state. From the low bit up: the record flags
+ * as defined in PlayerDataFile (3 bits), the time elapsed (27 bits) and the
+ * last updated time in seconds (33 bits).
+ *
  * @author psychobit
  *
  */
@@ -15,31 +27,84 @@ public class PlayerData implements Serializable {
      */
     private static final long serialVersionUID = -295825367226483171L;
     /**
-     * Timestamp of the last update
+     * Fields of the serialized form, kept from before the state was packed
+     * so the old players.dat can still be imported
      */
-    private long lastUpdated;
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("lastUpdated", long.class),
+        new ObjectStreamField("inProtectedZone", boolean.class),
+        new ObjectStreamField("timeElapsed", int.class),
+        new ObjectStreamField("disabled", boolean.class),
+        new ObjectStreamField("confirm", boolean.class)
+    };
     /**
-     * Is the player in a protected zone?
+     * Bits of the state used for the flags
+     */
+    private static final int FLAG_BITS = 3;
+    /**
+     * Bits of the state used for the time elapsed
      */
-    private boolean inProtectedZone;
+    private static final int ELAPSED_BITS = 27;
     /**
-     * Amount of time campfire has been enabled so far
+     * Largest time elapsed that fits, a little over four years
      */
-    private int timeElapsed;
+    private static final int MAX_ELAPSED = (1 << ELAPSED_BITS) - 1;
+    /**
+     * Largest last updated time that fits, in the year 2242
+     */
+    private static final long MAX_TIME = (1L << (64 - 1 - FLAG_BITS - ELAPSED_BITS)) - 1;
+    private static final AtomicLongFieldUpdater<PlayerData> STATE = AtomicLongFieldUpdater.newUpdater(PlayerData.class, "state");
+    private static final AtomicIntegerFieldUpdater<PlayerData> RESETS = AtomicIntegerFieldUpdater.newUpdater(PlayerData.class, "resets");
+    /**
+     * Flags, time elapsed and last updated time
+     */
+    private transient volatile long state;
+    /**
+     * Times this data was reset since it was loaded
+     * Not stored, tells a shared storage a reset from elapsed time going down
+     */
+    private transient volatile int resets;
+    /**
+     * What protection means for the player while they are online
+     * Not stored, resolved again from their permissions
+     */
+    private transient volatile PlayerPolicy policy;
+
     /**
-     * Whether or not campfire is enabled for this person
+     * Create data for a new player
      */
-    private boolean disabled;
+    public PlayerData() {
+    }
+
     /**
-     * Whether or not the player has confirmed campfire termination
+     * Recreate data from a stored record
+     *
+     * @param timeElapsed Time elapsed so far
+     * @param lastUpdated Timestamp of the last update
+     * @param flags Record flags as defined in PlayerDataFile
      */
-    private boolean confirm;
+    PlayerData(int timeElapsed, long lastUpdated, int flags) {
+        this.state = pack(flags, timeElapsed, lastUpdated);
+    }
 
     /**
      * Set the last updated time
      */
     public void setUpdateTime() {
-        lastUpdated = (System.currentTimeMillis() / 1000);
+        setUpdateTime(now());
+    }
+
+    /**
+     * Set the last updated time
+     *
+     * @param time Timestamp in seconds
+     */
+    public void setUpdateTime(long time) {
+        long current;
+
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, pack(flags(current), elapsed(current), time)));
     }
 
     /**
@@ -48,7 +113,7 @@ public class PlayerData implements Serializable {
      * @return Time player was last updated
      */
     public long getLastUpdated() {
-        return lastUpdated;
+        return lastUpdated(state);
     }
 
     /**
@@ -57,7 +122,7 @@ public class PlayerData implements Serializable {
      * @return
      */
     public boolean inProtectedZone() {
-        return inProtectedZone;
+        return (state & PlayerDataFile.FLAG_PROTECTED_ZONE) != 0;
     }
 
     /**
@@ -66,7 +131,7 @@ public class PlayerData implements Serializable {
      * @return Time elapsed
      */
     public int getTimeElapsed() {
-        return timeElapsed;
+        return elapsed(state);
     }
 
     /**
@@ -75,7 +140,7 @@ public class PlayerData implements Serializable {
      * @return Campfire enabled
      */
     public boolean isEnabled() {
-        return !disabled;
+        return (state & PlayerDataFile.FLAG_DISABLED) == 0;
     }
 
     /**
@@ -84,7 +149,7 @@ public class PlayerData implements Serializable {
      * @param enabled
      */
     public void setEnabled(boolean enabled) {
-        disabled = !enabled;
+        setFlag(PlayerDataFile.FLAG_DISABLED, !enabled);
     }
 
     /**
@@ -93,42 +158,115 @@ public class PlayerData implements Serializable {
      * @param enabled
      */
     public void setProtectedZone(boolean enabled) {
-        inProtectedZone = enabled;
+        setFlag(PlayerDataFile.FLAG_PROTECTED_ZONE, enabled);
     }
 
     /**
      * Update the player's elapsed time
      */
     public void update() {
-        if (disabled) {
-            return;
-        }
-        
-        long currentTime = (System.currentTimeMillis() / 1000);
-        int inc = (int) (currentTime - lastUpdated);
-        
-        timeElapsed += inc;
-        lastUpdated = (System.currentTimeMillis() / 1000);
+        update(now());
+    }
+
+    /**
+     * Update the player's elapsed time up to a given time
+     * Time never counts twice: the last updated time only moves forward
+     *
+     * @param time Timestamp in seconds
+     */
+    public void update(long time) {
+        long current;
+        long next;
+
+        do {
+            current = state;
+
+            if ((current & PlayerDataFile.FLAG_DISABLED) != 0) {
+                return;
+            }
+
+            long last = lastUpdated(current);
+            long inc = Math.max(0, time - last);
+
+            next = pack(flags(current), (int) Math.min(MAX_ELAPSED, elapsed(current) + inc), Math.max(last, time));
+        } while (!STATE.compareAndSet(this, current, next));
     }
 
     /**
      * Reset the player
      */
     public void reset() {
-        timeElapsed = 0;
-        disabled = false;
-        inProtectedZone = false;
-        confirm = false;
-        
-        setEnabled(true);
-        setUpdateTime();
+        reset(now());
+    }
+
+    /**
+     * Reset the player
+     *
+     * @param time Timestamp in seconds to start counting from
+     */
+    public void reset(long time) {
+        state = pack(0, 0, time);
+        RESETS.incrementAndGet(this);
+    }
+
+    /**
+     * Get the boolean state packed into record flags
+     *
+     * @return Flags as defined in PlayerDataFile
+     */
+    public int getFlags() {
+        return flags(state);
+    }
+
+    /**
+     * Copy the player's data
+     * Used to hand a snapshot to the background writer
+     *
+     * @return Independent copy of this data
+     */
+    public PlayerData copy() {
+        PlayerData data = new PlayerData();
+        data.state = state;
+        data.resets = resets;
+        data.policy = policy;
+
+        return data;
+    }
+
+    /**
+     * Get the number of resets since the data was loaded
+     *
+     * @return Resets
+     */
+    public int getResets() {
+        return resets;
+    }
+
+    /**
+     * Get what protection means for the player
+     *
+     * @return Policy, the default until one is resolved
+     */
+    public PlayerPolicy getPolicy() {
+        PlayerPolicy current = policy;
+
+        return current == null ? PlayerPolicy.DEFAULT : current;
+    }
+
+    /**
+     * Set what protection means for the player
+     *
+     * @param policy Policy resolved from their permissions
+     */
+    public void setPolicy(PlayerPolicy policy) {
+        this.policy = policy;
     }
 
     /**
      * Set confirmation as available
      */
     public void setConfirmed() {
-        confirm = true;
+        setFlag(PlayerDataFile.FLAG_CONFIRM, true);
     }
 
     /**
@@ -137,6 +275,88 @@ public class PlayerData implements Serializable {
      * @return
      */
     public boolean confirmed() {
-        return confirm;
+        return (state & PlayerDataFile.FLAG_CONFIRM) != 0;
+    }
+
+    /**
+     * Turn a flag on or off
+     *
+     * @param flag Flag as defined in PlayerDataFile
+     * @param on New value
+     */
+    private void setFlag(int flag, boolean on) {
+        long current;
+
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, on ? current | flag : current & ~flag));
+    }
+
+    /**
+     * Current time in seconds
+     *
+     * @return Timestamp
+     */
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * Pack fields into a state
+     * Values that don't fit are clamped
+     *
+     * @param flags Record flags
+     * @param elapsed Time elapsed
+     * @param lastUpdated Timestamp in seconds
+     * @return State
+     */
+    private static long pack(int flags, int elapsed, long lastUpdated) {
+        long e = Math.max(0, Math.min(MAX_ELAPSED, elapsed));
+        long t = Math.max(0, Math.min(MAX_TIME, lastUpdated));
+
+        return (t << (FLAG_BITS + ELAPSED_BITS)) | (e << FLAG_BITS) | (flags & ((1 << FLAG_BITS) - 1));
+    }
+
+    private static int flags(long state) {
+        return (int) (state & ((1 << FLAG_BITS) - 1));
+    }
+
+    private static int elapsed(long state) {
+        return (int) ((state >>> FLAG_BITS) & MAX_ELAPSED);
+    }
+
+    private static long lastUpdated(long state) {
+        return state >>> (FLAG_BITS + ELAPSED_BITS);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        long current = state;
+        ObjectOutputStream.PutField fields = out.putFields();
+
+        fields.put("lastUpdated", lastUpdated(current));
+        fields.put("inProtectedZone", (current & PlayerDataFile.FLAG_PROTECTED_ZONE) != 0);
+        fields.put("timeElapsed", elapsed(current));
+        fields.put("disabled", (current & PlayerDataFile.FLAG_DISABLED) != 0);
+        fields.put("confirm", (current & PlayerDataFile.FLAG_CONFIRM) != 0);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        int flags = 0;
+
+        if (fields.get("disabled", false)) {
+            flags |= PlayerDataFile.FLAG_DISABLED;
+        }
+
+        if (fields.get("inProtectedZone", false)) {
+            flags |= PlayerDataFile.FLAG_PROTECTED_ZONE;
+        }
+
+        if (fields.get("confirm", false)) {
+            flags |= PlayerDataFile.FLAG_CONFIRM;
+        }
+
+        state = pack(flags, fields.get("timeElapsed", 0), fields.get("lastUpdated", 0L));
     }
-}
\ No newline at end of file
+}
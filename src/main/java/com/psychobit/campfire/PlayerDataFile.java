@@ -0,0 +1,485 @@
+package com.psychobit.campfire;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary format for player data
+ *
+ * Layout:
+ * Header (32 bytes) - magic, version, record size, records per block,
+ * record count, header checksum
+ * Blocks - BLOCK_RECORDS fixed width records followed by a CRC32 of those
+ * records. Slots past the record count are zero.
+ *
+ * Record (32 bytes) - key length, key (16 bytes, zero padded),
+ * timeElapsed, lastUpdated, flags, 16 bit record check
+ *
+ * Every record sits at a fixed offset, so the file can be streamed or
+ * memory mapped (see PlayerStore). A block that fails its checksum falls
+ * back to the per record checks, so corruption only loses the records it
+ * actually hit.
+ *
+ * Version 1 files (partial last block, no record check) are still read.
+ *
+ * @author psychobit
+ *
+ */
+public class PlayerDataFile {
+    /**
+     * Logger for exceptions.
+     */
+    private static final Logger log = Logger.getLogger("Minecraft");
+    /**
+     * "CFPD"
+     */
+    public static final int MAGIC = 0x43465044;
+    /**
+     * Current format version
+     */
+    public static final int VERSION = 2;
+    /**
+     * Size of the file header in bytes
+     */
+    public static final int HEADER_SIZE = 32;
+    /**
+     * Size of a single record in bytes
+     */
+    public static final int RECORD_SIZE = 32;
+    /**
+     * Records per checksummed block
+     */
+    public static final int BLOCK_RECORDS = 256;
+    /**
+     * Size of a block including its checksum
+     */
+    public static final int BLOCK_SIZE = BLOCK_RECORDS * RECORD_SIZE + 4;
+    /**
+     * Longest key a record can hold, in bytes
+     * Minecraft names are at most 16 characters
+     */
+    public static final int MAX_KEY = 16;
+    /**
+     * Record flag: protection disabled
+     */
+    public static final int FLAG_DISABLED = 1;
+    /**
+     * Record flag: in a protected zone
+     */
+    public static final int FLAG_PROTECTED_ZONE = 2;
+    /**
+     * Record flag: termination confirmation pending
+     */
+    public static final int FLAG_CONFIRM = 4;
+    /**
+     * Offset of the record check, which covers the bytes before it
+     */
+    private static final int CHECK_OFFSET = RECORD_SIZE - 2;
+    /**
+     * Keys are stored as UTF-8
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Write all entries to a file
+     *
+     * @param file Destination
+     * @param data Entries to write
+     * @return Number of bytes written
+     * @throws IOException
+     */
+    public static long write(File file, Map<String, PlayerData> data) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+
+        try {
+            // Count what can actually be stored first, the header holds the total
+            int count = 0;
+
+            for (String key: data.keySet()) {
+                if (encodeKey(key) != null) {
+                    count++;
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            putHeader(header, count);
+            out.write(header.array());
+
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_RECORDS * RECORD_SIZE);
+            CRC32 crc = new CRC32();
+            int slot = 0;
+
+            for (Map.Entry<String, PlayerData> entry: data.entrySet()) {
+                byte[] key = encodeKey(entry.getKey());
+
+                if (key == null) {
+                    log.log(Level.WARNING, "Not saving player data for \"" + entry.getKey() + "\": name is longer than " + MAX_KEY + " bytes");
+
+                    continue;
+                }
+
+                putRecord(block, slot * RECORD_SIZE, key, entry.getValue());
+
+                if (++slot == BLOCK_RECORDS) {
+                    flushBlock(out, block, crc);
+                    slot = 0;
+                }
+            }
+
+            if (slot > 0) {
+                flushBlock(out, block, crc);
+            }
+
+            out.flush();
+
+            return out.size();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write all entries to a temporary file and move it over the real one
+     * A crash mid-write leaves the previous file untouched
+     *
+     * @param file Destination
+     * @param data Entries to write
+     * @return Number of bytes written
+     * @throws IOException
+     */
+    public static long writeAtomic(File file, Map<String, PlayerData> data) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        file.getAbsoluteFile().getParentFile().mkdirs();
+
+        long size = write(temp, data);
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        return size;
+    }
+
+    /**
+     * Read all entries from a file
+     * Records that fail their checks are skipped and logged
+     *
+     * @param file Source
+     * @return Entries read
+     * @throws IOException If the file is missing or the header is unreadable
+     */
+    public static HashMap<String, PlayerData> read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+
+        try {
+            byte[] header = new byte[HEADER_SIZE];
+            in.readFully(header);
+
+            ByteBuffer buf = ByteBuffer.wrap(header);
+            int version = checkHeader(buf);
+            int count = buf.getInt(12);
+            HashMap<String, PlayerData> data = new HashMap<String, PlayerData>(Math.max(16, count * 4 / 3 + 1));
+
+            byte[] block = new byte[BLOCK_RECORDS * RECORD_SIZE];
+            ByteBuffer blockBuf = ByteBuffer.wrap(block);
+            CRC32 crc = new CRC32();
+            int blocks = (count + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+
+            for (int b = 0; b < blocks; b++) {
+                int records = Math.min(BLOCK_RECORDS, count - b * BLOCK_RECORDS);
+
+                // Version 1 only wrote the used part of the last block
+                int length = version == 1 ? records * RECORD_SIZE : block.length;
+
+                try {
+                    in.readFully(block, 0, length);
+                } catch (EOFException e) {
+                    log.log(Level.SEVERE, file.getName() + " is truncated at block " + b + ", " + (count - b * BLOCK_RECORDS) + " players lost");
+
+                    break;
+                }
+
+                int expected = in.readInt();
+
+                crc.reset();
+                crc.update(block, 0, length);
+
+                boolean valid = (int) crc.getValue() == expected;
+
+                if (!valid && version == 1) {
+                    log.log(Level.SEVERE, file.getName() + ": checksum mismatch in block " + b + ", skipping " + records + " players");
+
+                    continue;
+                }
+
+                int lost = 0;
+
+                for (int r = 0; r < records; r++) {
+                    int offset = r * RECORD_SIZE;
+
+                    if (!valid && !checkRecord(blockBuf, offset)) {
+                        lost++;
+
+                        continue;
+                    }
+
+                    String key = getKey(blockBuf, offset);
+
+                    if (key != null) {
+                        data.put(key, getRecord(blockBuf, offset));
+                    }
+                }
+
+                if (!valid) {
+                    log.log(Level.SEVERE, file.getName() + ": checksum mismatch in block " + b + ", " + lost + " players lost");
+                }
+            }
+
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Encode a key for storage
+     *
+     * @param key Player name
+     * @return UTF-8 bytes, or null if the key does not fit in a record
+     */
+    public static byte[] encodeKey(String key) {
+        byte[] bytes = key.getBytes(UTF8);
+
+        if (bytes.length == 0 || bytes.length > MAX_KEY) {
+            return null;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Offset of a block from the start of the file
+     *
+     * @param block Block number
+     * @return Byte offset
+     */
+    public static long blockOffset(int block) {
+        return HEADER_SIZE + (long) block * BLOCK_SIZE;
+    }
+
+    /**
+     * Offset of a record slot from the start of the file
+     *
+     * @param slot Record slot
+     * @return Byte offset
+     */
+    public static long recordOffset(int slot) {
+        return blockOffset(slot / BLOCK_RECORDS) + (long) (slot % BLOCK_RECORDS) * RECORD_SIZE;
+    }
+
+    /**
+     * Write a header at the start of a buffer
+     *
+     * @param buf Destination
+     * @param count Number of records in use
+     */
+    static void putHeader(ByteBuffer buf, int count) {
+        buf.putInt(0, MAGIC);
+        buf.putShort(4, (short) VERSION);
+        buf.putShort(6, (short) RECORD_SIZE);
+        buf.putInt(8, BLOCK_RECORDS);
+        buf.putInt(12, count);
+
+        for (int i = 16; i < HEADER_SIZE - 4; i++) {
+            buf.put(i, (byte) 0);
+        }
+
+        buf.putInt(HEADER_SIZE - 4, checksum(buf, 0, HEADER_SIZE - 4));
+    }
+
+    /**
+     * Validate the header at the start of a buffer
+     *
+     * @param buf Source
+     * @return Format version
+     * @throws IOException If the header is not valid
+     */
+    static int checkHeader(ByteBuffer buf) throws IOException {
+        if (buf.getInt(0) != MAGIC) {
+            throw new IOException("Not a Campfire player data file");
+        }
+
+        if (buf.getInt(HEADER_SIZE - 4) != checksum(buf, 0, HEADER_SIZE - 4)) {
+            throw new IOException("Player data header is corrupt");
+        }
+
+        int version = buf.getShort(4);
+
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported player data version " + version);
+        }
+
+        if (buf.getShort(6) != RECORD_SIZE || buf.getInt(8) != BLOCK_RECORDS) {
+            throw new IOException("Unexpected player data layout");
+        }
+
+        return version;
+    }
+
+    /**
+     * Write a record at an absolute offset
+     *
+     * @param buf Destination
+     * @param offset Offset of the record
+     * @param key Encoded key
+     * @param data Player data
+     */
+    static void putRecord(ByteBuffer buf, int offset, byte[] key, PlayerData data) {
+        byte[] record = new byte[RECORD_SIZE];
+        ByteBuffer rec = ByteBuffer.wrap(record);
+
+        rec.put(0, (byte) key.length);
+        System.arraycopy(key, 0, record, 1, key.length);
+        rec.putInt(1 + MAX_KEY, data.getTimeElapsed());
+        rec.putLong(5 + MAX_KEY, data.getLastUpdated());
+        rec.put(13 + MAX_KEY, (byte) data.getFlags());
+        rec.putShort(CHECK_OFFSET, (short) checksum(rec, 0, CHECK_OFFSET));
+
+        for (int i = 0; i < RECORD_SIZE; i++) {
+            buf.put(offset + i, record[i]);
+        }
+    }
+
+    /**
+     * Does the record at an absolute offset pass its own check?
+     * Empty slots pass
+     *
+     * @param buf Source
+     * @param offset Offset of the record
+     * @return Record is intact
+     */
+    static boolean checkRecord(ByteBuffer buf, int offset) {
+        if (buf.get(offset) == 0) {
+            return true;
+        }
+
+        return buf.getShort(offset + CHECK_OFFSET) == (short) checksum(buf, offset, CHECK_OFFSET);
+    }
+
+    /**
+     * Read the key of the record at an absolute offset
+     *
+     * @param buf Source
+     * @param offset Offset of the record
+     * @return Player name, or null for an empty slot
+     */
+    static String getKey(ByteBuffer buf, int offset) {
+        int length = buf.get(offset);
+
+        if (length <= 0 || length > MAX_KEY) {
+            return null;
+        }
+
+        byte[] key = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            key[i] = buf.get(offset + 1 + i);
+        }
+
+        return new String(key, UTF8);
+    }
+
+    /**
+     * Does the record at an absolute offset hold the given key?
+     *
+     * @param buf Source
+     * @param offset Offset of the record
+     * @param key Encoded key
+     * @return Keys match
+     */
+    static boolean keyEquals(ByteBuffer buf, int offset, byte[] key) {
+        if (buf.get(offset) != key.length) {
+            return false;
+        }
+
+        for (int i = 0; i < key.length; i++) {
+            if (buf.get(offset + 1 + i) != key[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Read the data of the record at an absolute offset
+     *
+     * @param buf Source
+     * @param offset Offset of the record
+     * @return Player data
+     */
+    static PlayerData getRecord(ByteBuffer buf, int offset) {
+        int timeElapsed = buf.getInt(offset + 1 + MAX_KEY);
+        long lastUpdated = buf.getLong(offset + 5 + MAX_KEY);
+        int flags = buf.get(offset + 13 + MAX_KEY);
+
+        return new PlayerData(timeElapsed, lastUpdated, flags);
+    }
+
+    /**
+     * CRC32 of a region of a buffer
+     *
+     * @param buf Source
+     * @param offset Start of the region
+     * @param length Length of the region
+     * @return Checksum
+     */
+    static int checksum(ByteBuffer buf, int offset, int length) {
+        ByteBuffer region = buf.duplicate();
+        region.limit(offset + length);
+        region.position(offset);
+
+        CRC32 crc = new CRC32();
+        crc.update(region);
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Write a block and its checksum
+     *
+     * @param out Destination
+     * @param block Block to write, cleared afterwards
+     * @param crc Checksum to reuse
+     * @throws IOException
+     */
+    private static void flushBlock(DataOutputStream out, ByteBuffer block, CRC32 crc) throws IOException {
+        crc.reset();
+        crc.update(block.array(), 0, block.capacity());
+
+        out.write(block.array(), 0, block.capacity());
+        out.writeInt((int) crc.getValue());
+
+        Arrays.fill(block.array(), (byte) 0);
+    }
+}
@@ -0,0 +1,146 @@
+package com.psychobit.campfire;
+
+import java.util.Map;
+
+import org.bukkit.entity.Player;
+
+/**
+ * What protection means for one player
+ *
+ * Resolved from their op status and permissions when they join, change
+ * world, are opped or deopped and when permissions are refreshed, so the
+ * event handlers read a field instead of asking the permission plugin on
+ * every hit and click. Never changes once resolved.
+ *
+ * @author psychobit
+ *
+ */
+public final class PlayerPolicy {
+    /**
+     * Permission of players who are never protected nor protected against, like ops
+     */
+    public static final String EXEMPT = "campfire.exempt";
+    /**
+     * Prefix of the permissions of the duration tiers, followed by the tier name
+     */
+    public static final String TIER = "campfire.tier.";
+    /**
+     * Permission to use prohibited items and blocks while protected
+     */
+    public static final String BYPASS_ITEMS = "campfire.bypass.items";
+    /**
+     * Permission to use buffer items near protected players
+     */
+    public static final String BYPASS_BUFFER = "campfire.bypass.buffer";
+    /**
+     * Policy of a player nothing was resolved for yet
+     */
+    public static final PlayerPolicy DEFAULT = new PlayerPolicy(false, null, 0, false, false);
+    /**
+     * Policy of every exempt player
+     */
+    private static final PlayerPolicy EXEMPTED = new PlayerPolicy(true, null, 0, true, true);
+    private final boolean exempt;
+    private final String tier;
+    private final int duration;
+    private final boolean bypassItems;
+    private final boolean bypassBuffer;
+
+    private PlayerPolicy(boolean exempt, String tier, int duration, boolean bypassItems, boolean bypassBuffer) {
+        this.exempt = exempt;
+        this.tier = tier;
+        this.duration = duration;
+        this.bypassItems = bypassItems;
+        this.bypassBuffer = bypassBuffer;
+    }
+
+    /**
+     * Resolve a player's policy
+     * Of the tiers they have, the one with the longest duration is used
+     *
+     * @param player Player
+     * @param rules Rules listing the tiers
+     * @return Policy
+     */
+    public static PlayerPolicy resolve(Player player, Rules rules) {
+        if (player.isOp() || player.hasPermission(EXEMPT)) {
+            return EXEMPTED;
+        }
+
+        String tier = null;
+        int duration = 0;
+
+        for (Map.Entry<String, Integer> entry: rules.getTiers().entrySet()) {
+            if (entry.getValue() > duration && player.hasPermission(TIER + entry.getKey())) {
+                tier = entry.getKey();
+                duration = entry.getValue();
+            }
+        }
+
+        boolean bypassItems = player.hasPermission(BYPASS_ITEMS);
+        boolean bypassBuffer = player.hasPermission(BYPASS_BUFFER);
+
+        if (tier == null && !bypassItems && !bypassBuffer) {
+            return DEFAULT;
+        }
+
+        return new PlayerPolicy(false, tier, duration, bypassItems, bypassBuffer);
+    }
+
+    /**
+     * Is the player left out of protection altogether?
+     * They are never protected, and can hit and burn protected players
+     *
+     * @return Exempt
+     */
+    public boolean isExempt() {
+        return exempt;
+    }
+
+    /**
+     * Get the name of the player's duration tier
+     *
+     * @return Tier, or null if they use the duration of the world
+     */
+    public String getTier() {
+        return tier;
+    }
+
+    /**
+     * Get the time the player is protected for
+     *
+     * @param worldDuration Duration of the world they are in
+     * @return Seconds, from their tier if they have one
+     */
+    public int getDuration(int worldDuration) {
+        return tier == null ? worldDuration : duration;
+    }
+
+    /**
+     * Can the player use prohibited items and blocks while protected?
+     *
+     * @return Bypass
+     */
+    public boolean bypassesItems() {
+        return bypassItems;
+    }
+
+    /**
+     * Can the player use buffer items near protected players?
+     *
+     * @return Bypass
+     */
+    public boolean bypassesBuffer() {
+        return bypassBuffer;
+    }
+
+    /**
+     * Does another policy give a different duration?
+     *
+     * @param other Policy to compare with
+     * @return True if the tier duration differs
+     */
+    boolean changesDuration(PlayerPolicy other) {
+        return (tier == null ? -1 : duration) != (other.tier == null ? -1 : other.duration);
+    }
+}
@@ -0,0 +1,72 @@
+package com.psychobit.campfire;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Where player data is kept between sessions
+ *
+ * FileStorage keeps it in the plugin folder, JdbcStorage in a database that
+ * several servers can share. Saves come from the writer thread, prefetches
+ * from login threads and loads from the server thread, so implementations
+ * must be safe to use from all of them.
+ *
+ * @author psychobit
+ *
+ */
+public interface PlayerStorage {
+    /**
+     * Look up a player
+     * Called on the server thread, should be answered from memory when the
+     * player was prefetched
+     *
+     * @param playerName Player name
+     * @return A new PlayerData holding their stored data, or null if unknown
+     * @throws IOException If the data could not be read
+     */
+    PlayerData load(String playerName) throws IOException;
+
+    /**
+     * Get a player's data ready for a load that is about to come
+     * Called off the server thread while the player logs in
+     *
+     * @param playerName Player name
+     * @throws IOException If the data could not be read
+     */
+    void prefetch(String playerName) throws IOException;
+
+    /**
+     * Write a batch of changed players
+     * Called on the writer thread
+     *
+     * @param batch Copies of the changed entries
+     * @return Bytes written, 0 if not known
+     * @throws IOException If the batch could not be written
+     */
+    long save(Map<String, PlayerData> batch) throws IOException;
+
+    /**
+     * Read the protection stats this server saved
+     * Called on the server thread while enabling
+     *
+     * @return What saveStats() last wrote, or null if nothing was
+     * @throws IOException If the stats could not be read
+     */
+    byte[] loadStats() throws IOException;
+
+    /**
+     * Replace the saved protection stats of this server
+     * Called on the writer thread
+     *
+     * @param stats Bytes from ProtectionStats.write()
+     * @throws IOException If the stats could not be written
+     */
+    void saveStats(byte[] stats) throws IOException;
+
+    /**
+     * Release the storage, after the last save
+     *
+     * @throws IOException
+     */
+    void close() throws IOException;
+}
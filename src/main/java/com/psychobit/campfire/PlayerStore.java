@@ -0,0 +1,646 @@
+package com.psychobit.campfire;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Memory mapped store for player data
+ *
+ * Records live in a PlayerDataFile and are read and updated in place through
+ * a mapping of the file. A second mapped file holds an open addressing table
+ * from the hash of a player's key to their record slot. Neither file is
+ * loaded into the heap, only players that are looked up get a PlayerData
+ * object.
+ *
+ * Block checksums are verified the first time a block is touched and
+ * rewritten by flush(). All methods are synchronized, the disk sync in
+ * flush() happens outside the lock.
+ *
+ * @author psychobit
+ *
+ */
+public class PlayerStore {
+    /**
+     * Logger for exceptions.
+     */
+    private static final Logger log = Logger.getLogger("Minecraft");
+    /**
+     * "CFPI"
+     */
+    private static final int INDEX_MAGIC = 0x43465049;
+    /**
+     * Size of the index header: magic, capacity, records indexed, reserved
+     */
+    private static final int INDEX_HEADER = 16;
+    /**
+     * Smallest number of index entries
+     */
+    private static final int MIN_INDEX = 1024;
+    /**
+     * Smallest number of record blocks
+     */
+    private static final int MIN_BLOCKS = 16;
+    /**
+     * Size of the records in a block, without the checksum
+     */
+    private static final int BLOCK_DATA = PlayerDataFile.BLOCK_RECORDS * PlayerDataFile.RECORD_SIZE;
+    /**
+     * Checksum of a block with no records
+     */
+    private static final int EMPTY_BLOCK_CRC;
+
+    static {
+        CRC32 crc = new CRC32();
+        crc.update(new byte[BLOCK_DATA]);
+        EMPTY_BLOCK_CRC = (int) crc.getValue();
+    }
+
+    /**
+     * Callback for scan()
+     */
+    public interface Visitor {
+        /**
+         * Called for every stored player
+         *
+         * @param playerName Player name
+         * @param data Their stored data
+         */
+        void visit(String playerName, PlayerData data);
+    }
+
+    /**
+     * Record file
+     */
+    private final File dataFile;
+    /**
+     * Index file
+     */
+    private final File indexFile;
+    /**
+     * Channel of the record file
+     */
+    private FileChannel dataChannel;
+    /**
+     * Channel of the index file
+     */
+    private FileChannel indexChannel;
+    /**
+     * Mapping of the record file
+     */
+    private MappedByteBuffer records;
+    /**
+     * Mapping of the index file
+     */
+    private MappedByteBuffer table;
+    /**
+     * Number of blocks in the record file
+     */
+    private int blocks;
+    /**
+     * Number of record slots in use
+     */
+    private int count;
+    /**
+     * Number of index entries, always a power of two
+     */
+    private int capacity;
+    /**
+     * Number of record slots present in the index
+     */
+    private int indexed;
+    /**
+     * Blocks written since the last flush
+     */
+    private final BitSet dirtyBlocks = new BitSet();
+    /**
+     * Blocks whose checksum has been verified since opening
+     */
+    private final BitSet verifiedBlocks = new BitSet();
+
+    /**
+     * Use open()
+     *
+     * @param dataFile Record file
+     * @param indexFile Index file
+     */
+    private PlayerStore(File dataFile, File indexFile) {
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Open or create a store
+     * Only the header is read, the records stay on disk
+     *
+     * @param dataFile Record file
+     * @param indexFile Index file, rebuilt from the records if missing or stale
+     * @return Open store
+     * @throws IOException If the record file cannot be used
+     */
+    public static PlayerStore open(File dataFile, File indexFile) throws IOException {
+        PlayerStore store = new PlayerStore(dataFile, indexFile);
+        store.openRecords();
+        store.openIndex();
+
+        return store;
+    }
+
+    /**
+     * Look up a player
+     *
+     * @param name Player name
+     * @return A new PlayerData holding their stored data, or null if unknown
+     */
+    public synchronized PlayerData load(String name) {
+        byte[] key = PlayerDataFile.encodeKey(name);
+
+        if (key == null) {
+            return null;
+        }
+
+        int slot = find(key, hash(key));
+
+        if (slot < 0 || !verifySlot(slot, key)) {
+            return null;
+        }
+
+        return PlayerDataFile.getRecord(records, (int) PlayerDataFile.recordOffset(slot));
+    }
+
+    /**
+     * Store a player's data, adding a record if they are new
+     *
+     * @param name Player name
+     * @param data Data to store
+     * @throws IOException If the record file could not be grown
+     */
+    public synchronized void save(String name, PlayerData data) throws IOException {
+        byte[] key = PlayerDataFile.encodeKey(name);
+
+        if (key == null) {
+            log.log(Level.WARNING, "Not saving player data for \"" + name + "\": name is longer than " + PlayerDataFile.MAX_KEY + " bytes");
+
+            return;
+        }
+
+        int hash = hash(key);
+        int slot = find(key, hash);
+
+        if (slot >= 0 && verifySlot(slot, key)) {
+            PlayerDataFile.putRecord(records, (int) PlayerDataFile.recordOffset(slot), key, data);
+        } else {
+            if (count == blocks * PlayerDataFile.BLOCK_RECORDS) {
+                growRecords(blocks * 2);
+            }
+
+            slot = count;
+            verify(slot / PlayerDataFile.BLOCK_RECORDS);
+            PlayerDataFile.putRecord(records, (int) PlayerDataFile.recordOffset(slot), key, data);
+
+            count++;
+            PlayerDataFile.putHeader(records, count);
+
+            insert(hash, slot);
+        }
+
+        dirtyBlocks.set(slot / PlayerDataFile.BLOCK_RECORDS);
+    }
+
+    /**
+     * Number of players in the store
+     *
+     * @return Record count
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Visit every stored player
+     * Reads the whole file, only meant for one-time migrations
+     *
+     * @param visitor Callback
+     */
+    public synchronized void scan(Visitor visitor) {
+        for (int slot = 0; slot < count; slot++) {
+            if (slot % PlayerDataFile.BLOCK_RECORDS == 0) {
+                verify(slot / PlayerDataFile.BLOCK_RECORDS);
+            }
+
+            int offset = (int) PlayerDataFile.recordOffset(slot);
+            String name = PlayerDataFile.getKey(records, offset);
+
+            if (name != null) {
+                visitor.visit(name, PlayerDataFile.getRecord(records, offset));
+            }
+        }
+    }
+
+    /**
+     * Rewrite the checksums of changed blocks and sync both files to disk
+     *
+     * @return Bytes of record blocks synced
+     * @throws IOException
+     */
+    public long flush() throws IOException {
+        MappedByteBuffer recordsToSync;
+        MappedByteBuffer tableToSync;
+        long bytes;
+
+        synchronized (this) {
+            bytes = (long) dirtyBlocks.cardinality() * PlayerDataFile.BLOCK_SIZE;
+
+            for (int b = dirtyBlocks.nextSetBit(0); b >= 0; b = dirtyBlocks.nextSetBit(b + 1)) {
+                writeChecksum(b);
+            }
+
+            dirtyBlocks.clear();
+
+            recordsToSync = records;
+            tableToSync = table;
+        }
+
+        recordsToSync.force();
+        tableToSync.force();
+
+        return bytes;
+    }
+
+    /**
+     * Flush and close the files
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        flush();
+
+        dataChannel.close();
+        indexChannel.close();
+    }
+
+    /**
+     * Open the record file, creating or upgrading it as needed
+     *
+     * @throws IOException
+     */
+    private void openRecords() throws IOException {
+        if (!dataFile.exists()) {
+            PlayerDataFile.writeAtomic(dataFile, new HashMap<String, PlayerData>());
+        } else if (dataFile.length() < PlayerDataFile.HEADER_SIZE) {
+            throw new IOException(dataFile.getName() + " is too short to be player data");
+        } else if (readVersion() != PlayerDataFile.VERSION) {
+            // Older layouts are rewritten once, the index refers to the old slots
+            PlayerDataFile.writeAtomic(dataFile, PlayerDataFile.read(dataFile));
+            indexFile.delete();
+
+            log.log(Level.INFO, "[Campfire] Upgraded " + dataFile.getName() + " to format version " + PlayerDataFile.VERSION);
+        }
+
+        dataChannel = new RandomAccessFile(dataFile, "rw").getChannel();
+        blocks = (int) ((dataChannel.size() - PlayerDataFile.HEADER_SIZE) / PlayerDataFile.BLOCK_SIZE);
+        records = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, PlayerDataFile.blockOffset(blocks));
+
+        PlayerDataFile.checkHeader(records);
+        count = records.getInt(12);
+
+        if (count > blocks * PlayerDataFile.BLOCK_RECORDS) {
+            log.log(Level.SEVERE, dataFile.getName() + " is truncated, " + (count - blocks * PlayerDataFile.BLOCK_RECORDS) + " players lost");
+
+            count = blocks * PlayerDataFile.BLOCK_RECORDS;
+            PlayerDataFile.putHeader(records, count);
+        }
+
+        if (blocks < MIN_BLOCKS) {
+            growRecords(MIN_BLOCKS);
+        }
+    }
+
+    /**
+     * Read the format version of the record file
+     *
+     * @return Version
+     * @throws IOException If the header is not valid
+     */
+    private int readVersion() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(dataFile, "r");
+
+        try {
+            byte[] header = new byte[PlayerDataFile.HEADER_SIZE];
+            raf.readFully(header);
+
+            return PlayerDataFile.checkHeader(ByteBuffer.wrap(header));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Extend the record file with empty blocks and remap it
+     *
+     * @param newBlocks Total number of blocks wanted
+     * @throws IOException If the file would outgrow a single mapping
+     */
+    private void growRecords(int newBlocks) throws IOException {
+        long length = PlayerDataFile.blockOffset(newBlocks);
+
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(dataFile.getName() + " is full");
+        }
+
+        ByteBuffer empty = ByteBuffer.allocate(PlayerDataFile.BLOCK_SIZE);
+        empty.putInt(BLOCK_DATA, EMPTY_BLOCK_CRC);
+
+        for (int b = blocks; b < newBlocks; b++) {
+            empty.clear();
+            dataChannel.write(empty, PlayerDataFile.blockOffset(b));
+        }
+
+        records = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        blocks = newBlocks;
+    }
+
+    /**
+     * Verify the block holding a slot and check the slot survived it
+     *
+     * @param slot Record slot
+     * @param key Key expected in the slot
+     * @return False if the record was corrupt and has been cleared
+     */
+    private boolean verifySlot(int slot, byte[] key) {
+        verify(slot / PlayerDataFile.BLOCK_RECORDS);
+
+        return PlayerDataFile.keyEquals(records, (int) PlayerDataFile.recordOffset(slot), key);
+    }
+
+    /**
+     * Verify a block's checksum the first time it is used
+     * Records that fail their own check are cleared so they are not
+     * covered by the next checksum
+     *
+     * @param block Block number
+     */
+    private void verify(int block) {
+        if (verifiedBlocks.get(block)) {
+            return;
+        }
+
+        verifiedBlocks.set(block);
+
+        int offset = (int) PlayerDataFile.blockOffset(block);
+
+        if (records.getInt(offset + BLOCK_DATA) == PlayerDataFile.checksum(records, offset, BLOCK_DATA)) {
+            return;
+        }
+
+        // Usually a write that made it to disk without its block checksum
+        int lost = 0;
+
+        for (int r = 0; r < PlayerDataFile.BLOCK_RECORDS; r++) {
+            int recordOffset = offset + r * PlayerDataFile.RECORD_SIZE;
+
+            if (!PlayerDataFile.checkRecord(records, recordOffset)) {
+                for (int i = 0; i < PlayerDataFile.RECORD_SIZE; i++) {
+                    records.put(recordOffset + i, (byte) 0);
+                }
+
+                lost++;
+            }
+        }
+
+        if (lost > 0) {
+            log.log(Level.SEVERE, dataFile.getName() + ": " + lost + " corrupt players in block " + block + " were reset");
+        }
+
+        writeChecksum(block);
+    }
+
+    /**
+     * Recompute the checksum of a block
+     *
+     * @param block Block number
+     */
+    private void writeChecksum(int block) {
+        int offset = (int) PlayerDataFile.blockOffset(block);
+
+        records.putInt(offset + BLOCK_DATA, PlayerDataFile.checksum(records, offset, BLOCK_DATA));
+    }
+
+    /**
+     * Open the index, rebuilding it if it does not match the records
+     *
+     * @throws IOException
+     */
+    private void openIndex() throws IOException {
+        boolean valid = false;
+
+        if (indexFile.exists() && indexFile.length() >= INDEX_HEADER) {
+            indexChannel = new RandomAccessFile(indexFile, "rw").getChannel();
+            table = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+
+            capacity = table.getInt(4);
+            indexed = table.getInt(8);
+
+            valid = table.getInt(0) == INDEX_MAGIC
+                    && capacity >= MIN_INDEX
+                    && Integer.bitCount(capacity) == 1
+                    && indexChannel.size() >= INDEX_HEADER + 8L * capacity
+                    && indexed >= 0 && indexed <= count;
+
+            if (!valid) {
+                indexChannel.close();
+
+                log.log(Level.WARNING, "[Campfire] Rebuilding " + indexFile.getName());
+            }
+        }
+
+        if (!valid) {
+            createIndex(capacityFor(count));
+        }
+
+        // Catch up with records appended after the index header was last written
+        for (int slot = indexed; slot < count; slot++) {
+            String name = PlayerDataFile.getKey(records, (int) PlayerDataFile.recordOffset(slot));
+            byte[] key = name == null ? null : PlayerDataFile.encodeKey(name);
+
+            if (key != null) {
+                int hash = hash(key);
+
+                if (find(key, hash) < 0) {
+                    insert(hash, slot);
+
+                    continue;
+                }
+            }
+
+            indexed = slot + 1; // Cleared record or already indexed
+        }
+
+        table.putInt(8, indexed);
+    }
+
+    /**
+     * Replace the index with an empty one
+     *
+     * @param newCapacity Number of entries
+     * @throws IOException
+     */
+    private void createIndex(int newCapacity) throws IOException {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        temp.delete();
+
+        FileChannel channel = new RandomAccessFile(temp, "rw").getChannel();
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + 8L * newCapacity);
+
+        buf.putInt(0, INDEX_MAGIC);
+        buf.putInt(4, newCapacity);
+        buf.putInt(8, 0);
+
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        if (indexChannel != null && indexChannel.isOpen()) {
+            indexChannel.close();
+        }
+
+        indexChannel = channel;
+        table = buf;
+        capacity = newCapacity;
+        indexed = 0;
+    }
+
+    /**
+     * Double the index and re-add every entry
+     * The hashes are kept in the entries, so the records are not touched
+     *
+     * @throws IOException
+     */
+    private void growIndex() throws IOException {
+        MappedByteBuffer old = table;
+        int oldCapacity = capacity;
+        int oldIndexed = indexed;
+
+        createIndex(capacity * 2);
+
+        for (int i = 0; i < oldCapacity; i++) {
+            long entry = old.getLong(INDEX_HEADER + 8 * i);
+
+            if (entry != 0) {
+                place(entry);
+            }
+        }
+
+        indexed = oldIndexed;
+        table.putInt(8, indexed);
+    }
+
+    /**
+     * Add a slot to the index
+     *
+     * @param hash Hash of the slot's key
+     * @param slot Record slot
+     * @throws IOException
+     */
+    private void insert(int hash, int slot) throws IOException {
+        if ((indexed + 1) * 2L > capacity) {
+            growIndex();
+        }
+
+        place(((long) hash << 32) | ((slot + 1) & 0xffffffffL));
+
+        indexed = slot + 1;
+        table.putInt(8, indexed);
+    }
+
+    /**
+     * Put an entry in the first free position of its probe sequence
+     *
+     * @param entry Hash in the high half, slot + 1 in the low half
+     */
+    private void place(long entry) {
+        int mask = capacity - 1;
+        int i = (int) (entry >>> 32) & mask;
+
+        while (table.getLong(INDEX_HEADER + 8 * i) != 0) {
+            i = (i + 1) & mask;
+        }
+
+        table.putLong(INDEX_HEADER + 8 * i, entry);
+    }
+
+    /**
+     * Find the slot holding a key
+     *
+     * @param key Encoded key
+     * @param hash Hash of the key
+     * @return Record slot, or -1 if not present
+     */
+    private int find(byte[] key, int hash) {
+        int mask = capacity - 1;
+        int i = hash & mask;
+
+        while (true) {
+            long entry = table.getLong(INDEX_HEADER + 8 * i);
+
+            if (entry == 0) {
+                return -1;
+            }
+
+            if ((int) (entry >>> 32) == hash) {
+                int slot = (int) entry - 1;
+
+                if (PlayerDataFile.keyEquals(records, (int) PlayerDataFile.recordOffset(slot), key)) {
+                    return slot;
+                }
+            }
+
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Index size for a number of records, at most half full
+     *
+     * @param records Number of records
+     * @return Power of two capacity
+     */
+    private static int capacityFor(int records) {
+        int capacity = MIN_INDEX;
+
+        while (capacity < records * 2L) {
+            capacity *= 2;
+        }
+
+        return capacity;
+    }
+
+    /**
+     * FNV-1a with a final mix, so the low bits used for probing are spread
+     *
+     * @param key Encoded key
+     * @return Hash
+     */
+    private static int hash(byte[] key) {
+        int h = 0x811c9dc5;
+
+        for (byte b: key) {
+            h ^= b & 0xff;
+            h *= 0x01000193;
+        }
+
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+
+        return h;
+    }
+}
@@ -0,0 +1,260 @@
+package com.psychobit.campfire;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+/**
+ * Positions of protected players, bucketed in a uniform grid per world
+ *
+ * Cells are at least as wide as the buffer distance, so everyone within the
+ * buffer of a point is in the point's cell or one of its eight neighbours.
+ * Positions are updated as players move instead of being read on every
+ * query.
+ *
+ * Only used from the server thread.
+ *
+ * @author psychobit
+ *
+ */
+public class ProtectedGrid {
+    /**
+     * A tracked player
+     */
+    private static class Entry {
+        private final Player player;
+        private UUID world;
+        private long cell;
+        private double x;
+        private double y;
+        private double z;
+
+        private Entry(Player player) {
+            this.player = player;
+        }
+    }
+
+    /**
+     * Width of a cell in blocks
+     */
+    private final int cellSize;
+    /**
+     * Cells of each world, keyed by packed cell coordinates
+     */
+    private final HashMap<UUID, HashMap<Long, ArrayList<Entry>>> worlds = new HashMap<UUID, HashMap<Long, ArrayList<Entry>>>();
+    /**
+     * Tracked players by name
+     */
+    private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Create an empty grid
+     *
+     * @param bufferDist Largest distance that will be queried
+     */
+    public ProtectedGrid(int bufferDist) {
+        this.cellSize = Math.max(1, bufferDist);
+    }
+
+    /**
+     * Start tracking a player, or move them if they are tracked
+     *
+     * @param playerName Player name
+     * @param player Player
+     * @param location Where they are
+     */
+    public void put(String playerName, Player player, Location location) {
+        Entry entry = entries.get(playerName);
+
+        if (entry == null || entry.player != player) {
+            remove(playerName);
+
+            entry = new Entry(player);
+            entries.put(playerName, entry);
+            place(entry, location);
+        } else {
+            move(entry, location);
+        }
+    }
+
+    /**
+     * Move a tracked player, does nothing for anyone else
+     *
+     * @param playerName Player name
+     * @param location Where they are now
+     */
+    public void update(String playerName, Location location) {
+        Entry entry = entries.get(playerName);
+
+        if (entry != null) {
+            move(entry, location);
+        }
+    }
+
+    /**
+     * Stop tracking a player
+     *
+     * @param playerName Player name
+     */
+    public void remove(String playerName) {
+        Entry entry = entries.remove(playerName);
+
+        if (entry != null) {
+            unplace(entry);
+        }
+    }
+
+    /**
+     * Is a tracked player within a distance of a point?
+     *
+     * @param location Point to check
+     * @param distance Distance in blocks, at most the buffer distance
+     * @param exclude Player to ignore, may be null
+     * @return True if a protected player is that close
+     */
+    public boolean anyWithin(Location location, double distance, Player exclude) {
+        HashMap<Long, ArrayList<Entry>> cells = worlds.get(location.getWorld().getUID());
+
+        if (cells == null) {
+            return false;
+        }
+
+        double x = location.getX();
+        double y = location.getY();
+        double z = location.getZ();
+        double max = distance * distance;
+        int cx = cell(x);
+        int cz = cell(z);
+
+        for (int i = cx - 1; i <= cx + 1; i++) {
+            for (int j = cz - 1; j <= cz + 1; j++) {
+                ArrayList<Entry> cell = cells.get(key(i, j));
+
+                if (cell == null) {
+                    continue;
+                }
+
+                for (int k = 0; k < cell.size(); k++) {
+                    Entry entry = cell.get(k);
+
+                    if (entry.player == exclude) {
+                        continue;
+                    }
+
+                    double dx = entry.x - x;
+                    double dy = entry.y - y;
+                    double dz = entry.z - z;
+
+                    if (dx * dx + dy * dy + dz * dz <= max) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Number of tracked players
+     *
+     * @return Players in the grid
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Update an entry's position, changing cells if needed
+     *
+     * @param entry Tracked player
+     * @param location Where they are now
+     */
+    private void move(Entry entry, Location location) {
+        UUID world = location.getWorld().getUID();
+        long cell = key(cell(location.getX()), cell(location.getZ()));
+
+        if (cell != entry.cell || !world.equals(entry.world)) {
+            unplace(entry);
+            place(entry, location);
+        } else {
+            entry.x = location.getX();
+            entry.y = location.getY();
+            entry.z = location.getZ();
+        }
+    }
+
+    /**
+     * Put an entry in the cell of a location
+     *
+     * @param entry Entry not in any cell
+     * @param location Where it goes
+     */
+    private void place(Entry entry, Location location) {
+        entry.world = location.getWorld().getUID();
+        entry.x = location.getX();
+        entry.y = location.getY();
+        entry.z = location.getZ();
+        entry.cell = key(cell(entry.x), cell(entry.z));
+
+        HashMap<Long, ArrayList<Entry>> cells = worlds.get(entry.world);
+
+        if (cells == null) {
+            cells = new HashMap<Long, ArrayList<Entry>>();
+            worlds.put(entry.world, cells);
+        }
+
+        ArrayList<Entry> cell = cells.get(entry.cell);
+
+        if (cell == null) {
+            cell = new ArrayList<Entry>(4);
+            cells.put(entry.cell, cell);
+        }
+
+        cell.add(entry);
+    }
+
+    /**
+     * Take an entry out of its cell
+     *
+     * @param entry Entry in a cell
+     */
+    private void unplace(Entry entry) {
+        HashMap<Long, ArrayList<Entry>> cells = worlds.get(entry.world);
+        ArrayList<Entry> cell = cells.get(entry.cell);
+
+        cell.remove(entry);
+
+        if (cell.isEmpty()) {
+            cells.remove(entry.cell);
+
+            if (cells.isEmpty()) {
+                worlds.remove(entry.world);
+            }
+        }
+    }
+
+    /**
+     * Cell coordinate of a block coordinate
+     *
+     * @param coord Coordinate
+     * @return Cell index
+     */
+    private int cell(double coord) {
+        return (int) Math.floor(coord / cellSize);
+    }
+
+    /**
+     * Pack cell coordinates
+     *
+     * @param cx Cell x
+     * @param cz Cell z
+     * @return Key
+     */
+    private static long key(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xffffffffL);
+    }
+}
@@ -0,0 +1,71 @@
+package com.psychobit.campfire;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ProtectionService answered from a published snapshot
+ *
+ * The server thread builds a new map of the protected players and replaces
+ * the old one with a single volatile write. Readers on any thread only ever
+ * see a complete map, and never touch the live PlayerData.
+ *
+ * @author psychobit
+ *
+ */
+public class ProtectionIndex implements ProtectionService {
+    /**
+     * Protected players by name, never changed once published
+     */
+    private volatile Map<String, Protection> snapshot = Collections.emptyMap();
+
+    /**
+     * Replace the snapshot
+     * Called on the server thread
+     *
+     * @param protections Protected players by name, not changed after this
+     */
+    public void publish(Map<String, Protection> protections) {
+        snapshot = protections;
+    }
+
+    /**
+     * Get the number of protected players in the snapshot
+     *
+     * @return Protected players
+     */
+    public int size() {
+        return snapshot.size();
+    }
+
+    public boolean isProtected(String playerName) {
+        return snapshot.containsKey(playerName);
+    }
+
+    public int getTimeLeft(String playerName) {
+        Protection protection = snapshot.get(playerName);
+
+        return protection == null ? 0 : protection.getTimeLeft();
+    }
+
+    public Protection getProtection(String playerName) {
+        return snapshot.get(playerName);
+    }
+
+    public Map<String, Protection> getProtections(Collection<String> playerNames) {
+        Map<String, Protection> current = snapshot;
+        HashMap<String, Protection> found = new HashMap<String, Protection>();
+
+        for (String playerName: playerNames) {
+            Protection protection = current.get(playerName);
+
+            if (protection != null) {
+                found.put(playerName, protection);
+            }
+        }
+
+        return found;
+    }
+}
@@ -0,0 +1,120 @@
+package com.psychobit.campfire;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Tells other plugins which players are protected and for how long
+ *
+ * Registered with Bukkit's ServicesManager while Campfire is enabled:
+ * getServer().getServicesManager().load(ProtectionService.class)
+ *
+ * Answers come from a snapshot that is republished on the server tick after
+ * protection changes, so they can be asked from any thread without locking
+ * and a bulk query sees every player as of the same moment. Names are exact
+ * player names.
+ *
+ * @author psychobit
+ *
+ */
+public interface ProtectionService {
+    /**
+     * Is a player protected right now?
+     *
+     * @param playerName Player name
+     * @return True if they are online and protected
+     */
+    boolean isProtected(String playerName);
+
+    /**
+     * Get the protection left for a player
+     *
+     * @param playerName Player name
+     * @return Seconds left, 0 if they are not protected
+     */
+    int getTimeLeft(String playerName);
+
+    /**
+     * Get a player's protection
+     *
+     * @param playerName Player name
+     * @return Their protection, or null if they are not protected
+     */
+    Protection getProtection(String playerName);
+
+    /**
+     * Get the protection of many players at once
+     *
+     * @param playerNames Player names
+     * @return Protection of the players who are protected, by name
+     */
+    Map<String, Protection> getProtections(Collection<String> playerNames);
+
+    /**
+     * A protected player as of the last snapshot
+     * Never changes, the time left is worked out when asked
+     */
+    public static final class Protection {
+        private final String playerName;
+        private final int duration;
+        private final int elapsed;
+        private final long lastUpdated;
+        private final boolean running;
+        private final boolean inZone;
+        private final Clock clock;
+
+        Protection(String playerName, int duration, PlayerData data, boolean running, Clock clock) {
+            PlayerData copy = data.copy(); // One state for all the fields
+
+            this.playerName = playerName;
+            this.duration = duration;
+            this.elapsed = copy.getTimeElapsed();
+            this.lastUpdated = copy.getLastUpdated();
+            this.running = running;
+            this.inZone = copy.inProtectedZone();
+            this.clock = clock;
+        }
+
+        /**
+         * Get the player's name
+         *
+         * @return Player name
+         */
+        public String getPlayerName() {
+            return playerName;
+        }
+
+        /**
+         * Get the protection left
+         *
+         * @return Seconds left
+         */
+        public int getTimeLeft() {
+            long used = elapsed;
+
+            if (running) {
+                used += Math.max(0, clock.currentTimeSeconds() - lastUpdated);
+            }
+
+            return (int) Math.max(0, duration - used);
+        }
+
+        /**
+         * Is the timer stopped, e.g. in a WorldGuard zone without PvP?
+         *
+         * @return True if the protection is not counting down
+         */
+        public boolean isPaused() {
+            return !running;
+        }
+
+        /**
+         * Is the player in a WorldGuard zone that pauses the timer?
+         *
+         * @return True if in a protected zone
+         */
+        public boolean inProtectedZone() {
+            return inZone;
+        }
+    }
+}
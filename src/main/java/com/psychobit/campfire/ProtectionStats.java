@@ -0,0 +1,636 @@
+package com.psychobit.campfire;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of what protection did, for tuning Duration and Buffer
+ *
+ * Server-wide counts are a LongAdder per stat, so threads adding at once
+ * do not fight over one value. Online players have their own counts next
+ * to them. Once a second roll() moves what was added since into a ring of
+ * minute buckets and a ring of hour buckets, so the last hour or day is a
+ * sum over a few buckets. Every minute the online players' counts are
+ * merged into a top list per stat, which is what the top command reads, so
+ * it never looks at players one by one.
+ *
+ * Each player's counts are totals over all their sessions. They are kept
+ * for players who quit and saved with the rest, only for players who have
+ * counted something, and a player who joins carries on from theirs.
+ *
+ * @author psychobit
+ *
+ */
+public class ProtectionStats {
+    /**
+     * What is counted
+     * Stored by ordinal, add new ones at the end
+     */
+    public enum Stat {
+        HITS_BLOCKED("hitsBlocked"),
+        LAVA_BLOCKED("lavaBlocked"),
+        FLINT_BLOCKED("flintBlocked"),
+        CHESTS_BLOCKED("chestsBlocked"),
+        TERMINATIONS("terminations"),
+        EXPIRIES("expiries"),
+        DEATH_RESETS("deathResets"),
+        ZONE_SECONDS("zoneSeconds");
+
+        private final String label;
+
+        private Stat(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Name shown in the top command
+         *
+         * @return Label
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Find a stat by its label
+         *
+         * @param label Label, in any case
+         * @return Stat, or null if there is none
+         */
+        public static Stat match(String label) {
+            for (Stat stat: values()) {
+                if (stat.label.equalsIgnoreCase(label)) {
+                    return stat;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * "CFST"
+     */
+    private static final int MAGIC = 0x43465354;
+    /**
+     * Minute buckets in the ring
+     */
+    public static final int MINUTES = 60;
+    /**
+     * Hour buckets in the ring
+     */
+    public static final int HOURS = 48;
+    /**
+     * Players kept in each top list
+     */
+    public static final int TOP = 10;
+    private static final int STATS = Stat.values().length;
+    /**
+     * Server-wide counts by stat ordinal
+     */
+    private final LongAdder[] counts = new LongAdder[STATS];
+    /**
+     * Counts of the online players, by name
+     */
+    private final ConcurrentHashMap<String, AtomicLongArray> players = new ConcurrentHashMap<String, AtomicLongArray>();
+    /**
+     * Counts of the players who are not online, by name, only those with any
+     * Guarded by this
+     */
+    private final HashMap<String, long[]> offline = new HashMap<String, long[]>();
+    /**
+     * Totals saved before the counts started
+     * Guarded by this
+     */
+    private final long[] base = new long[STATS];
+    /**
+     * Totals as of the last roll
+     * Guarded by this
+     */
+    private final long[] rolled = new long[STATS];
+    /**
+     * Minute buckets, by minute since the epoch modulo MINUTES
+     * Guarded by this
+     */
+    private final long[][] minutes = new long[MINUTES][STATS];
+    /**
+     * Minute since the epoch each minute bucket is for
+     * Guarded by this
+     */
+    private final long[] minuteStamps = new long[MINUTES];
+    /**
+     * Hour buckets, by hour since the epoch modulo HOURS
+     * Guarded by this
+     */
+    private final long[][] hours = new long[HOURS][STATS];
+    /**
+     * Hour since the epoch each hour bucket is for
+     * Guarded by this
+     */
+    private final long[] hourStamps = new long[HOURS];
+    /**
+     * Top players per stat, highest first
+     * Guarded by this
+     */
+    private final String[][] topNames = new String[STATS][TOP];
+    /**
+     * Counts of the top players per stat
+     * Guarded by this
+     */
+    private final long[][] topValues = new long[STATS][TOP];
+    /**
+     * Minute of the last roll
+     * Guarded by this
+     */
+    private long lastMinute = -1;
+
+    /**
+     * Create empty stats
+     */
+    public ProtectionStats() {
+        for (int s = 0; s < STATS; s++) {
+            counts[s] = new LongAdder();
+        }
+    }
+
+    /**
+     * Count something that happened
+     * Safe to call from any thread, never blocks
+     *
+     * @param stat What happened
+     * @param playerName Player it happened to, or null
+     * @param amount How many, or seconds for zoneSeconds
+     */
+    public void add(Stat stat, String playerName, long amount) {
+        counts[stat.ordinal()].add(amount);
+
+        AtomicLongArray player = playerName == null ? null : players.get(playerName);
+
+        if (player != null) {
+            player.addAndGet(stat.ordinal(), amount);
+        }
+    }
+
+    /**
+     * Start counting for a player who joined
+     * Carries on from their counts of earlier sessions
+     *
+     * @param playerName Player name
+     */
+    public synchronized void join(String playerName) {
+        if (players.containsKey(playerName)) {
+            return;
+        }
+
+        long[] saved = offline.remove(playerName);
+
+        players.put(playerName, saved == null ? new AtomicLongArray(STATS) : new AtomicLongArray(saved));
+    }
+
+    /**
+     * Stop counting for a player who quit
+     * Their counts go into the top lists and are kept for their next join
+     *
+     * @param playerName Player name
+     */
+    public synchronized void quit(String playerName) {
+        AtomicLongArray player = players.remove(playerName);
+
+        if (player == null) {
+            return;
+        }
+
+        offer(playerName, player);
+
+        long[] saved = new long[STATS];
+        boolean any = false;
+
+        for (int s = 0; s < STATS; s++) {
+            saved[s] = player.get(s);
+            any |= saved[s] != 0;
+        }
+
+        if (any) {
+            offline.put(playerName, saved);
+        }
+    }
+
+    /**
+     * Move what was counted since the last roll into the current buckets
+     * The online players are merged into the top lists once a minute
+     *
+     * @param now Current time in milliseconds
+     * @return True if a new minute started, a good time to save
+     */
+    public synchronized boolean roll(long now) {
+        long minute = now / (60 * 1000L);
+        long[] totals = totals();
+        long[] m = minuteBucket(minute);
+        long[] h = hourBucket(minute / 60);
+
+        for (int s = 0; s < STATS; s++) {
+            long delta = totals[s] - rolled[s];
+
+            m[s] += delta;
+            h[s] += delta;
+            rolled[s] = totals[s];
+        }
+
+        if (minute == lastMinute) {
+            return false;
+        }
+
+        lastMinute = minute;
+
+        for (Map.Entry<String, AtomicLongArray> entry: players.entrySet()) {
+            offer(entry.getKey(), entry.getValue());
+        }
+
+        return true;
+    }
+
+    /**
+     * Get a server-wide total since stats were first kept
+     *
+     * @param stat Stat
+     * @return Count
+     */
+    public synchronized long getTotal(Stat stat) {
+        return totals()[stat.ordinal()];
+    }
+
+    /**
+     * Get a server-wide count over the last minutes
+     *
+     * @param stat Stat
+     * @param now Current time in milliseconds
+     * @param count Minutes to look back, at most MINUTES
+     * @return Count, including what was not rolled yet
+     */
+    public synchronized long getLastMinutes(Stat stat, long now, int count) {
+        return window(minutes, minuteStamps, now / (60 * 1000L), count, stat.ordinal());
+    }
+
+    /**
+     * Get a server-wide count over the last hours
+     *
+     * @param stat Stat
+     * @param now Current time in milliseconds
+     * @param count Hours to look back, at most HOURS
+     * @return Count, including what was not rolled yet
+     */
+    public synchronized long getLastHours(Stat stat, long now, int count) {
+        return window(hours, hourStamps, now / (60 * 60 * 1000L), count, stat.ordinal());
+    }
+
+    /**
+     * Get the top players of a stat, as of the last minute
+     *
+     * @param stat Stat
+     * @return Counts by player, highest first
+     */
+    public synchronized Map<String, Long> getTop(Stat stat) {
+        int s = stat.ordinal();
+        LinkedHashMap<String, Long> top = new LinkedHashMap<String, Long>();
+
+        for (int i = 0; i < TOP && topNames[s][i] != null; i++) {
+            top.put(topNames[s][i], topValues[s][i]);
+        }
+
+        return top;
+    }
+
+    /**
+     * Write the totals, buckets and top lists for the player storage
+     * Rolls first, so what is written is up to date
+     *
+     * @param now Current time in milliseconds
+     * @return Bytes for PlayerStorage.saveStats()
+     */
+    public synchronized byte[] write(long now) {
+        roll(now);
+
+        for (Map.Entry<String, AtomicLongArray> entry: players.entrySet()) {
+            offer(entry.getKey(), entry.getValue());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(STATS);
+            out.writeInt(MINUTES);
+            out.writeInt(HOURS);
+
+            for (long total: rolled) {
+                out.writeLong(total);
+            }
+
+            writeRing(out, minutes, minuteStamps);
+            writeRing(out, hours, hourStamps);
+
+            for (int s = 0; s < STATS; s++) {
+                for (int i = 0; i < TOP; i++) {
+                    out.writeUTF(topNames[s][i] == null ? "" : topNames[s][i]);
+                    out.writeLong(topValues[s][i]);
+                }
+            }
+
+            out.writeInt(players.size() + offline.size());
+
+            for (Map.Entry<String, AtomicLongArray> entry: players.entrySet()) {
+                long[] counts = new long[STATS];
+
+                for (int s = 0; s < STATS; s++) {
+                    counts[s] = entry.getValue().get(s);
+                }
+
+                writePlayer(out, entry.getKey(), counts);
+            }
+
+            for (Map.Entry<String, long[]> entry: offline.entrySet()) {
+                writePlayer(out, entry.getKey(), entry.getValue());
+            }
+
+            out.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Not from a byte array
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Pick up stats written by write()
+     * Call before anything is counted. Stats added since the bytes were
+     * written are read as far as they go, rings of another size are dropped.
+     *
+     * @param data Bytes from PlayerStorage.loadStats(), or null if there are none
+     * @throws IOException If the bytes are not valid
+     */
+    public synchronized void read(byte[] data) throws IOException {
+        if (data == null) {
+            return;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not Campfire stats");
+        }
+
+        int stored = in.readInt();
+        int storedMinutes = in.readInt();
+        int storedHours = in.readInt();
+
+        for (int s = 0; s < stored; s++) {
+            long total = in.readLong();
+
+            if (s < STATS) {
+                base[s] = total;
+                rolled[s] = total;
+            }
+        }
+
+        readRing(in, minutes, minuteStamps, stored, storedMinutes);
+        readRing(in, hours, hourStamps, stored, storedHours);
+
+        for (int s = 0; s < stored; s++) {
+            for (int i = 0; i < TOP; i++) {
+                String name = in.readUTF();
+                long value = in.readLong();
+
+                if (s < STATS) {
+                    topNames[s][i] = name.length() == 0 ? null : name;
+                    topValues[s][i] = value;
+                }
+            }
+        }
+
+        // Stats written before players' counts were kept end here
+        if (in.available() == 0) {
+            return;
+        }
+
+        int count = in.readInt();
+
+        for (int i = 0; i < count; i++) {
+            String playerName = in.readUTF();
+            int mask = in.readInt();
+            long[] counts = new long[STATS];
+
+            for (int s = 0; s < 32; s++) {
+                if ((mask & 1 << s) != 0) {
+                    long value = in.readLong();
+
+                    if (s < STATS) {
+                        counts[s] = value;
+                    }
+                }
+            }
+
+            offline.put(playerName, counts);
+        }
+    }
+
+    /**
+     * Add the counts to what was saved
+     * Call while holding the lock
+     *
+     * @return Totals by stat ordinal
+     */
+    private long[] totals() {
+        long[] totals = base.clone();
+
+        for (int s = 0; s < STATS; s++) {
+            totals[s] += counts[s].sum();
+        }
+
+        return totals;
+    }
+
+    /**
+     * Sum the last buckets of a ring
+     * Call while holding the lock
+     *
+     * @param ring Buckets
+     * @param stamps Period each bucket is for
+     * @param current Current period
+     * @param count Periods to look back
+     * @param s Stat ordinal
+     * @return Count, including what was not rolled yet
+     */
+    private long window(long[][] ring, long[] stamps, long current, int count, int s) {
+        long sum = totals()[s] - rolled[s];
+
+        for (int i = 0; i < ring.length; i++) {
+            if (stamps[i] > current - Math.min(count, ring.length) && stamps[i] <= current) {
+                sum += ring[i][s];
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     * Get the bucket of a minute, clearing it if it was last used for another
+     * Call while holding the lock
+     *
+     * @param minute Minute since the epoch
+     * @return Bucket
+     */
+    private long[] minuteBucket(long minute) {
+        int i = (int) (minute % MINUTES);
+
+        if (minuteStamps[i] != minute) {
+            minuteStamps[i] = minute;
+            Arrays.fill(minutes[i], 0);
+        }
+
+        return minutes[i];
+    }
+
+    /**
+     * Get the bucket of an hour, clearing it if it was last used for another
+     * Call while holding the lock
+     *
+     * @param hour Hour since the epoch
+     * @return Bucket
+     */
+    private long[] hourBucket(long hour) {
+        int i = (int) (hour % HOURS);
+
+        if (hourStamps[i] != hour) {
+            hourStamps[i] = hour;
+            Arrays.fill(hours[i], 0);
+        }
+
+        return hours[i];
+    }
+
+    /**
+     * Find a player in a top list
+     * Call while holding the lock
+     *
+     * @param s Stat ordinal
+     * @param playerName Player name
+     * @return Rank, or -1 if they are not in it
+     */
+    private int rank(int s, String playerName) {
+        for (int i = 0; i < TOP && topNames[s][i] != null; i++) {
+            if (topNames[s][i].equals(playerName)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Put a player's counts into the top lists they make it into
+     * Call while holding the lock
+     *
+     * @param playerName Player name
+     * @param counts Their counts
+     */
+    private void offer(String playerName, AtomicLongArray counts) {
+        for (int s = 0; s < STATS; s++) {
+            long value = counts.get(s);
+
+            if (value == 0) {
+                continue;
+            }
+
+            String[] names = topNames[s];
+            long[] values = topValues[s];
+            int i = rank(s, playerName);
+
+            if (i == -1) {
+                // Not in it, take the last place if they beat it
+                i = TOP - 1;
+
+                if (names[i] != null && values[i] >= value) {
+                    continue;
+                }
+            }
+
+            names[i] = playerName;
+            values[i] = value;
+
+            // Move them up to their place
+            while (i > 0 && (names[i - 1] == null || values[i - 1] < value)) {
+                names[i] = names[i - 1];
+                values[i] = values[i - 1];
+                names[i - 1] = playerName;
+                values[i - 1] = value;
+                i--;
+            }
+        }
+    }
+
+    /**
+     * Write a player's counts, only the stats they have any of
+     *
+     * @param out Output
+     * @param playerName Player name
+     * @param counts Counts by stat ordinal
+     * @throws IOException
+     */
+    private static void writePlayer(DataOutputStream out, String playerName, long[] counts) throws IOException {
+        int mask = 0;
+
+        for (int s = 0; s < STATS; s++) {
+            if (counts[s] != 0) {
+                mask |= 1 << s;
+            }
+        }
+
+        out.writeUTF(playerName);
+        out.writeInt(mask);
+
+        for (int s = 0; s < STATS; s++) {
+            if (counts[s] != 0) {
+                out.writeLong(counts[s]);
+            }
+        }
+    }
+
+    private static void writeRing(DataOutputStream out, long[][] ring, long[] stamps) throws IOException {
+        for (int i = 0; i < ring.length; i++) {
+            out.writeLong(stamps[i]);
+
+            for (long value: ring[i]) {
+                out.writeLong(value);
+            }
+        }
+    }
+
+    private static void readRing(DataInputStream in, long[][] ring, long[] stamps, int stored, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            long stamp = in.readLong();
+
+            for (int s = 0; s < stored; s++) {
+                long value = in.readLong();
+
+                if (length == ring.length && s < STATS) {
+                    ring[i][s] = value;
+                }
+            }
+
+            if (length == ring.length) {
+                stamps[i] = stamp;
+            }
+        }
+    }
+}
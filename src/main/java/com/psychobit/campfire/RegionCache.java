@@ -0,0 +1,239 @@
+package com.psychobit.campfire;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Location;
+
+import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
+import com.sk89q.worldguard.protection.ApplicableRegionSet;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+
+/**
+ * Caches whether a block is in a zone that pauses protection timers
+ *
+ * Keyed by world and block coordinates packed into a long, evicted least
+ * recently used first. Entries carry the cache version they were resolved
+ * in, so invalidate() only has to bump the version when regions change.
+ *
+ * Synchronized, so the zone worker can share it with the server thread.
+ *
+ * @author psychobit
+ *
+ */
+public class RegionCache {
+    /**
+     * Bits of the key used for each coordinate
+     */
+    private static final int WORLD_BITS = 10;
+    private static final int Y_BITS = 10;
+    private static final int XZ_BITS = 22;
+    /**
+     * Largest absolute x or z that fits in a key
+     */
+    private static final int XZ_LIMIT = 1 << (XZ_BITS - 1);
+    /**
+     * WorldGuard instance doing the actual lookups
+     */
+    private final WorldGuardPlugin wg;
+    /**
+     * Where WorldGuard lookup times are recorded
+     */
+    private final Metrics metrics;
+    /**
+     * Resolved blocks, value is version << 1 | paused
+     */
+    private final LinkedHashMap<Long, Integer> entries;
+    /**
+     * Small ids for worlds, used in the keys
+     */
+    private final HashMap<UUID, Integer> worldIds = new HashMap<UUID, Integer>();
+    /**
+     * Current version, entries from older versions are misses
+     */
+    private int version;
+    /**
+     * Lookups answered from the cache
+     */
+    private long hits;
+    /**
+     * Lookups that went to WorldGuard
+     */
+    private long misses;
+    /**
+     * Time spent in hits, in nanoseconds
+     */
+    private long hitNanos;
+    /**
+     * Time spent in misses, in nanoseconds
+     */
+    private long missNanos;
+
+    /**
+     * Create a cache
+     *
+     * @param wg WorldGuard instance
+     * @param maxSize Most blocks to remember
+     * @param metrics Where WorldGuard lookup times are recorded
+     */
+    public RegionCache(WorldGuardPlugin wg, final int maxSize, Metrics metrics) {
+        this.wg = wg;
+        this.metrics = metrics;
+        this.entries = new LinkedHashMap<Long, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Does this location pause protection timers?
+     * True in regions that deny PvP or grant invincibility
+     *
+     * @param location Location to check
+     * @return Timer paused
+     */
+    public synchronized boolean isTimerPaused(Location location) {
+        long start = System.nanoTime();
+        long key = key(location);
+
+        if (key != -1) {
+            Integer value = entries.get(key);
+
+            if (value != null && (value >>> 1) == version) {
+                hits++;
+                hitNanos += System.nanoTime() - start;
+
+                return (value & 1) != 0;
+            }
+        }
+
+        long lookup = System.nanoTime();
+        ApplicableRegionSet regions = wg.getRegionManager(location.getWorld()).getApplicableRegions(location);
+        boolean paused = !regions.allows(DefaultFlag.PVP) || regions.allows(DefaultFlag.INVINCIBILITY);
+
+        metrics.time(Metrics.Timer.REGION_LOOKUP, lookup);
+
+        if (key != -1) {
+            entries.put(key, (version << 1) | (paused ? 1 : 0));
+        }
+
+        misses++;
+        missNanos += System.nanoTime() - start;
+
+        return paused;
+    }
+
+    /**
+     * Forget every resolved block
+     * Call when regions were reloaded or edited
+     */
+    public synchronized void invalidate() {
+        version = (version + 1) & 0x3fffffff;
+    }
+
+    /**
+     * Get the current version, bumped by every invalidation
+     *
+     * @return Version
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the number of blocks remembered, including stale ones
+     *
+     * @return Entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the lookups answered from the cache
+     *
+     * @return Hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the lookups that went to WorldGuard
+     *
+     * @return Misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the share of lookups answered from the cache
+     *
+     * @return Hit rate between 0 and 1
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Get the average time of a hit
+     *
+     * @return Nanoseconds
+     */
+    public synchronized long getAverageHitNanos() {
+        return hits == 0 ? 0 : hitNanos / hits;
+    }
+
+    /**
+     * Get the average time of a miss, including the WorldGuard lookup
+     *
+     * @return Nanoseconds
+     */
+    public synchronized long getAverageMissNanos() {
+        return misses == 0 ? 0 : missNanos / misses;
+    }
+
+    /**
+     * Pack a location into a key
+     *
+     * @param location Location
+     * @return Key, or -1 if it does not fit
+     */
+    private long key(Location location) {
+        UUID uid = location.getWorld().getUID();
+        Integer world = worldIds.get(uid);
+
+        if (world == null) {
+            if (worldIds.size() >= (1 << WORLD_BITS)) {
+                return -1;
+            }
+
+            world = worldIds.size();
+            worldIds.put(uid, world);
+        }
+
+        int x = location.getBlockX();
+        int y = location.getBlockY();
+        int z = location.getBlockZ();
+
+        if (x < -XZ_LIMIT || x >= XZ_LIMIT || z < -XZ_LIMIT || z >= XZ_LIMIT || y < 0 || y >= (1 << Y_BITS)) {
+            return -1;
+        }
+
+        long mask = (1L << XZ_BITS) - 1;
+
+        return ((long) world << (Y_BITS + 2 * XZ_BITS))
+                | ((long) y << (2 * XZ_BITS))
+                | ((x & mask) << XZ_BITS)
+                | (z & mask);
+    }
+}
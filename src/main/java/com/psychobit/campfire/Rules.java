@@ -0,0 +1,319 @@
+package com.psychobit.campfire;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.event.entity.EntityDamageEvent.DamageCause;
+
+/**
+ * Protection rules compiled from the config
+ *
+ * Rules never change once compiled. A reload compiles new ones and swaps
+ * them in whole, so a handler that reads them once sees a single consistent
+ * set without locking. Item, block and damage cause checks are bit tests in
+ * an EnumSet.
+ *
+ * Duration, buffer and whether protection applies at all can be set for
+ * each world in the Worlds section, worlds not listed use the top level
+ * values. Players given a tier in the Tiers section are protected for the
+ * tier's duration instead.
+ *
+ * @author psychobit
+ *
+ */
+public class Rules {
+    /**
+     * Protection settings of a world
+     */
+    public static class Settings {
+        /**
+         * Does protection apply in the world?
+         */
+        private final boolean enabled;
+        /**
+         * Time in seconds a player is protected for
+         */
+        private final int duration;
+        /**
+         * Distance around a protected player buffer items can't be used in
+         */
+        private final int bufferDist;
+
+        private Settings(boolean enabled, int duration, int bufferDist) {
+            this.enabled = enabled;
+            this.duration = duration;
+            this.bufferDist = bufferDist;
+        }
+
+        /**
+         * Does protection apply in the world?
+         * Timers are paused while players are in a world where it does not
+         *
+         * @return Enabled
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Get the time a player is protected for
+         *
+         * @return Seconds
+         */
+        public int getDuration() {
+            return duration;
+        }
+
+        /**
+         * Get the distance around a protected player buffer items can't be used in
+         *
+         * @return Blocks
+         */
+        public int getBufferDist() {
+            return bufferDist;
+        }
+    }
+
+    /**
+     * Logger for bad config entries
+     */
+    private static final Logger log = Logger.getLogger("Minecraft");
+    /**
+     * Items protected players can't use, unless the config says otherwise
+     */
+    static final List<String> DEFAULT_PROHIBITED_ITEMS = Arrays.asList("FLINT_AND_STEEL", "LAVA_BUCKET");
+    /**
+     * Blocks protected players can't use, unless the config says otherwise
+     */
+    static final List<String> DEFAULT_PROHIBITED_BLOCKS = Arrays.asList("CHEST");
+    /**
+     * Items nobody can use near protected players, unless the config says otherwise
+     */
+    static final List<String> DEFAULT_BUFFER_ITEMS = Arrays.asList("FLINT_AND_STEEL", "LAVA_BUCKET");
+    /**
+     * Causes of player dealt damage that are cancelled, unless the config says otherwise
+     */
+    static final List<String> DEFAULT_DAMAGE_SOURCES = Arrays.asList("ENTITY_ATTACK", "PROJECTILE", "MAGIC", "ENTITY_EXPLOSION");
+    /**
+     * Settings of the worlds not listed in the config
+     */
+    private final Settings defaults;
+    /**
+     * Settings of the worlds listed in the config, by name
+     */
+    private final HashMap<String, Settings> worlds;
+    /**
+     * Durations of the tiers, by name
+     */
+    private final Map<String, Integer> tiers;
+    /**
+     * Is a player's protection reset when they die?
+     */
+    private final boolean resetOnDeath;
+    private final EnumSet<Material> prohibitedItems;
+    private final EnumSet<Material> prohibitedBlocks;
+    private final EnumSet<Material> bufferItems;
+    private final EnumSet<DamageCause> damageSources;
+
+    private Rules(Settings defaults, HashMap<String, Settings> worlds, Map<String, Integer> tiers, boolean resetOnDeath,
+            EnumSet<Material> prohibitedItems, EnumSet<Material> prohibitedBlocks, EnumSet<Material> bufferItems,
+            EnumSet<DamageCause> damageSources) {
+        this.defaults = defaults;
+        this.worlds = worlds;
+        this.tiers = tiers;
+        this.resetOnDeath = resetOnDeath;
+        this.prohibitedItems = prohibitedItems;
+        this.prohibitedBlocks = prohibitedBlocks;
+        this.bufferItems = bufferItems;
+        this.damageSources = damageSources;
+    }
+
+    /**
+     * Compile the rules in a config
+     * Names that don't match anything are logged and left out
+     *
+     * @param config Plugin config
+     * @return Rules
+     */
+    public static Rules compile(ConfigurationSection config) {
+        Settings defaults = new Settings(true, Math.max(0, config.getInt("Duration", 60 * 20)), Math.max(0, config.getInt("Buffer", 5)));
+        HashMap<String, Settings> worlds = new HashMap<String, Settings>();
+        ConfigurationSection section = config.getConfigurationSection("Worlds");
+
+        if (section != null) {
+            for (String name: section.getKeys(false)) {
+                ConfigurationSection world = section.getConfigurationSection(name);
+
+                if (world == null) {
+                    log.log(Level.WARNING, "Worlds." + name + " should be a section");
+
+                    continue;
+                }
+
+                worlds.put(name, new Settings(world.getBoolean("Enabled", true),
+                        Math.max(0, world.getInt("Duration", defaults.getDuration())),
+                        Math.max(0, world.getInt("Buffer", defaults.getBufferDist()))));
+            }
+        }
+
+        LinkedHashMap<String, Integer> tiers = new LinkedHashMap<String, Integer>();
+        section = config.getConfigurationSection("Tiers");
+
+        if (section != null) {
+            for (String name: section.getKeys(false)) {
+                if (!section.isInt(name)) {
+                    log.log(Level.WARNING, "Tiers." + name + " should be a duration in seconds");
+
+                    continue;
+                }
+
+                tiers.put(name.toLowerCase(), Math.max(0, section.getInt(name)));
+            }
+        }
+
+        return new Rules(defaults, worlds, Collections.unmodifiableMap(tiers), config.getBoolean("ResetOnDeath", true),
+                materials(config, "ProhibitedItems", DEFAULT_PROHIBITED_ITEMS),
+                materials(config, "ProhibitedBlocks", DEFAULT_PROHIBITED_BLOCKS),
+                materials(config, "BufferItems", DEFAULT_BUFFER_ITEMS),
+                causes(config, "DamageSources", DEFAULT_DAMAGE_SOURCES));
+    }
+
+    /**
+     * Get the settings of a world
+     *
+     * @param worldName World name
+     * @return Its own settings, or the top level ones if it is not listed
+     */
+    public Settings getWorld(String worldName) {
+        Settings settings = worlds.get(worldName);
+
+        return settings == null ? defaults : settings;
+    }
+
+    /**
+     * Get the duration tiers
+     * A player with the permission campfire.tier.<name> is protected for its duration
+     *
+     * @return Seconds by tier name, in config order
+     */
+    public Map<String, Integer> getTiers() {
+        return tiers;
+    }
+
+    /**
+     * Is a player's protection reset when they die?
+     *
+     * @return Reset on death
+     */
+    public boolean isResetOnDeath() {
+        return resetOnDeath;
+    }
+
+    /**
+     * Can protected players not use an item?
+     *
+     * @param item Item in hand
+     * @return True if it is prohibited
+     */
+    public boolean isProhibitedItem(Material item) {
+        return prohibitedItems.contains(item);
+    }
+
+    /**
+     * Can protected players not use a block?
+     *
+     * @param block Block clicked
+     * @return True if it is prohibited
+     */
+    public boolean isProhibitedBlock(Material block) {
+        return prohibitedBlocks.contains(block);
+    }
+
+    /**
+     * Can nobody use an item near protected players?
+     *
+     * @param item Item in hand
+     * @return True if it is kept out of the buffer
+     */
+    public boolean isBufferItem(Material item) {
+        return bufferItems.contains(item);
+    }
+
+    /**
+     * Is damage a player deals this way cancelled when protection applies?
+     *
+     * @param cause Damage cause
+     * @return True if it is PvP damage
+     */
+    public boolean isDamageSource(DamageCause cause) {
+        return damageSources.contains(cause);
+    }
+
+    /**
+     * Get the sizes of the lists, for the reload command
+     *
+     * @return Number of prohibited items, prohibited blocks, buffer items and damage sources
+     */
+    public Object[] getSizes() {
+        return new Object[] { prohibitedItems.size(), prohibitedBlocks.size(), bufferItems.size(), damageSources.size() };
+    }
+
+    /**
+     * Read a list of materials, by name or id
+     *
+     * @param config Plugin config
+     * @param path Key of the list
+     * @param defaults Names used when the key is missing
+     * @return Materials
+     */
+    private static EnumSet<Material> materials(ConfigurationSection config, String path, List<String> defaults) {
+        EnumSet<Material> set = EnumSet.noneOf(Material.class);
+
+        for (String name: list(config, path, defaults)) {
+            Material material = Material.matchMaterial(name);
+
+            if (material == null) {
+                log.log(Level.WARNING, "Unknown material " + name + " in " + path);
+            } else {
+                set.add(material);
+            }
+        }
+
+        return set;
+    }
+
+    /**
+     * Read a list of damage causes
+     *
+     * @param config Plugin config
+     * @param path Key of the list
+     * @param defaults Names used when the key is missing
+     * @return Damage causes
+     */
+    private static EnumSet<DamageCause> causes(ConfigurationSection config, String path, List<String> defaults) {
+        EnumSet<DamageCause> set = EnumSet.noneOf(DamageCause.class);
+
+        for (String name: list(config, path, defaults)) {
+            try {
+                set.add(DamageCause.valueOf(name.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                log.log(Level.WARNING, "Unknown damage cause " + name + " in " + path);
+            }
+        }
+
+        return set;
+    }
+
+    private static List<String> list(ConfigurationSection config, String path, List<String> defaults) {
+        return config.contains(path) ? config.getStringList(path) : defaults;
+    }
+}
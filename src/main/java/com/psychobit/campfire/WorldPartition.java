@@ -0,0 +1,223 @@
+package com.psychobit.campfire;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+/**
+ * Protected players of one world
+ *
+ * Each world has its own settings, its own index of the protected players
+ * in it, its own grid for the buffer and its own batch of players to update,
+ * so the work for a world only grows with the players in that world. Nobody
+ * is indexed in a world where protection is disabled.
+ *
+ * Only used on the server thread.
+ *
+ * @author psychobit
+ *
+ */
+public class WorldPartition {
+    /**
+     * Name of the world
+     */
+    private final String worldName;
+    /**
+     * Settings from the rules, replaced on reload
+     */
+    private Rules.Settings settings;
+    /**
+     * Protected players in the world, by name
+     */
+    private final HashMap<String, Player> players = new HashMap<String, Player>();
+    /**
+     * Positions of the protected players, for the buffer
+     */
+    private ProtectedGrid grid;
+    /**
+     * Protected players to visit in the current pass
+     */
+    private final ArrayList<Player> pass = new ArrayList<Player>();
+    /**
+     * Next index into pass
+     */
+    private int passIndex;
+
+    /**
+     * Create an empty partition
+     *
+     * @param worldName Name of the world
+     * @param settings Settings of the world
+     */
+    public WorldPartition(String worldName, Rules.Settings settings) {
+        this.worldName = worldName;
+        this.settings = settings;
+        this.grid = new ProtectedGrid(settings.getBufferDist());
+    }
+
+    /**
+     * Get the name of the world
+     *
+     * @return World name
+     */
+    public String getWorldName() {
+        return worldName;
+    }
+
+    /**
+     * Does protection apply in the world?
+     *
+     * @return Enabled
+     */
+    public boolean isEnabled() {
+        return settings.isEnabled();
+    }
+
+    /**
+     * Get the time a player is protected for in the world
+     *
+     * @return Seconds
+     */
+    public int getDuration() {
+        return settings.getDuration();
+    }
+
+    /**
+     * Get the distance around a protected player buffer items can't be used in
+     *
+     * @return Blocks
+     */
+    public int getBufferDist() {
+        return settings.getBufferDist();
+    }
+
+    /**
+     * Replace the settings after a reload
+     * The grid is rebuilt if the buffer changed
+     *
+     * @param next New settings
+     */
+    public void setSettings(Rules.Settings next) {
+        boolean rebuild = next.getBufferDist() != settings.getBufferDist();
+
+        settings = next;
+
+        if (rebuild) {
+            grid = new ProtectedGrid(next.getBufferDist());
+
+            for (Map.Entry<String, Player> entry: players.entrySet()) {
+                grid.put(entry.getKey(), entry.getValue(), entry.getValue().getLocation());
+            }
+        }
+    }
+
+    /**
+     * Index a protected player in the world
+     *
+     * @param playerName Player name
+     * @param player Player
+     */
+    public void put(String playerName, Player player) {
+        players.put(playerName, player);
+        grid.put(playerName, player, player.getLocation());
+    }
+
+    /**
+     * Remove a player from the index
+     *
+     * @param playerName Player name
+     */
+    public void remove(String playerName) {
+        players.remove(playerName);
+        grid.remove(playerName);
+    }
+
+    /**
+     * Get a protected player in the world
+     *
+     * @param playerName Player name
+     * @return Player, or null if they are not indexed here
+     */
+    public Player get(String playerName) {
+        return players.get(playerName);
+    }
+
+    /**
+     * Get the protected players in the world
+     *
+     * @return Players by name, not to be changed
+     */
+    public Set<Map.Entry<String, Player>> entries() {
+        return players.entrySet();
+    }
+
+    /**
+     * Get the names of the protected players in the world
+     *
+     * @return Copy of the names, the partition can be changed while it is used
+     */
+    public ArrayList<String> getPlayerNames() {
+        return new ArrayList<String>(players.keySet());
+    }
+
+    /**
+     * Get the number of protected players in the world
+     *
+     * @return Protected players
+     */
+    public int size() {
+        return players.size();
+    }
+
+    /**
+     * Move a protected player in the grid
+     *
+     * @param playerName Player name
+     * @param location Where they are
+     */
+    public void update(String playerName, Location location) {
+        grid.update(playerName, location);
+    }
+
+    /**
+     * Is any protected player within the buffer of a location?
+     *
+     * @param location Location
+     * @param exclude Player to leave out, or null
+     * @return True if someone is
+     */
+    public boolean anyWithinBuffer(Location location, Player exclude) {
+        return grid.anyWithin(location, settings.getBufferDist(), exclude);
+    }
+
+    /**
+     * Start a pass over the protected players in the world
+     */
+    public void beginPass() {
+        pass.clear();
+        pass.addAll(players.values());
+        passIndex = 0;
+    }
+
+    /**
+     * Get the number of players left in the current pass
+     *
+     * @return Players left
+     */
+    public int remaining() {
+        return pass.size() - passIndex;
+    }
+
+    /**
+     * Take the next player of the current pass
+     *
+     * @return Player, who may have left the index since the pass started
+     */
+    public Player next() {
+        return pass.get(passIndex++);
+    }
+}
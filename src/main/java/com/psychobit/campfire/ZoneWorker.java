@@ -0,0 +1,319 @@
+package com.psychobit.campfire;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+/**
+ * Checks protected players' zones on a background thread
+ *
+ * The server thread copies where each player stands into a reusable batch.
+ * Once a pass is complete the batch goes to the worker, which resolves the
+ * regions, and comes back on a later tick with the players whose zone
+ * changed. Two batches take turns so neither side waits on the other; a
+ * pass that completes while the worker is still busy is dropped, and the
+ * names in it are handed back so those players are captured again by the
+ * next pass instead of counting as checked.
+ *
+ * @author psychobit
+ *
+ */
+public class ZoneWorker {
+    /**
+     * Logger for exceptions.
+     */
+    private static final Logger log = Logger.getLogger("Minecraft");
+    /**
+     * Decisions shared with the server thread
+     */
+    private final RegionCache regionCache;
+    /**
+     * Where batch times are recorded
+     */
+    private final Metrics metrics;
+    /**
+     * Single background thread doing the region lookups
+     */
+    private final ExecutorService executor;
+    /**
+     * Batch being filled by the server thread
+     */
+    private Positions filling = new Positions();
+    /**
+     * Batch that is free, or with the worker while busy
+     */
+    private Positions spare = new Positions();
+    /**
+     * Is the spare batch with the worker?
+     * Only used from the server thread
+     */
+    private boolean busy;
+    /**
+     * Batch the worker is done with, waiting for the server thread
+     */
+    private volatile Positions finished;
+
+    /**
+     * Create a worker
+     *
+     * @param regionCache Region decisions, must be safe to share
+     * @param metrics Where batch times are recorded
+     */
+    public ZoneWorker(RegionCache regionCache, Metrics metrics) {
+        this.regionCache = regionCache;
+        this.metrics = metrics;
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Campfire-Zones");
+                t.setDaemon(true);
+
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Remember where a protected player is for the next batch
+     * Server thread only
+     *
+     * @param playerName Player's name
+     * @param player Player
+     * @param inZone Is their timer paused by a zone now?
+     */
+    public void capture(String playerName, Player player, boolean inZone) {
+        Location location = player.getLocation();
+
+        filling.add(playerName, player, location.getWorld(), location.getBlockX(), location.getBlockY(),
+                location.getBlockZ(), player.isDead(), inZone);
+    }
+
+    /**
+     * Hand the captured positions to the worker
+     * If it is still busy the positions are dropped instead
+     * Server thread only
+     *
+     * @return Names of the players whose positions were dropped, empty if they were handed over
+     */
+    public List<String> submit() {
+        if (filling.size == 0) {
+            return Collections.emptyList();
+        }
+
+        if (busy) {
+            ArrayList<String> dropped = new ArrayList<String>(filling.size);
+
+            for (int i = 0; i < filling.size; i++) {
+                dropped.add(filling.names[i]);
+            }
+
+            filling.clear();
+            metrics.count(Metrics.Counter.ZONE_PASSES_SKIPPED);
+
+            return dropped;
+        }
+
+        final Positions batch = filling;
+
+        filling = spare;
+        spare = batch;
+        busy = true;
+
+        executor.execute(new Runnable() {
+            public void run() {
+                evaluate(batch);
+            }
+        });
+
+        return Collections.emptyList();
+    }
+
+    /**
+     * Take the batch the worker finished, if there is one
+     * It lists the players whose zone changed; hand it back
+     * with release() once they are applied
+     * Server thread only
+     *
+     * @return Finished batch or null
+     */
+    public Positions poll() {
+        return finished;
+    }
+
+    /**
+     * Give a finished batch back for reuse
+     * Server thread only
+     *
+     * @param batch Batch returned by poll()
+     */
+    public void release(Positions batch) {
+        finished = null;
+        batch.clear();
+        busy = false;
+    }
+
+    /**
+     * Stop the worker, dropping any batch in progress
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Resolve the zone of every position in a batch
+     * Runs on the worker thread
+     *
+     * @param batch Batch
+     */
+    private void evaluate(Positions batch) {
+        long start = System.nanoTime();
+
+        try {
+            for (int i = 0; i < batch.size; i++) {
+                if (batch.ignored[i]) {
+                    continue;
+                }
+
+                Location location = new Location(batch.worlds[i], batch.x[i], batch.y[i], batch.z[i]);
+
+                if (regionCache.isTimerPaused(location) != batch.inZone[i]) {
+                    batch.changes[batch.changeCount++] = i;
+                }
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Exception while checking zones", e);
+
+            batch.changeCount = 0;
+        }
+
+        metrics.time(Metrics.Timer.ZONE_WORKER, start);
+        finished = batch;
+    }
+
+    /**
+     * Positions of protected players, as parallel arrays that are reused
+     */
+    public static class Positions {
+        private int size;
+        private String[] names = new String[16];
+        private Player[] players = new Player[16];
+        private World[] worlds = new World[16];
+        private int[] x = new int[16];
+        private int[] y = new int[16];
+        private int[] z = new int[16];
+        private boolean[] ignored = new boolean[16];
+        private boolean[] inZone = new boolean[16];
+        private int[] changes = new int[16];
+        private int changeCount;
+
+        /**
+         * Number of positions
+         *
+         * @return Size
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Name of a captured player
+         *
+         * @param i Index
+         * @return Player's name
+         */
+        public String getName(int i) {
+            return names[i];
+        }
+
+        /**
+         * A captured player, for checking they are still the same entity
+         *
+         * @param i Index
+         * @return Player
+         */
+        public Player getPlayer(int i) {
+            return players[i];
+        }
+
+        /**
+         * Number of players whose zone changed since they were captured
+         *
+         * @return Changes
+         */
+        public int getChangeCount() {
+            return changeCount;
+        }
+
+        /**
+         * Index of a player whose zone changed
+         *
+         * @param change Which change, below getChangeCount()
+         * @return Index
+         */
+        public int getChange(int change) {
+            return changes[change];
+        }
+
+        /**
+         * Was the player in a zone when they were captured?
+         *
+         * @param i Index
+         * @return True if their timer was paused
+         */
+        public boolean wasInZone(int i) {
+            return inZone[i];
+        }
+
+        private void add(String name, Player player, World world, int bx, int by, int bz, boolean ignore, boolean zone) {
+            if (size == names.length) {
+                grow();
+            }
+
+            names[size] = name;
+            players[size] = player;
+            worlds[size] = world;
+            x[size] = bx;
+            y[size] = by;
+            z[size] = bz;
+            ignored[size] = ignore;
+            inZone[size] = zone;
+            size++;
+        }
+
+        private void clear() {
+            // Let go of players that quit
+            for (int i = 0; i < size; i++) {
+                names[i] = null;
+                players[i] = null;
+                worlds[i] = null;
+            }
+
+            size = 0;
+            changeCount = 0;
+        }
+
+        private void grow() {
+            int length = names.length * 2;
+
+            names = Arrays.copyOf(names, length);
+            players = Arrays.copyOf(players, length);
+            worlds = Arrays.copyOf(worlds, length);
+            x = Arrays.copyOf(x, length);
+            y = Arrays.copyOf(y, length);
+            z = Arrays.copyOf(z, length);
+            ignored = Arrays.copyOf(ignored, length);
+            inZone = Arrays.copyOf(inZone, length);
+            changes = Arrays.copyOf(changes, length);
+        }
+    }
+}